@@ -20,6 +20,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.location.Location;
 
+import com.buddy.sdk.models.ModelBase;
 import com.buddy.sdk.models.NotificationResult;
 import com.buddy.sdk.models.TimedMetric;
 import com.buddy.sdk.models.User;
@@ -78,6 +79,14 @@ public class Buddy {
         return client;
     }
 
+    public static BuddyBatch batch() {
+        return getCurrentClient().batch();
+    }
+
+    public static <T extends ModelBase> BuddyLoader<T> loader(String path, Class<T> clazz, LoaderOptions options) {
+        return getCurrentClient().loader(path, clazz, options);
+    }
+
     public static <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, Class<T> clazz) {
         return getCurrentClient().<T>get(path, parameters, clazz);
     }
@@ -87,6 +96,16 @@ public class Buddy {
         return getCurrentClient().<T>get(path, parameters, callback);
     }
 
+    public static <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, CachePolicy policy, Class<T> clazz)
+    {
+        return getCurrentClient().<T>get(path, parameters, policy, clazz);
+    }
+
+    public static <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, CachePolicy policy, final BuddyCallback<T> callback)
+    {
+        return getCurrentClient().<T>get(path, parameters, policy, callback);
+    }
+
     public static <T> Future<BuddyResult<T>> post(String path, Map<String, Object> parameters, Class<T> clazz)
     {
         return getCurrentClient().<T>post(path, parameters, clazz);
@@ -0,0 +1,306 @@
+package com.buddy.sdk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.buddy.sdk.models.CompactJson;
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Queues calls and sends them together from BuddyClient.batch():
+//
+//   BuddyBatch batch = client.batch();
+//   Future<BuddyResult<User>> me = batch.get("/users/me", null, User.class);
+//   batch.get("/messages", params, messagesCallback);
+//   batch.send();
+//
+// The calls go out as one POST to BuddyClientOptions.batchPath,
+//
+//   {"requests":[{"id":"0","method":"GET","path":"/users/me","parameters":{}}, ...]}
+//
+// answered with {"responses":[{"id":"0","body":<the call's own envelope>}, ...]}
+// as the result.  Without a batch endpoint, or when the service says it has
+// none, the calls are made individually, all at once.  Either way each
+// call's Future and callback complete on their own, with the result the
+// call would have had by itself.
+//
+// Some calls are always made individually, as a batch would lose
+// something they ask for:
+//   - calls that send or receive a BuddyFile;
+//   - calls with their own CallTimeout, CallPriority or ResultCachePolicy,
+//     which apply to a request of their own;
+//   - GETs on a client with a responseCache or coalesceRequests, so they
+//     are answered from, and stored in, the cache, and share requests
+//     in flight like any other GET.
+public class BuddyBatch {
+
+    private static class Item<T> {
+        final String id;
+        final String method;
+        final String path;
+        final Map<String, Object> parameters;
+        final BuddyCallback<T> callback;
+        final Class<T> clazz;
+        final Set<String> resultFields;
+        final BuddyFuture<BuddyResult<T>> promise = new BuddyFuture<BuddyResult<T>>();
+
+        Item(String id, String method, String path, Map<String, Object> parameters, BuddyCallback<T> callback, Class<T> clazz) {
+            this.id = id;
+            this.method = method;
+            this.path = path;
+            this.callback = callback;
+            this.clazz = clazz != null ? clazz : (callback != null ? callback.getResultClass() : null);
+
+            Map<String, Object> copy = parameters == null ? new HashMap<String, Object>() : new HashMap<String, Object>(parameters);
+            Object fields = copy.get(BuddyClientImpl.ResultFields);
+            this.resultFields = fields == null ? null : BuddyServiceClientImpl.toFieldSet(fields);
+            this.parameters = copy;
+        }
+
+        boolean hasFiles() {
+            if (clazz != null && BuddyFile.class.isAssignableFrom(clazz)) {
+                return true;
+            }
+            for (Object value : parameters.values()) {
+                if (value instanceof BuddyFile) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        // options that only a request of the call's own can honor.
+        boolean hasCallOptions() {
+            return parameters.containsKey(BuddyClientImpl.CallTimeout) || parameters.containsKey(BuddyClientImpl.CallPriority)
+                    || parameters.containsKey(BuddyClientImpl.ResultCachePolicy);
+        }
+
+        // the parameters as the service should see them.
+        Map<String, Object> wireParameters() {
+            Map<String, Object> wire = new LinkedHashMap<String, Object>(parameters);
+            wire.remove(BuddyClientImpl.ResultFields);
+            wire.remove(BuddyClientImpl.NoRegisterDevice);
+            return wire;
+        }
+
+        // the callback only runs for a result that completed the call, so
+        // not after a cancel, and it can get() its own result.
+        void complete(BuddyResult<T> result) {
+            if (promise.setValue(result) && callback != null) {
+                callback.completed(result);
+            }
+        }
+    }
+
+    private final BuddyServiceClient service;
+    private final BuddyClient client;
+    private final BuddyClientOptions options;
+    private final AtomicBoolean endpointMissing;
+    private final List<Item<?>> items = new ArrayList<Item<?>>();
+    private boolean sent;
+
+    // endpointMissing is shared by the batches of one client, so it only
+    // has to find out once that the service has no batch endpoint.
+    BuddyBatch(BuddyServiceClient service, BuddyClient client, BuddyClientOptions options, AtomicBoolean endpointMissing) {
+        this.service = service;
+        this.client = client;
+        this.options = options;
+        this.endpointMissing = endpointMissing;
+    }
+
+    public <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, Class<T> clazz) {
+        return add(BuddyServiceClient.GET, path, parameters, null, clazz);
+    }
+
+    public <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, final BuddyCallback<T> callback) {
+        return add(BuddyServiceClient.GET, path, parameters, callback, null);
+    }
+
+    public <T> Future<BuddyResult<T>> post(String path, Map<String, Object> parameters, Class<T> clazz) {
+        return add(BuddyServiceClient.POST, path, parameters, null, clazz);
+    }
+
+    public <T> Future<BuddyResult<T>> post(String path, Map<String, Object> parameters, final BuddyCallback<T> callback) {
+        return add(BuddyServiceClient.POST, path, parameters, callback, null);
+    }
+
+    public <T> Future<BuddyResult<T>> patch(String path, Map<String, Object> parameters, Class<T> clazz) {
+        return add(BuddyServiceClient.PATCH, path, parameters, null, clazz);
+    }
+
+    public <T> Future<BuddyResult<T>> patch(String path, Map<String, Object> parameters, final BuddyCallback<T> callback) {
+        return add(BuddyServiceClient.PATCH, path, parameters, callback, null);
+    }
+
+    public <T> Future<BuddyResult<T>> put(String path, Map<String, Object> parameters, Class<T> clazz) {
+        return add(BuddyServiceClient.PUT, path, parameters, null, clazz);
+    }
+
+    public <T> Future<BuddyResult<T>> put(String path, Map<String, Object> parameters, final BuddyCallback<T> callback) {
+        return add(BuddyServiceClient.PUT, path, parameters, callback, null);
+    }
+
+    public <T> Future<BuddyResult<T>> delete(String path, Map<String, Object> parameters, Class<T> clazz) {
+        return add(BuddyServiceClient.DELETE, path, parameters, null, clazz);
+    }
+
+    public <T> Future<BuddyResult<T>> delete(String path, Map<String, Object> parameters, final BuddyCallback<T> callback) {
+        return add(BuddyServiceClient.DELETE, path, parameters, callback, null);
+    }
+
+    public synchronized int size() {
+        return items.size();
+    }
+
+    private synchronized <T> Future<BuddyResult<T>> add(String method, String path, Map<String, Object> parameters, BuddyCallback<T> callback, Class<T> clazz) {
+        if (sent) {
+            throw new IllegalStateException("The batch has already been sent.");
+        }
+        Item<T> item = new Item<T>(String.valueOf(items.size()), method, path, parameters, callback, clazz);
+        items.add(item);
+        return item.promise;
+    }
+
+    // Sends the queued calls; each one's Future and callback complete as
+    // its result comes in.  A batch can only be sent once.
+    public void send() {
+        List<Item<?>> batched = new ArrayList<Item<?>>();
+        List<Item<?>> alone = new ArrayList<Item<?>>();
+        synchronized (this) {
+            if (sent) {
+                throw new IllegalStateException("The batch has already been sent.");
+            }
+            sent = true;
+
+            boolean getsGoAlone = options.responseCache != null || options.coalesceRequests;
+            for (Item<?> item : items) {
+                if (item.hasFiles() || item.hasCallOptions() || (getsGoAlone && BuddyServiceClient.GET.equals(item.method))) {
+                    alone.add(item);
+                } else {
+                    batched.add(item);
+                }
+            }
+        }
+
+        for (Item<?> item : alone) {
+            sendAlone(item);
+        }
+
+        if (batched.size() < 2 || options.batchPath == null || endpointMissing.get()) {
+            for (Item<?> item : batched) {
+                sendAlone(item);
+            }
+            return;
+        }
+
+        final List<Item<?>> pending = batched;
+        List<Map<String, Object>> requests = new ArrayList<Map<String, Object>>();
+        for (Item<?> item : pending) {
+            Map<String, Object> request = new LinkedHashMap<String, Object>();
+            request.put("id", item.id);
+            request.put("method", item.method);
+            request.put("path", item.path);
+            request.put("parameters", item.wireParameters());
+            requests.add(request);
+        }
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("requests", requests);
+
+        service.makeRequest(BuddyServiceClient.POST, options.batchPath, parameters, new BuddyCallback<JsonObject>(JsonObject.class) {
+            @Override
+            public void completed(BuddyResult<JsonObject> result) {
+                if (isMissingEndpoint(result)) {
+                    endpointMissing.set(true);
+                    for (Item<?> item : pending) {
+                        sendAlone(item);
+                    }
+                } else {
+                    distribute(result, pending);
+                }
+            }
+        }, JsonObject.class);
+    }
+
+    private static boolean isMissingEndpoint(BuddyResult<JsonObject> result) {
+        int status = result.env.status;
+        return status == 404 || status == 405 || status == 501;
+    }
+
+    private <T> void sendAlone(final Item<T> item) {
+        service.makeRequest(item.method, item.path, item.parameters, new BuddyCallback<T>(item.clazz) {
+            @Override
+            public void completed(BuddyResult<T> result) {
+                item.complete(result);
+            }
+        }, item.clazz);
+    }
+
+    private void distribute(BuddyResult<JsonObject> result, List<Item<?>> pending) {
+        Map<String, JsonObject> bodies = new HashMap<String, JsonObject>();
+        JsonObject responses = result.getResult();
+
+        if (result.getIsSuccess() && responses != null && responses.get("responses") instanceof JsonArray) {
+            for (JsonElement response : responses.getAsJsonArray("responses")) {
+                if (response.isJsonObject() && response.getAsJsonObject().has("id") && response.getAsJsonObject().get("body") instanceof JsonObject) {
+                    bodies.put(response.getAsJsonObject().get("id").getAsString(), response.getAsJsonObject().getAsJsonObject("body"));
+                }
+            }
+        }
+
+        for (Item<?> item : pending) {
+            complete(item, result, bodies.get(item.id));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void complete(Item<T> item, BuddyResult<JsonObject> batch, JsonObject body) {
+        if (body == null) {
+            // the batch failed as a whole, or left this call out.
+            JsonEnvelope<T> env = new JsonEnvelope<T>();
+            if (batch.getIsSuccess()) {
+                env.error = "UnexpectedServiceError";
+                env.message = "The batch response had no result for this call.";
+            } else {
+                env.error = batch.getError();
+                env.errorCode = batch.getErrorCode();
+                env.message = batch.getErrorMessage();
+                env.status = batch.env.status;
+            }
+            item.complete(new BuddyResult<T>(env));
+            return;
+        }
+
+        JsonEnvelope<T> env;
+        try {
+            byte[] json = CompactJson.toBytes(body);
+            JsonReader reader = new JsonReader(CompactJson.reader(json, 0, json.length));
+            env = (JsonEnvelope<T>) (JsonEnvelope<?>) new JsonEnvelopeDeserializer<T>(item.clazz, options, item.resultFields).deserialize(reader);
+        } catch (IOException e) {
+            env = new JsonEnvelope<T>();
+            env.error = "UnexpectedServiceError";
+            env.message = e.toString();
+        } catch (RuntimeException e) {
+            env = new JsonEnvelope<T>();
+            env.error = "UnexpectedServiceError";
+            env.message = e.toString();
+        }
+
+        BuddyResult<T> result = new BuddyResult<T>(env);
+        if (result.getIsSuccess() && !BuddyServiceClient.GET.equals(item.method) && options.responseCache != null) {
+            options.responseCache.invalidate(item.path);
+        }
+        item.complete(result);
+        if (!result.getIsSuccess() && client != null) {
+            client.handleError(result);
+        }
+    }
+}
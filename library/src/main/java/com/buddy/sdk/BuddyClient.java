@@ -3,6 +3,7 @@ package com.buddy.sdk;
 import android.content.Intent;
 import android.location.Location;
 
+import com.buddy.sdk.models.ModelBase;
 import com.buddy.sdk.models.NotificationResult;
 import com.buddy.sdk.models.TimedMetric;
 import com.buddy.sdk.models.User;
@@ -18,9 +19,18 @@ public interface BuddyClient{
     public void setLastLocation(Location loc);
     public Location getLastLocation();
     public String getServiceRoot();
+    public ConnectionPoolStats getConnectionPoolStats();
+    public CoalescingStats getCoalescingStats();
+    public CompressionStats getCompressionStats();
+    public ConcurrencyLimitStats getConcurrencyLimitStats();
+
+    public BuddyBatch batch();
+    public <T extends ModelBase> BuddyLoader<T> loader(String path, Class<T> clazz, LoaderOptions options);
 
     public <T> Future<BuddyResult<T>> get(String path, Map<String,Object> parameters, Class<T> clazz);
     public <T> Future<BuddyResult<T>> get(String path, Map<String,Object> parameters, final BuddyCallback<T> callback);
+    public <T> Future<BuddyResult<T>> get(String path, Map<String,Object> parameters, CachePolicy policy, Class<T> clazz);
+    public <T> Future<BuddyResult<T>> get(String path, Map<String,Object> parameters, CachePolicy policy, final BuddyCallback<T> callback);
     public <T> Future<BuddyResult<T>> post(String path, Map<String,Object> parameters, Class<T> clazz);
     public <T> Future<BuddyResult<T>> post(String path, Map<String,Object> parameters, final BuddyCallback<T> callback);
     public <T> Future<BuddyResult<T>> patch(String path, Map<String,Object> parameters, Class<T> clazz);
@@ -15,11 +15,10 @@ import android.os.Looper;
 import android.provider.Settings;
 import android.util.Log;
 
+import com.buddy.sdk.models.ModelBase;
 import com.buddy.sdk.models.NotificationResult;
 import com.buddy.sdk.models.TimedMetric;
 import com.buddy.sdk.models.User;
-import com.google.gson.Gson;
-import com.google.gson.JsonObject;
 
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
@@ -30,6 +29,7 @@ import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class BuddyClientImpl implements BuddyClient {
 
@@ -45,6 +45,7 @@ public class BuddyClientImpl implements BuddyClient {
     private ConnectivityLevelChangedCallback connectivityLevelChangedCallback;
     private ConnectivityManager connectivityManager;
     private ConnectivityLevel _connectivityLevel = ConnectivityLevel.Connected;
+    private final AtomicBoolean batchEndpointMissing = new AtomicBoolean();
 
     public BuddyClientImpl(Context context, String appId, String appKey) {
         this(context, appId, appKey, null);
@@ -166,6 +167,16 @@ public class BuddyClientImpl implements BuddyClient {
         return sharedSecret;
     }
 
+    BuddyClientOptions getOptions() {
+        return options;
+    }
+
+    // the signed-in user, or null when only the device is registered.
+    String getCurrentUserId() {
+        BuddyClientSettings settings = getSettings();
+        return settings.userToken != null ? settings.userid : null;
+    }
+
     //
     // REST Stuff
     //
@@ -173,6 +184,22 @@ public class BuddyClientImpl implements BuddyClient {
         return getSettings().getServiceRoot();
     }
 
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return getServiceClient().getConnectionPoolStats();
+    }
+
+    public CoalescingStats getCoalescingStats() {
+        return getServiceClient().getCoalescingStats();
+    }
+
+    public CompressionStats getCompressionStats() {
+        return getServiceClient().getCompressionStats();
+    }
+
+    public ConcurrencyLimitStats getConcurrencyLimitStats() {
+        return getServiceClient().getConcurrencyLimitStats();
+    }
+
     BuddyServiceClient getServiceClient() {
 
         if (serviceClient == null) {
@@ -182,6 +209,16 @@ public class BuddyClientImpl implements BuddyClient {
         return serviceClient;
     }
 
+    public BuddyBatch batch() {
+        return new BuddyBatch(getServiceClient(), this, options, batchEndpointMissing);
+    }
+
+    // Results go back to the calling Looper, as with requests.
+    public <T extends ModelBase> BuddyLoader<T> loader(String path, Class<T> clazz, LoaderOptions loaderOptions) {
+        BuddyServiceClient service = getServiceClient();
+        return new BuddyLoader<T>(service, path, clazz, loaderOptions, service.getSynchronousMode() ? null : Looper.myLooper());
+    }
+
     public <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, Class<T> clazz) {
 
         return getServiceClient().makeRequest(BuddyServiceClient.GET, path, parameters, null, clazz);
@@ -193,6 +230,24 @@ public class BuddyClientImpl implements BuddyClient {
     }
 
 
+    public <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, CachePolicy policy, Class<T> clazz) {
+
+        return getServiceClient().makeRequest(BuddyServiceClient.GET, path, withCachePolicy(parameters, policy), null, clazz);
+    }
+
+    public <T> Future<BuddyResult<T>> get(String path, Map<String, Object> parameters, CachePolicy policy, final BuddyCallback<T> callback) {
+
+        return getServiceClient().makeRequest(BuddyServiceClient.GET, path, withCachePolicy(parameters, policy), callback, null);
+    }
+
+    // the caller's map is left as it was.
+    private static Map<String, Object> withCachePolicy(Map<String, Object> parameters, CachePolicy policy) {
+        Map<String, Object> withPolicy = parameters == null ? new HashMap<String, Object>() : new HashMap<String, Object>(parameters);
+        withPolicy.put(ResultCachePolicy, policy);
+        return withPolicy;
+    }
+
+
     public <T> Future<BuddyResult<T>> post(String path, Map<String, Object> parameters, Class<T> clazz) {
 
         return getServiceClient().makeRequest(BuddyServiceClient.POST, path, parameters, null, clazz);
@@ -255,6 +310,23 @@ public class BuddyClientImpl implements BuddyClient {
 
     public static final String NoRegisterDevice = "__noregdevice";
 
+    // Parameter naming the result fields to keep, as a String[], a
+    // Collection or a comma separated String.  The rest of the result is
+    // skipped while it is read, so it's never parsed or held in memory.
+    public static final String ResultFields = "__resultfields";
+
+    // Parameter holding the CachePolicy for a GET; see get(path, parameters, policy, ...).
+    public static final String ResultCachePolicy = "__cachepolicy";
+
+    // Parameter holding the RequestPriority of a call; Normal when absent.
+    // Only honored with BuddyClientOptions.concurrencyLimit set.
+    public static final String CallPriority = "__priority";
+
+    // Parameter holding how long, in milliseconds, the caller waits for a
+    // call's result before it's cancelled and fails with RequestTimeout;
+    // BuddyClientOptions.callTimeoutMillis when absent.
+    public static final String CallTimeout = "__timeout";
+
     private void registerDevice(final BuddyCallback<AccessTokenResult> callback) {
 
         Map<String, Object> parameters = new HashMap<String, Object>();
@@ -292,6 +364,8 @@ public class BuddyClientImpl implements BuddyClient {
             parameters.put("appversion", options.appVersion);
         }
         parameters.put(NoRegisterDevice, true);
+        // every other call waits on this one.
+        parameters.put(CallPriority, RequestPriority.Interactive);
         this.post("/devices", parameters, callback);
     }
 
@@ -300,8 +374,10 @@ public class BuddyClientImpl implements BuddyClient {
     // User Stuff
     //
     public Future<BuddyResult<User>> getCurrentUser(final BuddyCallback<User> callback) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(CallPriority, RequestPriority.Interactive);
 
-        return this.get("/users/me", null, new BuddyCallback<User>(User.class) {
+        return this.get("/users/me", parameters, new BuddyCallback<User>(User.class) {
             @Override
             public void completed(BuddyResult<User> result) {
                 if (callback != null) {
@@ -311,24 +387,29 @@ public class BuddyClientImpl implements BuddyClient {
         });
     }
 
+    // Typed so the token doesn't depend on the model keeping its JSON.
+    private static class UserWithAccessToken extends User {
+        public String accessToken;
+        public Date accessTokenExpires;
+    }
+
     private BuddyCallback<User> getUserCallback(final BuddyCallback<User> callback) {
-        return new BuddyCallback<User>(User.class) {
+        return new BuddyCallback<User>((Class<User>) (Class<?>) UserWithAccessToken.class) {
 
             @Override
             public void completed(BuddyResult<User> result) {
 
-                if (result.getIsSuccess()) {
+                if (result.getIsSuccess() && result.getResult() instanceof UserWithAccessToken) {
 
-                    JsonObject json;
-                    json = result.getResult().getJsonObject();
+                    UserWithAccessToken user = (UserWithAccessToken) result.getResult();
 
-                    if (json != null && json.has("accessToken")) {
+                    if (user.accessToken != null && user.accessTokenExpires != null) {
 
                         BuddyClientSettings settings = getSettings();
 
-                        settings.userToken = json.get("accessToken").getAsString();
-                        settings.userTokenExpires = BuddyDateDeserializer.deserialize(json.get("accessTokenExpires").getAsString());
-                        settings.userid = result.getResult().id;
+                        settings.userToken = user.accessToken;
+                        settings.userTokenExpires = user.accessTokenExpires;
+                        settings.userid = user.id;
                         saveSettings();
                     }
                 }
@@ -356,6 +437,7 @@ public class BuddyClientImpl implements BuddyClient {
         }
 
         parameters.put("tag", tag);
+        parameters.put(CallPriority, RequestPriority.Interactive);
 
         return this.post("/users", parameters, getUserCallback(callback));
 
@@ -365,6 +447,7 @@ public class BuddyClientImpl implements BuddyClient {
         Map<String, Object> parameters = new HashMap<String, Object>();
         parameters.put("username", username);
         parameters.put("password", password);
+        parameters.put(CallPriority, RequestPriority.Interactive);
 
         return this.post("/users/login", parameters, getUserCallback(callback));
     }
@@ -374,6 +457,7 @@ public class BuddyClientImpl implements BuddyClient {
         parameters.put("identityProviderId", identityProviderId);
         parameters.put("identityId", identityId);
         parameters.put("identityAccessToken", identityAccessToken);
+        parameters.put(CallPriority, RequestPriority.Interactive);
 
         return this.post("/users/login/social", parameters, getUserCallback(callback));
     }
@@ -419,6 +503,7 @@ public class BuddyClientImpl implements BuddyClient {
         });
 
 
+        promise.propagateCancel(handle);
         handle.continueWith(new BuddyFutureCallback<BuddyResult<AccessTokenResult>>() {
             @Override
             public void completed(BuddyFuture<BuddyResult<AccessTokenResult>> future) {
@@ -448,6 +533,7 @@ public class BuddyClientImpl implements BuddyClient {
         if (timeoutInSeconds > 0) {
             parameters.put("timeoutInSeconds", timeoutInSeconds);
         }
+        parameters.put(CallPriority, RequestPriority.Background);
 
         try {
             eventName = URLEncoder.encode(eventName, "utf-8");
@@ -496,6 +582,7 @@ public class BuddyClientImpl implements BuddyClient {
         if (pushToken != null) {
             parameters.put("pushToken", pushToken);
         }
+        parameters.put(CallPriority, RequestPriority.Background);
 
 
         final BuddyFuture<BuddyResult<Boolean>> promise = new BuddyFuture<BuddyResult<Boolean>>();
@@ -517,6 +604,7 @@ public class BuddyClientImpl implements BuddyClient {
             }
         });
 
+        promise.propagateCancel(handle);
         handle.continueWith(new BuddyFutureCallback<BuddyResult<Object>>() {
             @Override
             public void completed(BuddyFuture<BuddyResult<Object>> future) {
@@ -580,7 +668,9 @@ public class BuddyClientImpl implements BuddyClient {
 
         String id = message.getStringExtra("_bId");
         if (id != null && id.length() > 0) {
-            this.post(String.format("/notifications/received/%s", id), null, (Class) null);
+            Map<String, Object> parameters = new HashMap<String, Object>();
+            parameters.put(CallPriority, RequestPriority.Background);
+            this.post(String.format("/notifications/received/%s", id), parameters, (Class) null);
         }
     }
 
@@ -633,7 +723,7 @@ public class BuddyClientImpl implements BuddyClient {
 
         if (preferences != null) {
             SharedPreferences.Editor editor = preferences.edit();
-            String json = new Gson().toJson(settings);
+            String json = BuddyCodec.getSettingsSerializer().toJson(settings);
             editor.putString(this.app_id, json);
             editor.commit();
         }
@@ -646,7 +736,7 @@ public class BuddyClientImpl implements BuddyClient {
             if (preferences != null) {
                 String json = preferences.getString(this.app_id, null);
                 if (json != null) {
-                    settings = new Gson().fromJson(json, BuddyClientSettings.class);
+                    settings = BuddyCodec.getSettingsSerializer().fromJson(json, BuddyClientSettings.class);
                 }
             }
 
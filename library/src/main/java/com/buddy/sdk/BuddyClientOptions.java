@@ -1,5 +1,7 @@
 package com.buddy.sdk;
 
+import java.util.concurrent.Executor;
+
 public class BuddyClientOptions {
 
     public String settingsPrefix;
@@ -10,6 +12,59 @@ public class BuddyClientOptions {
     public boolean synchronousMode;
     public String instanceName;
 
+    // Keep PagedResult.pageResults as raw JSON and parse items on demand.
+    public boolean lazyPageResults;
+
+    // What models keep of their source JSON for getJsonObject().
+    public JsonRetentionPolicy jsonRetention = JsonRetentionPolicy.Full;
+
+    // Binary format to offer ahead of JSON, e.g. CborWireFormat.  Null
+    // keeps the SDK on JSON only.
+    public WireFormat wireFormat;
+
+    // Executes the HTTP requests; null for the default LoopjTransport.
+    public BuddyTransport transport;
+
+    // Connection limits and keep-alive for the default transport; null
+    // for the ConnectionPoolOptions defaults.
+    public ConnectionPoolOptions connectionPool;
+
+    // Runs requests and delivers their callbacks when there's no Looper to
+    // deliver to, e.g. Executors.newVirtualThreadPerTaskExecutor() on a
+    // server.  Null leaves this to the transport's own threads.
+    public Executor executor;
+
+    // Caches GET results and revalidates them with the service; null
+    // disables caching.
+    public ResponseCache responseCache;
+
+    // Request bodies of at least this many bytes are sent gzipped, e.g.
+    // CompressingTransport.DefaultThresholdBytes.  Opt-in: the default -1
+    // never compresses them, as not every service accepts gzipped bodies.
+    // Responses are always offered gzip.
+    public int compressRequestsAbove = -1;
+
+    // Where BuddyBatch sends its calls in one request; null makes them
+    // individually.
+    public String batchPath = "/batch";
+
+    // Caps and adapts how many requests are in flight at once, queueing
+    // the rest in RequestPriority lanes, e.g. new ConcurrencyLimitOptions().
+    // Opt-in: null sends every request straight to the transport in the
+    // order it's made, so the priorities the SDK gives its own calls
+    // (Interactive logins, Background metrics) and CallPriority have no
+    // effect without it.
+    public ConcurrencyLimitOptions concurrencyLimit;
+
+    // How long callers wait for a call's result before it's cancelled and
+    // fails with RequestTimeout; 0 waits as long as the transport does.
+    public long callTimeoutMillis;
+
+    // Let identical GETs made while one is in flight share its result.
+    // Off by default: the callers get the same result object, so one that
+    // changes it changes it for the others too.
+    public boolean coalesceRequests;
+
     // Not serialized to persistent store
     public String sharedSecret;
 }
@@ -0,0 +1,39 @@
+package com.buddy.sdk;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+// Shared Gson instances for the wire and settings formats.
+//
+// Gson is thread-safe and caches the reflective TypeAdapter of every
+// class it sees, so building one per call throws that cache away.  All
+// registered adapters are stateless, so a single set is shared by every
+// BuddyClient in the process.
+public final class BuddyCodec {
+
+    private static final Gson responseGson = JsonEnvelopeDeserializer.makeGsonDeserializer();
+    private static final Gson requestGson = BuddyServiceClientImpl.makeRequestSerializer();
+    private static final Gson settingsGson = new Gson();
+
+    private BuddyCodec() {
+    }
+
+    // Date, Location
+    public static Gson getResponseDeserializer() {
+        return responseGson;
+    }
+
+    // Location, LocationRange, DateRange
+    public static Gson getRequestSerializer() {
+        return requestGson;
+    }
+
+    public static <T> TypeAdapter<T> getAdapter(Class<T> clazz) {
+        return responseGson.getAdapter(clazz);
+    }
+
+    // Plain Gson, the format settings have always been persisted in.
+    static Gson getSettingsSerializer() {
+        return settingsGson;
+    }
+}
@@ -1,43 +1,80 @@
 package com.buddy.sdk;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 import java.util.Date;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
-class BuddyDateDeserializer implements JsonDeserializer<Date>
+class BuddyDateDeserializer extends TypeAdapter<Date>
 {
-    private Class clazz;
+    private final static String prefix = "/Date(";
 
-    private final static Pattern pattern = Pattern.compile("/Date\\((-?\\d+)\\)/");
+    // Hand-rolled equivalent of finding /Date\((-?\d+)\)/ and running the
+    // group through Long.decode, without the Matcher and substring per date.
+    public static Date deserialize(String str) {
+        int length = str.length();
+        int start = str.indexOf(prefix);
 
+        while (start >= 0) {
+            int numberStart = start + prefix.length();
+            int i = numberStart;
 
-    public static Date deserialize(String str) {
-        Matcher m = pattern.matcher(str);
+            if (i < length && str.charAt(i) == '-') {
+                i++;
+            }
 
-        if (m.find()) {
+            int digitsStart = i;
 
-            Long unixDate = Long.decode(m.group(1));
+            while (i < length && str.charAt(i) >= '0' && str.charAt(i) <= '9') {
+                i++;
+            }
 
-            return new Date(unixDate);
+            if (i > digitsStart && i + 1 < length && str.charAt(i) == ')' && str.charAt(i + 1) == '/') {
+                return new Date(parseLong(str, numberStart, digitsStart, i));
+            }
+
+            start = str.indexOf(prefix, start + 1);
         }
         return null;
     }
 
+    private static long parseLong(String str, int numberStart, int digitsStart, int end) {
+
+        int digits = end - digitsStart;
 
+        if (digits > 18 || (digits > 1 && str.charAt(digitsStart) == '0')) {
+            // octal and overflowing values keep Long.decode's behavior.
+            return Long.decode(str.substring(numberStart, end));
+        }
+
+        long value = 0;
+        for (int i = digitsStart; i < end; i++) {
+            value = value * 10 + (str.charAt(i) - '0');
+        }
+        return numberStart == digitsStart ? value : -value;
+    }
 
     @Override
-    public Date deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext ctx) throws JsonParseException
+    public Date read(JsonReader in) throws IOException
     {
-        String str = json.getAsString();
-
-        return deserialize(str);
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
 
+        return deserialize(in.nextString());
+    }
 
+    @Override
+    public void write(JsonWriter out, Date value) throws IOException
+    {
+        if (value == null) {
+            out.nullValue();
+        } else {
+            out.value(prefix + value.getTime() + ")/");
+        }
     }
 }
@@ -2,6 +2,8 @@ package com.buddy.sdk;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
@@ -9,9 +11,13 @@ import java.util.concurrent.TimeoutException;
 
 class BuddyFuture<V> implements Future<V> {
 
-    private boolean done;
+    private volatile boolean done;
+    private volatile boolean cancelled;
     private V value;
-    private Object SyncObj = new Object();
+    private final Object SyncObj = new Object();
+    // a latch rather than wait/notify, so a virtual thread waiting in get()
+    // unmounts instead of pinning its carrier.
+    private final CountDownLatch completed = new CountDownLatch(1);
 
     private class CallbackWrapper {
         public BuddyFutureCallback callback;
@@ -19,57 +25,124 @@ class BuddyFuture<V> implements Future<V> {
     }
 
     private List<CallbackWrapper> callbacks;
+    // run when the future is cancelled, to stop the work behind it.
+    private List<Runnable> cancellers;
 
     public BuddyFuture() {
 
     }
 
+    // Continuations only run for a value; cancelling the returned future
+    // cancels this one.
     public BuddyFuture<V> continueWith(final BuddyFutureCallback<V> callback) {
 
-        if (!done) {
-            if (callbacks == null) {
-                callbacks = new ArrayList<CallbackWrapper>();
-            }
-
-            CallbackWrapper wrapper = new CallbackWrapper();
-            wrapper.callback = callback;
-            wrapper.handle = new BuddyFuture<V>();
-            callbacks.add(wrapper);
-            return wrapper.handle;
+        synchronized (SyncObj) {
+            if (!done) {
+                if (callbacks == null) {
+                    callbacks = new ArrayList<CallbackWrapper>();
+                }
 
-        } else {
+                CallbackWrapper wrapper = new CallbackWrapper();
+                wrapper.callback = callback;
+                wrapper.handle = new BuddyFuture<V>();
+                wrapper.handle.propagateCancel(this);
+                callbacks.add(wrapper);
+                return wrapper.handle;
+            }
+        }
+        if (!cancelled) {
             callback.completed(this);
         }
         return this;
     }
 
+    // Runs action if this future is cancelled, straight away if it already
+    // has been.
+    public void onCancel(Runnable action) {
+        synchronized (SyncObj) {
+            if (!done) {
+                if (cancellers == null) {
+                    cancellers = new ArrayList<Runnable>();
+                }
+                cancellers.add(action);
+                return;
+            }
+        }
+        if (cancelled) {
+            action.run();
+        }
+    }
+
+    // Cancels other when this future is cancelled.
+    public void propagateCancel(final Future<?> other) {
+        onCancel(new Runnable() {
+            @Override
+            public void run() {
+                other.cancel(true);
+            }
+        });
+    }
 
+    // Only the first value counts; later ones, and any after a cancel,
+    // are dropped.  Returns whether this one was taken.
+    public boolean setValue(V val) {
+        List<CallbackWrapper> pending;
 
-    public void setValue(V val) {
         synchronized (SyncObj) {
+            if (done) {
+                return false;
+            }
             value = val;
+            done = true;
+            pending = callbacks;
+            callbacks = null;
+            cancellers = null;
+        }
+        completed.countDown();
 
-            if (!done) {
-                done = true;
-                if (callbacks != null) {
-                    for (CallbackWrapper cb : callbacks) {
-                        cb.handle.setValue(val);
-                    }
-                }
-                SyncObj.notify();
+        if (pending != null) {
+            for (CallbackWrapper cb : pending) {
+                cb.callback.completed(this);
+                cb.handle.setValue(val);
             }
         }
-
+        return true;
     }
 
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        return false;
+        List<CallbackWrapper> pending;
+        List<Runnable> actions;
+
+        synchronized (SyncObj) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            cancelled = true;
+            pending = callbacks;
+            callbacks = null;
+            actions = cancellers;
+            cancellers = null;
+        }
+        completed.countDown();
+
+        if (actions != null) {
+            for (Runnable action : actions) {
+                action.run();
+            }
+        }
+        if (pending != null) {
+            for (CallbackWrapper cb : pending) {
+                cb.handle.cancel(mayInterruptIfRunning);
+            }
+        }
+        return true;
     }
 
     @Override
     public boolean isCancelled() {
-        return false;
+        return cancelled;
     }
 
     @Override
@@ -79,21 +152,24 @@ class BuddyFuture<V> implements Future<V> {
 
     @Override
     public V get() throws InterruptedException, ExecutionException {
-        synchronized (SyncObj) {
-            if (!done) {
-                SyncObj.wait();
-            }
-        }
-        return value;
+        completed.await();
+        return getValue();
     }
 
     @Override
     public V get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
-        if (!done) {
-            synchronized (SyncObj) {
-                SyncObj.wait(TimeUnit.MILLISECONDS.convert(timeout, unit));
-            }
+        if (!completed.await(timeout, unit)) {
+            throw new TimeoutException();
+        }
+        return getValue();
+    }
+
+    private V getValue() {
+        if (cancelled) {
+            throw new CancellationException();
+        }
+        synchronized (SyncObj) {
+            return value;
         }
-        return value;
     }
 }
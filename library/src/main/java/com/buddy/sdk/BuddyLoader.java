@@ -0,0 +1,293 @@
+package com.buddy.sdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.buddy.sdk.models.ModelBase;
+import com.buddy.sdk.models.PagedResult;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Collects lookups of models by id and resolves them together, from
+// BuddyClient.loader():
+//
+//   BuddyLoader<User> users = client.loader("/users", User.class, null);
+//   for (Message m : messages) {
+//       users.load(m.fromUserId, callback);
+//   }
+//
+// Lookups made within LoaderOptions.windowMillis (by default, before the
+// caller's Looper next gets a turn) are deduped and resolved with list
+// queries or individual GETs, no more than maxParallel at a time.  Each
+// id's result is kept, so loading it again doesn't go to the service;
+// failed lookups aren't kept.  Use one loader per screen or unit of work
+// and let it go with it, or clear() what changes.
+public class BuddyLoader<T extends ModelBase> {
+
+    private static ScheduledExecutorService timer;
+    private static ExecutorService requests;
+
+    private static final ThreadFactory threads = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "BuddyLoader-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    };
+
+    // Collects and issues requests for loaders on threads without a Looper.
+    private static synchronized ScheduledExecutorService getTimer() {
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(threads);
+        }
+        return timer;
+    }
+
+    private static synchronized ExecutorService getRequests() {
+        if (requests == null) {
+            requests = Executors.newCachedThreadPool(threads);
+        }
+        return requests;
+    }
+
+    private final BuddyServiceClient service;
+    private final String path;
+    private final Class<T> clazz;
+    private final LoaderOptions options;
+    private final Handler handler;
+
+    private final Map<String, BuddyFuture<BuddyResult<T>>> loaded = new HashMap<String, BuddyFuture<BuddyResult<T>>>();
+    private List<String> collecting = new ArrayList<String>();
+    private final LinkedList<Runnable> waiting = new LinkedList<Runnable>();
+    private int inFlight;
+
+    // Results are delivered on looper when there is one.
+    BuddyLoader(BuddyServiceClient service, String path, Class<T> clazz, LoaderOptions options, Looper looper) {
+        this.service = service;
+        this.path = path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+        this.clazz = clazz;
+        this.options = options != null ? options : new LoaderOptions();
+        this.handler = looper == null ? null : new Handler(looper);
+    }
+
+    public Future<BuddyResult<T>> load(String id) {
+        return load(id, null);
+    }
+
+    public Future<BuddyResult<T>> load(String id, final BuddyCallback<T> callback) {
+        BuddyFuture<BuddyResult<T>> future;
+        boolean schedule = false;
+
+        synchronized (this) {
+            future = loaded.get(id);
+            // a cancelled lookup is made again.
+            if (future == null || future.isCancelled()) {
+                future = new BuddyFuture<BuddyResult<T>>();
+                loaded.put(id, future);
+                schedule = collecting.isEmpty();
+                collecting.add(id);
+            }
+        }
+
+        if (callback != null) {
+            future.continueWith(new BuddyFutureCallback<BuddyResult<T>>() {
+                @Override
+                public void completed(BuddyFuture<BuddyResult<T>> done) {
+                    callback.completed(valueOf(done));
+                }
+            });
+        }
+        if (schedule) {
+            scheduleFlush();
+        }
+        return future;
+    }
+
+    // Forgets the result for id, so the next load asks the service again.
+    public synchronized void clear(String id) {
+        BuddyFuture<BuddyResult<T>> future = loaded.get(id);
+        if (future != null && future.isDone()) {
+            loaded.remove(id);
+        }
+    }
+
+    public synchronized void clearAll() {
+        for (String id : new ArrayList<String>(loaded.keySet())) {
+            clear(id);
+        }
+    }
+
+    private static <V> V valueOf(BuddyFuture<V> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void scheduleFlush() {
+        Runnable flush = new Runnable() {
+            @Override
+            public void run() {
+                flush();
+            }
+        };
+        if (handler != null) {
+            handler.postDelayed(flush, options.windowMillis);
+        } else {
+            getTimer().schedule(flush, options.windowMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        List<String> ids;
+        synchronized (this) {
+            ids = collecting;
+            collecting = new ArrayList<String>();
+        }
+
+        if (options.idsParameter != null) {
+            int chunk = Math.max(1, options.maxIdsPerQuery);
+            for (int i = 0; i < ids.size(); i += chunk) {
+                final List<String> some = ids.subList(i, Math.min(ids.size(), i + chunk));
+                enqueue(new Runnable() {
+                    @Override
+                    public void run() {
+                        query(some);
+                    }
+                });
+            }
+        } else {
+            for (final String id : ids) {
+                enqueue(new Runnable() {
+                    @Override
+                    public void run() {
+                        fetch(id);
+                    }
+                });
+            }
+        }
+        pump();
+    }
+
+    private synchronized void enqueue(Runnable request) {
+        waiting.add(request);
+    }
+
+    // Starts waiting requests while there's room.
+    private void pump() {
+        while (true) {
+            final Runnable next;
+            synchronized (this) {
+                if (waiting.isEmpty() || inFlight >= Math.max(1, options.maxParallel)) {
+                    return;
+                }
+                next = waiting.removeFirst();
+                inFlight++;
+            }
+
+            if (handler != null) {
+                // requests made on the Looper are asynchronous already.
+                next.run();
+            } else {
+                getRequests().execute(next);
+            }
+        }
+    }
+
+    private void finished() {
+        synchronized (this) {
+            inFlight--;
+        }
+        pump();
+    }
+
+    private void fetch(final String id) {
+        String encoded;
+        try {
+            encoded = URLEncoder.encode(id, "UTF-8").replace("+", "%20");
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+
+        service.makeRequest(BuddyServiceClient.GET, path + "/" + encoded, new HashMap<String, Object>(), new BuddyCallback<T>(clazz) {
+            @Override
+            public void completed(BuddyResult<T> result) {
+                resolve(id, result);
+                finished();
+            }
+        }, clazz);
+    }
+
+    private void query(final List<String> ids) {
+        StringBuilder joined = new StringBuilder();
+        for (String id : ids) {
+            joined.append(joined.length() == 0 ? "" : ",").append(id);
+        }
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(options.idsParameter, joined.toString());
+
+        service.makeRequest(BuddyServiceClient.GET, path, parameters, new BuddyCallback<PagedResult>(PagedResult.class) {
+            @Override
+            public void completed(BuddyResult<PagedResult> result) {
+                Map<String, T> found = new HashMap<String, T>();
+                if (result.getIsSuccess() && result.getResult() != null && result.getResult().pageResults != null) {
+                    for (T model : result.getResult().convertPageResults(clazz)) {
+                        if (model != null && model.id != null) {
+                            found.put(model.id, model);
+                        }
+                    }
+                }
+
+                for (String id : ids) {
+                    T model = found.get(id);
+                    if (model != null) {
+                        resolve(id, result.convert(model));
+                    } else if (!result.getIsSuccess()) {
+                        resolve(id, result.convert((T) null));
+                    } else {
+                        JsonEnvelope<T> env = new JsonEnvelope<T>();
+                        env.status = 404;
+                        env.error = "RecordNotFound";
+                        env.message = "No " + path + " with id " + id + ".";
+                        resolve(id, new BuddyResult<T>(env));
+                    }
+                }
+                finished();
+            }
+        }, PagedResult.class);
+    }
+
+    private void resolve(String id, BuddyResult<T> result) {
+        BuddyFuture<BuddyResult<T>> future;
+        synchronized (this) {
+            future = loaded.get(id);
+            if (!result.getIsSuccess()) {
+                // a later load asks again.
+                loaded.remove(id);
+            }
+        }
+        if (future != null) {
+            future.setValue(result);
+        }
+    }
+}
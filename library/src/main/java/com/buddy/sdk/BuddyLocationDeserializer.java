@@ -2,37 +2,70 @@ package com.buddy.sdk;
 
 import android.location.Location;
 
-import com.google.gson.JsonDeserializationContext;
-import com.google.gson.JsonDeserializer;
-import com.google.gson.JsonElement;
-import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
 
 
-class BuddyLocationDeserializer implements JsonDeserializer<Location>
+class BuddyLocationDeserializer extends TypeAdapter<Location>
 {
-    private Class clazz;
-
 
     @Override
-    public Location deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext ctx) throws JsonParseException
+    public Location read(JsonReader in) throws IOException
     {
+        if (in.peek() == JsonToken.NULL) {
+            in.nextNull();
+            return null;
+        }
+
+        boolean hasLat = false;
+        boolean hasLng = false;
+        double lat = 0;
+        double lng = 0;
 
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
 
-        JsonObject jsonObj = json.getAsJsonObject();
+            if (name.equals("lat")) {
+                lat = in.nextDouble();
+                hasLat = true;
+            } else if (name.equals("lng")) {
+                lng = in.nextDouble();
+                hasLng = true;
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
 
-        if (jsonObj != null && jsonObj.has("lat") && jsonObj.has("lng")) {
+        if (hasLat && hasLng) {
 
             Location l = new Location("Buddy");
-            l.setLatitude(jsonObj.get("lat").getAsDouble());
-            l.setLongitude(jsonObj.get("lng").getAsDouble());
+            l.setLatitude(lat);
+            l.setLongitude(lng);
             return l;
         }
 
-        throw new JsonParseException("Invalid location: " + json.toString());
+        throw new JsonParseException("Invalid location at " + in.getPath());
 
     }
-}
 
+    @Override
+    public void write(JsonWriter out, Location value) throws IOException
+    {
+        if (value == null) {
+            out.nullValue();
+            return;
+        }
+
+        out.beginObject();
+        out.name("lat").value(value.getLatitude());
+        out.name("lng").value(value.getLongitude());
+        out.endObject();
+    }
+}
@@ -7,12 +7,15 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
 import java.lang.reflect.Type;
-import java.util.Locale;
 
 public class BuddyLocationRangeSerializer implements JsonSerializer<LocationRange>{
 
 	public static String serializeCore(LocationRange locationRange) {
-		return String.format(Locale.US,"%s,%s,%s",locationRange.getLatitude(),locationRange.getLongitude(),locationRange.distance);
+		return new StringBuilder(48)
+				.append(locationRange.getLatitude()).append(',')
+				.append(locationRange.getLongitude()).append(',')
+				.append(locationRange.distance)
+				.toString();
 	}
 
     @Override public JsonElement serialize(final LocationRange locationRange, final Type typeOfSrc, final JsonSerializationContext context) {
@@ -8,12 +8,90 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
 import java.lang.reflect.Type;
-import java.util.Locale;
 
 public class BuddyLocationSerializer implements JsonSerializer<Location>{
 
 	public static String serializeCore(Location location) {
-		return String.format(Locale.US,"%f,%f",location.getLatitude(),location.getLongitude());
+		StringBuilder sb = new StringBuilder(24);
+		appendFixed(sb, location.getLatitude());
+		sb.append(',');
+		appendFixed(sb, location.getLongitude());
+		return sb.toString();
+	}
+
+	private static final int FractionDigits = 6;
+
+	// Same output as String.format(Locale.US, "%f", value): the shortest
+	// decimal digits of the double, rounded half-up to six places.
+	static void appendFixed(StringBuilder sb, double value) {
+		if (Double.isNaN(value) || Double.isInfinite(value)) {
+			sb.append(value);
+			return;
+		}
+
+		if (Double.doubleToRawLongBits(value) < 0) {
+			sb.append('-');
+			value = -value;
+		}
+
+		String repr = Double.toString(value);
+		int length = repr.length();
+		int exponentAt = repr.indexOf('E');
+		int mantissaEnd = exponentAt < 0 ? length : exponentAt;
+		int pointAt = repr.indexOf('.');
+
+		// digits of the mantissa without the point, and how many of them
+		// sit before the decimal point once the exponent is applied.
+		char[] digits = new char[mantissaEnd + 1];
+		int count = 0;
+		for (int i = 0; i < mantissaEnd; i++) {
+			if (i != pointAt) {
+				digits[1 + count++] = repr.charAt(i);
+			}
+		}
+		int integerDigits = pointAt;
+		if (exponentAt >= 0) {
+			integerDigits += Integer.parseInt(repr.substring(exponentAt + 1));
+		}
+
+		// round half-up at the last kept digit; digits[0] takes the carry.
+		int keep = integerDigits + FractionDigits;
+		digits[0] = '0';
+		if (keep < count) {
+			boolean roundUp = keep >= 0 && digits[1 + keep] >= '5';
+			count = Math.max(keep, 0);
+			for (int i = count; roundUp && i >= 0; i--) {
+				if (i == 0 || digits[i] != '9') {
+					digits[i]++;
+					roundUp = false;
+				} else {
+					digits[i] = '0';
+				}
+			}
+		}
+
+		int first = 1;
+		if (digits[0] != '0') {
+			first = 0;
+			integerDigits++;
+		}
+
+		// integer part
+		if (integerDigits <= 0) {
+			sb.append('0');
+		} else {
+			for (int i = 0; i < integerDigits; i++) {
+				int at = first + i;
+				sb.append(at <= count ? digits[at] : '0');
+			}
+		}
+
+		sb.append('.');
+
+		for (int i = 0; i < FractionDigits; i++) {
+			int at = first + integerDigits + i;
+			sb.append(at >= first && at <= count ? digits[at] : '0');
+		}
 	}
 
     @Override public JsonElement serialize(final Location location, final Type typeOfSrc, final JsonSerializationContext context) {
@@ -14,6 +14,16 @@ public interface BuddyServiceClient {
 
     boolean getSynchronousMode();
 
+    CoalescingStats getCoalescingStats();
+
+    CompressionStats getCompressionStats();
+
+    // null when requests aren't limited.
+    ConcurrencyLimitStats getConcurrencyLimitStats();
+
+    // null when the transport doesn't pool connections.
+    ConnectionPoolStats getConnectionPoolStats();
+
     String signString(String stringToSign, String secret);
     <T> Future<BuddyResult<T>> makeRequest(final String verb, final String path, final Map<? extends String, ? extends Object> parameters, final BuddyCallback<T> callback, final Class<T> clazz);
 }
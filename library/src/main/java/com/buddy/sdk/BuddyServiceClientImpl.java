@@ -1,7 +1,7 @@
 package com.buddy.sdk;
 
-import android.content.Context;
 import android.location.Location;
+import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
@@ -9,42 +9,47 @@ import com.buddy.sdk.models.LocationRange;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.loopj.android.http.AsyncHttpClient;
-import com.loopj.android.http.AsyncHttpResponseHandler;
-import com.loopj.android.http.JsonHttpResponseHandler;
-import com.loopj.android.http.RequestHandle;
 import com.loopj.android.http.RequestParams;
 import com.loopj.android.http.ResponseHandlerInterface;
-import com.loopj.android.http.SyncHttpClient;
 
 import org.apache.http.Header;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.MethodNotSupportedException;
-import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.apache.http.message.BasicHeader;
-import org.json.JSONObject;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.net.URI;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 import javax.crypto.Mac;
 import javax.crypto.spec.SecretKeySpec;
@@ -55,117 +60,80 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
     BuddyClientImpl _parent;
 
 
-    private class HttpMethodBase extends HttpEntityEnclosingRequestBase {
+    private BuddyTransport transport;
+    private CompressingTransport compression;
+    private LimitingTransport limiter;
+    private final RequestCoalescer coalescer = new RequestCoalescer();
 
-        private String methodName;
-
-
-        public HttpMethodBase(final URI uri, final String methodName) {
-            super();
-            setURI(uri);
-            this.methodName = methodName;
-        }
+    // the wire format the last response came back in, null for JSON.
+    private volatile WireFormat wireFormatAccepted;
+    private boolean syncMode;
 
-        @Override
-        public String getMethod() {
-            return methodName;
-        }
+    public BuddyServiceClientImpl(BuddyClientImpl parent) {
+        _parent = parent;
 
+        setSynchronousMode(false);
     }
 
-    private class AsyncHttpClientWithPatchAndDelete extends AsyncHttpClient {
-
-        public RequestHandle patch(Context ctx, String url, Header[] headers, HttpEntity entity, String contentType, ResponseHandlerInterface responseHandler) {
-
-            HttpMethodBase patch = new HttpMethodBase(URI.create(url).normalize(), PATCH);
-            if (entity != null) {
-                patch.setEntity(entity);
-            }
-
-            if (headers != null) patch.setHeaders(headers);
-            return sendRequest((DefaultHttpClient) getHttpClient(), getHttpContext(), patch, contentType, responseHandler, ctx);
-        }
-
-        public RequestHandle delete(Context ctx, String url, Header[] headers, HttpEntity entity, String contentType, ResponseHandlerInterface responseHandler) {
-
-            HttpMethodBase patch = new HttpMethodBase(URI.create(url).normalize(), DELETE);
-            if (entity != null) {
-                patch.setEntity(entity);
-            }
-
-            if (headers != null) patch.setHeaders(headers);
-            return sendRequest((DefaultHttpClient) getHttpClient(), getHttpContext(), patch, contentType, responseHandler, ctx);
-        }
+    @Override
+    public void setSynchronousMode(boolean value) {
+        syncMode = value;
     }
 
-    private class SyncHttpClientWithPatchAndDelete extends SyncHttpClient {
-
-        public RequestHandle patch(Context ctx, String url, Header[] headers, HttpEntity entity, String contentType, ResponseHandlerInterface responseHandler) {
+    @Override
+    public boolean getSynchronousMode() {
+        return syncMode;
+    }
 
-            HttpMethodBase patch = new HttpMethodBase(URI.create(url).normalize(), PATCH);
-            if (entity != null) {
-                patch.setEntity(entity);
+    private synchronized BuddyTransport getTransport() {
+        if (transport == null) {
+            BuddyTransport configured = _parent.getOptions().transport;
+            transport = configured != null ? configured : new LoopjTransport(_parent.getOptions().connectionPool);
+            compression = new CompressingTransport(transport, _parent.getOptions().compressRequestsAbove);
+            transport = compression;
+            if (_parent.getOptions().executor != null) {
+                transport = new ExecutorTransport(transport, _parent.getOptions().executor);
             }
-
-            if (headers != null) patch.setHeaders(headers);
-            return sendRequest((DefaultHttpClient) getHttpClient(), getHttpContext(), patch, contentType, responseHandler, ctx);
-        }
-
-        public RequestHandle delete(Context ctx, String url, Header[] headers, HttpEntity entity, String contentType, ResponseHandlerInterface responseHandler) {
-
-            HttpMethodBase patch = new HttpMethodBase(URI.create(url).normalize(), DELETE);
-            if (entity != null) {
-                patch.setEntity(entity);
+            if (_parent.getOptions().concurrencyLimit != null) {
+                limiter = new LimitingTransport(transport, _parent.getOptions().concurrencyLimit);
+                transport = limiter;
             }
-
-            if (headers != null) patch.setHeaders(headers);
-            return sendRequest((DefaultHttpClient) getHttpClient(), getHttpContext(), patch, contentType, responseHandler, ctx);
         }
+        return transport;
     }
 
-    AsyncHttpClient client;
-    static Map<String, Method> clientMethods = new HashMap<String, Method>();
-    private boolean syncMode;
-
-    public BuddyServiceClientImpl(BuddyClientImpl parent) {
-        _parent = parent;
-
-        setSynchronousMode(false);
+    @Override
+    public CompressionStats getCompressionStats() {
+        getTransport();
+        return compression.getStats();
     }
 
     @Override
-    public void setSynchronousMode(boolean value) {
-        if (value != syncMode) {
-            client = null;
-            syncMode = value;
-        }
-
+    public ConcurrencyLimitStats getConcurrencyLimitStats() {
+        getTransport();
+        return limiter == null ? null : limiter.getStats();
     }
 
     @Override
-    public boolean getSynchronousMode() {
-        return syncMode;
+    public CoalescingStats getCoalescingStats() {
+        return coalescer.getStats();
     }
 
-    private AsyncHttpClient getHttpClient() {
-
-        boolean isSyncMode = Looper.myLooper() == null || syncMode;
-
-        if (client == null || (client instanceof SyncHttpClient) != isSyncMode) {
-            if (isSyncMode) {
-                client = new SyncHttpClientWithPatchAndDelete();
-            } else {
-                client = new AsyncHttpClientWithPatchAndDelete();
-            }
-        }
-        return client;
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        BuddyTransport current = getTransport();
+        return current instanceof PooledTransport ? ((PooledTransport) current).getPoolStats() : null;
     }
 
+    private static final char[] hexDigits = "0123456789abcdef".toCharArray();
+
     public static String toHexString(byte[] ba) {
-        StringBuilder str = new StringBuilder();
-        for (int i = 0; i < ba.length; i++)
-            str.append(String.format("%02x", ba[i]));
-        return str.toString();
+        char[] str = new char[ba.length * 2];
+        for (int i = 0; i < ba.length; i++) {
+            str[i * 2] = hexDigits[(ba[i] >> 4) & 0xf];
+            str[i * 2 + 1] = hexDigits[ba[i] & 0xf];
+        }
+        return new String(str);
     }
 
 
@@ -194,20 +162,6 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
         return signString(stringToSign, Secret);
     }
 
-    private static <T> BuddyResult<T> parseBuddyResponse(Class<T> type, int statusCode, String response) {
-
-        Gson gson =
-                new GsonBuilder()
-                        .registerTypeAdapter(Date.class, new BuddyDateDeserializer())
-                        .registerTypeAdapter(JsonEnvelope.class, new JsonEnvelopeDeserializer(type))
-                        .create();
-
-
-        JsonEnvelope<T> result = gson.fromJson(response, JsonEnvelope.class);
-        result.status = statusCode;
-        return new BuddyResult<T>(result);
-    }
-
     static Gson makeRequestSerializer() {
         return new GsonBuilder()
                 .registerTypeAdapter(Location.class, new BuddyLocationSerializer())
@@ -221,38 +175,10 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
         return obj instanceof BuddyFile;
     }
 
-    private Method getClientMethod(String verb) {
-
-        Method m = clientMethods.get(verb.toUpperCase(Locale.getDefault()));
-
-        if (m != null) {
-            return m;
-        }
-
-        try {
-            m = client.getClass().getMethod(verb.toLowerCase(Locale.getDefault()),
-                    Context.class,
-                    String.class,
-                    Header[].class,
-                    HttpEntity.class,
-                    String.class,
-                    ResponseHandlerInterface.class
-            );
-
-        } catch (NoSuchMethodException nsmEx) {
-            m = null;
-        }
-
-        clientMethods.put(verb.toUpperCase(Locale.getDefault()), m);
-        return m;
-    }
-
-
     private final static String DefaultContentType = "application/json";
 
-    private void logResult(JSONObject result) {
-        String json = result.toString();
-        Log.d("BuddySdk", json);
+    private void logResult(JsonEnvelopeBase result) {
+        Log.d("BuddySdk", String.format("%d %s %s", result.status, result.request_id, result.error == null ? "" : result.error));
     }
 
     private Object convertParameter(Object val) {
@@ -265,11 +191,13 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
     }
 
 
-    private <T> BuddyFuture<BuddyResult<T>> makeRequestCore(String verb, String path, final String accessToken, final Map<? extends String, ? extends Object> callParams, final BuddyCallback<T> callback, final Class<T> clazz) {
+    // The result completes promise; callback only hears of results a
+    // stale-while-revalidate refresh brings in later.
+    private <T> void makeRequestCore(final BuddyFuture<BuddyResult<T>> promise, final String verb, String path, final String accessToken, final Map<? extends String, ? extends Object> callParams, final BuddyCallback<T> callback, final Class<T> clazz, final Set<String> resultFields, final CachePolicy cachePolicy, final RequestPriority priority) {
 
         final Map<? extends String,? extends Object> parameters = callParams == null ? new HashMap<String, Object>() : callParams;
 
-        List<Header> headerList = new ArrayList<Header>();
+        final List<Header> headerList = new ArrayList<Header>();
         String root = _parent.getServiceRoot();
 
         if (root.endsWith("/")) {
@@ -281,8 +209,9 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
         }
 
         final String url = String.format("%s/%s", root, path);
-
-        final BuddyFuture<BuddyResult<T>> promise = new BuddyFuture<BuddyResult<T>>();
+        final String resourcePath = path;
+        final boolean isGet = verb.toUpperCase(Locale.getDefault()).equals(GET);
+        final ResponseCache cache = _parent.getOptions().responseCache;
 
         Class rClass = clazz;
 
@@ -292,61 +221,77 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
 
         final Class resultClass = rClass;
 
-        final JsonHttpResponseHandler jsonHandler = new JsonHttpResponseHandler() {
+        // results go back to the calling Looper, unless there is none or
+        // synchronous mode is on, in which case the request runs inline.
+        // With an executor configured, calls from threads without a Looper
+        // run there instead and are completed on its thread.
+        final Looper looper = syncMode ? null : Looper.myLooper();
+        final boolean synchronous = syncMode || (looper == null && _parent.getOptions().executor == null);
 
+        final JsonEnvelopeResponseHandler<T> jsonHandler = new JsonEnvelopeResponseHandler<T>(resultClass, _parent.getOptions(), resultFields, looper) {
 
             @Override
-            public void onSuccess(int statusCode, Header[] headers, JSONObject response) {
-
-                // here we need to deserialize the full result object,
-                // which could be arbitrarily complex, so we take the hit of converting
-                // back to a string, then running the full envelope
-                // through the parser.
-                logResult(response);
-                String json = response.toString();
-                BuddyResult<T> result = BuddyServiceClientImpl.<T>parseBuddyResponse(resultClass, statusCode, json);
-                if (callback != null) callback.completed(result);
-                promise.setValue(result);
+            protected boolean isCancelled() {
+                return promise.isCancelled();
+            }
+
+            @Override
+            protected void onResponseWireFormat(WireFormat format) {
+                wireFormatAccepted = format;
+            }
+
+            @Override
+            void deliver(int statusCode, String reasonPhrase, Header[] headers, JsonEnvelope<T> env) {
+                if (cache != null && !isGet && statusCode < 300) {
+                    // the write may have changed what's cached for this resource.
+                    // Dropped here on the transport's thread, as it may touch disk.
+                    cache.invalidate(resourcePath);
+                }
+                super.deliver(statusCode, reasonPhrase, headers, env);
             }
 
             @Override
-            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JSONObject errorResponse) {
+            public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<T> envelope) {
+
+                // the envelope, including the typed result, has already been
+                // read straight off the response stream on the worker thread.
+                envelope.status = statusCode;
+                logResult(envelope);
+                promise.setValue(new BuddyResult<T>(envelope));
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<T> errorEnvelope) {
                 JsonEnvelope<T> env = null;
-                if (errorResponse != null) {
-                    env = new JsonEnvelope<T>(errorResponse, null);
-                    logResult(errorResponse);
+                if (errorEnvelope != null) {
+                    env = errorEnvelope;
+                    logResult(errorEnvelope);
+                } else if (throwable instanceof RequestQueueFullException) {
+                    env = new JsonEnvelope<T>();
+                    env.error = "RequestQueueFull";
+                    env.message = throwable.getMessage();
                 } else {
                     env = new JsonEnvelope<T>();
                     env.error = "NoInternetConnection";
                     env.message = "No internet connection is available.";
                 }
                 BuddyResult<T> result = new BuddyResult<T>(env);
-                if (callback != null) callback.completed(result);
                 promise.setValue(result);
                 _parent.handleError(result);
             }
-
-            @Override
-            public void onFailure(int statusCode, Header[] headers, String responseString, Throwable throwable) {
-                // something bad happened.
-                //
-                JsonEnvelope<T> env = null;
-
-                env = new JsonEnvelope<T>();
-                env.error = "UnexpectedServiceError";
-                env.message = responseString;
-
-                BuddyResult<T> result = new BuddyResult<T>(env);
-                if (callback != null) callback.completed(result);
-                promise.setValue(result);
-            }
         };
 
         final RequestParams requestParams = new RequestParams();
 
         boolean isFile = resultClass != null && BuddyFile.class.isAssignableFrom(resultClass);
 
-        headerList.add(new BasicHeader("Accept", DefaultContentType));
+        final WireFormat wireFormat = _parent.getOptions().wireFormat;
+
+        if (wireFormat != null) {
+            headerList.add(new BasicHeader("Accept", String.format("%s, %s;q=0.5", wireFormat.getContentType(), DefaultContentType)));
+        } else {
+            headerList.add(new BasicHeader("Accept", DefaultContentType));
+        }
 
 
         if (isFile && verb.toUpperCase(Locale.getDefault()).equals(GET)) {
@@ -359,10 +304,8 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
 
         this._parent.setDefaultParameters((Map<String, Object>) parameters);
 
-        Header[] headers = headerList.toArray(new Header[0]);
-
-
-        AsyncHttpClient httpClient = getHttpClient();
+        BuddyTransport.Request request;
+        BuddyTransport.Callback transportCallback = jsonHandler;
 
         if (verb.toUpperCase(Locale.getDefault()).equals(GET)) {
 
@@ -372,45 +315,83 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                     requestParams.put(cursor.getKey(), convertParameter(cursor.getValue()));
                 }
             }
-            ResponseHandlerInterface handler = jsonHandler;
-
             Log.d("BuddySdk", String.format("%s %s", verb, url));
 
             if (isFile) {
-                handler = new AsyncHttpResponseHandler() {
+                transportCallback = new BuddyTransport.Callback() {
                     @Override
-                    public void onSuccess(int statusCode, Header[] headers, byte[] responseBody) {
-
-                        InputStream result = new ByteArrayInputStream(responseBody);
-
-                        String contentTypeHeader = "application/octet-stream";
+                    public void onResponse(BuddyTransport.Response response) throws IOException {
+                        if (response.statusCode >= 300) {
+                            // send failures over to the json handler.
+                            jsonHandler.onResponse(response);
+                            return;
+                        }
 
-                        for (Header h : headers) {
-                            if (h.getName().toLowerCase(Locale.getDefault()).equals("content-type")) {
-                                contentTypeHeader = h.getValue();
-                            }
+                        String contentTypeHeader = response.getHeader("Content-Type");
+                        if (contentTypeHeader == null) {
+                            contentTypeHeader = "application/octet-stream";
                         }
 
+                        InputStream result = new ByteArrayInputStream(readFully(response.body));
+
                         BuddyFile file = new BuddyFile(result, contentTypeHeader);
                         JsonEnvelope env = new JsonEnvelope<T>();
                         env.result = file;
 
-                        BuddyResult<T> r = new BuddyResult<T>(env);
+                        final BuddyResult<T> r = new BuddyResult<T>(env);
 
-                        if (callback != null) callback.completed(r);
-                        promise.setValue(r);
+                        jsonHandler.post(new Runnable() {
+                            @Override
+                            public void run() {
+                                promise.setValue(r);
+                            }
+                        });
                     }
 
                     @Override
-                    public void onFailure(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+                    public void onFailure(Throwable error) {
+                        jsonHandler.onFailure(error);
+                    }
+                };
+            }
+
+            if (cache != null && !isFile) {
+                final String cacheKey = cacheKey(path, parameters, resultFields, resultClass);
+
+                ResponseCache.Entry failed = cachePolicy.kind == CachePolicy.Kind.NetworkOnly ? null : cache.getNegative(cacheKey);
+                if (failed != null) {
+                    cache.countNegativeHit();
+                    jsonHandler.deliver(failed.statusCode, "", new Header[0], (JsonEnvelope<T>) failed.envelope);
+                    return;
+                }
+
+                final String fullUrl = AsyncHttpClient.getUrlWithQueryString(true, url, requestParams);
+                if (synchronous || !cache.needsDisk(cacheKey)) {
+                    sendCacheable(promise, cache, cacheKey, resourcePath, cachePolicy, jsonHandler, resultClass, resultFields, looper, callback,
+                            verb, fullUrl, headerList, synchronous, priority);
+                    return;
+                }
 
-                        jsonHandler.setUseSynchronousMode(this.getUseSynchronousMode());
-                        // send failures over to the json handler.
-                        jsonHandler.onFailure(statusCode, headers, responseBody, error);
+                // the disk read and the parse stay off the caller's thread,
+                // usually the main one; only the envelope is posted back.
+                Executor executor = _parent.getOptions().executor != null ? _parent.getOptions().executor : cache.getDiskExecutor();
+                Runnable lookup = new Runnable() {
+                    @Override
+                    public void run() {
+                        sendCacheable(promise, cache, cacheKey, resourcePath, cachePolicy, jsonHandler, resultClass, resultFields, looper, callback,
+                                verb, fullUrl, headerList, false, priority);
                     }
                 };
+                try {
+                    executor.execute(lookup);
+                } catch (RejectedExecutionException e) {
+                    lookup.run();
+                }
+                return;
             }
-            httpClient.get(null, url, headers, requestParams, handler);
+
+            String fullUrl = AsyncHttpClient.getUrlWithQueryString(true, url, requestParams);
+            request = new BuddyTransport.Request(verb, fullUrl, headerList.toArray(new Header[0]), null, synchronous, priority);
         } else {
 
             // loop through and pull out any files.
@@ -432,8 +413,13 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                         nonFiles.put(cursor.getKey(), obj);
                     }
                 }
-                String bodyJson = BuddyServiceClientImpl.makeRequestSerializer().toJson(nonFiles);
-                Log.d("BuddySdk", String.format("%s %s \r\n -> %s", verb, url, bodyJson));
+                // once the server has answered in the binary format, send it too.
+                boolean binaryBody = files.size() == 0 && wireFormat != null && wireFormat == wireFormatAccepted;
+
+                String bodyJson = binaryBody ? null : BuddyCodec.getRequestSerializer().toJson(nonFiles);
+                if (bodyJson != null) {
+                    Log.d("BuddySdk", String.format("%s %s \r\n -> %s", verb, url, bodyJson));
+                }
                 if (files.size() > 0) {
                     InputStream stream = new ByteArrayInputStream(bodyJson.getBytes());
 
@@ -566,6 +552,16 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                         e.printStackTrace();
                     }
                     contentType = null;
+                } else if (binaryBody) {
+                    ByteArrayOutputStream body = new ByteArrayOutputStream();
+                    try {
+                        wireFormat.write(BuddyCodec.getRequestSerializer().toJsonTree(nonFiles), body);
+                        Log.d("BuddySdk", String.format("%s %s \r\n -> %d bytes of %s", verb, url, body.size(), wireFormat.getContentType()));
+                        entity = new ByteArrayEntity(body.toByteArray());
+                        contentType = wireFormat.getContentType();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
                 } else {
                     try {
                         entity = new StringEntity(bodyJson);
@@ -575,46 +571,325 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                 }
             }
 
-            Method methodToInvoke = getClientMethod(verb);
+            if (contentType != null && entity != null) {
+                headerList.add(new BasicHeader("Content-Type", contentType));
+            }
+
+            request = new BuddyTransport.Request(verb, url, headerList.toArray(new Header[0]), entity, synchronous, priority);
+        }
+
+        send(promise, transportCallback, request);
+    }
+
+    // Answers a GET from the cache where the policy allows, and sends it
+    // otherwise, made conditional on what's cached.  This may read and
+    // parse the disk tier.
+    private <T> void sendCacheable(BuddyFuture<BuddyResult<T>> promise, ResponseCache cache, String cacheKey, String path, CachePolicy cachePolicy,
+                                   JsonEnvelopeResponseHandler<T> jsonHandler, Class<T> resultClass, Set<String> resultFields, Looper looper, BuddyCallback<T> callback,
+                                   String verb, String fullUrl, List<Header> headerList, boolean synchronous, RequestPriority priority) {
+        if (promise.isCancelled()) {
+            return;
+        }
+        ResponseCache.Entry cached = cache.get(cacheKey, path);
+        JsonEnvelopeResponseHandler<T> cacheHandler = jsonHandler;
+        boolean refresh = false;
+
+        if (cached != null) {
+            long now = System.currentTimeMillis();
+            if (cachePolicy.canAnswer(cached, now)) {
+                JsonEnvelope<T> envelope = CachingCallback.envelopeOf(cache, cached, jsonHandler);
+                if (envelope != null) {
+                    cache.countHit();
+                    jsonHandler.deliver(200, "OK", new Header[0], envelope);
+                    if (cachePolicy.kind != CachePolicy.Kind.StaleWhileRevalidate || cached.isFresh(now)) {
+                        return;
+                    }
+                    // already answered; refresh without holding up the caller, or
+                    // anything else the user is waiting on.
+                    cacheHandler = refreshHandler(resultClass, resultFields, looper, callback);
+                    refresh = true;
+                    priority = RequestPriority.Background;
+                }
+            }
+            if (cachePolicy.kind != CachePolicy.Kind.NetworkOnly) {
+                if (cached.etag != null) {
+                    headerList.add(new BasicHeader("If-None-Match", cached.etag));
+                }
+                if (cached.lastModified != null) {
+                    headerList.add(new BasicHeader("If-Modified-Since", cached.lastModified));
+                }
+            }
+        }
+        BuddyTransport.Callback transportCallback = new CachingCallback<T>(cache, cacheKey, path, cached, cacheHandler, refresh);
+        send(promise, transportCallback, new BuddyTransport.Request(verb, fullUrl, headerList.toArray(new Header[0]), null, synchronous && !refresh, priority));
+    }
+
+    private <T> void send(BuddyFuture<BuddyResult<T>> promise, BuddyTransport.Callback transportCallback, BuddyTransport.Request request) {
+        try {
+            CallCanceller canceller = new CallCanceller(transportCallback, promise, !request.synchronous);
+            canceller.onCall(getTransport().execute(request, canceller));
+        } catch (RuntimeException e) {
+            JsonEnvelope<T> env = new JsonEnvelope<T>();
+            env.error = "UnexpectedSdkError";
+            env.status = 0;
+            env.errorCode = -1;
+            env.message = e.toString();
+
+            StringWriter sw = new StringWriter();
+            PrintWriter pw = new PrintWriter(sw);
+            e.printStackTrace(pw);
+            Log.e("BuddySdk", sw.toString());
+
+            promise.setValue(new BuddyResult<T>(env));
+        }
+    }
 
-            if (methodToInvoke == null) {
+    // Stops the download, and the parsing, of a call no one wants.  A
+    // synchronous request's call is handed over before it runs, so a
+    // deadline can cancel it while the caller is still blocked on it,
+    // without interrupting the caller's own thread.
+    private static class CallCanceller implements BuddyTransport.Callback, BuddyTransport.CallListener {
+        private final BuddyTransport.Callback callback;
+        private final BuddyFuture<?> promise;
+        private final boolean mayInterruptIfRunning;
+
+        CallCanceller(BuddyTransport.Callback callback, BuddyFuture<?> promise, boolean mayInterruptIfRunning) {
+            this.callback = callback;
+            this.promise = promise;
+            this.mayInterruptIfRunning = mayInterruptIfRunning;
+        }
 
-                jsonHandler.onFailure(0, new Header[0], "", new MethodNotSupportedException("Verb " + verb + " not supported."));
-            } else {
-                try {
-                    try {
+        @Override
+        public void onCall(final BuddyTransport.Call call) {
+            promise.onCancel(new Runnable() {
+                @Override
+                public void run() {
+                    call.cancel(mayInterruptIfRunning);
+                }
+            });
+        }
 
-                        methodToInvoke.invoke(httpClient, null, url, headers, entity, contentType, jsonHandler);
-                    } catch (InvocationTargetException e) {
-                        JsonEnvelope<T> env = new JsonEnvelope<T>();
-                        env.error = "UnexpectedSdkError";
-                        env.status = 0;
-                        env.errorCode = -1;
-                        env.message = e.getTargetException().toString();
+        @Override
+        public void onResponse(BuddyTransport.Response response) throws IOException {
+            callback.onResponse(response);
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            callback.onFailure(error);
+        }
+    }
+
+    // Completes the call unless something else, such as its deadline,
+    // already has, and only then hands the result to the callback, so the
+    // callback runs once at most.
+    private static <T> void complete(BuddyFuture<BuddyResult<T>> promise, BuddyCallback<T> callback, BuddyResult<T> result) {
+        if (promise.setValue(result) && callback != null) {
+            callback.completed(result);
+        }
+    }
+
+    private static <T> BuddyResult<T> timedOut(long millis) {
+        JsonEnvelope<T> env = new JsonEnvelope<T>();
+        env.error = "RequestTimeout";
+        env.message = String.format(Locale.US, "No response within %d ms.", millis);
+        return new BuddyResult<T>(env);
+    }
+
+    // Handles the background refresh of a result that has already been
+    // delivered from the cache: a changed result goes to the callback again,
+    // while a failure is only logged, since the caller has its answer.
+    private <T> JsonEnvelopeResponseHandler<T> refreshHandler(Class<T> resultClass, Set<String> resultFields, Looper looper, final BuddyCallback<T> callback) {
+        return new JsonEnvelopeResponseHandler<T>(resultClass, _parent.getOptions(), resultFields, looper) {
+            @Override
+            public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<T> envelope) {
+                envelope.status = statusCode;
+                logResult(envelope);
+                if (callback != null) callback.completed(new BuddyResult<T>(envelope));
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<T> errorEnvelope) {
+                Log.d("BuddySdk", String.format("refresh failed: %d %s", statusCode, throwable));
+            }
+        };
+    }
+
+    private static byte[] readFully(InputStream stream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        if (stream != null) {
+            byte[] buffer = new byte[8192];
+            for (int n = stream.read(buffer); n != -1; n = stream.read(buffer)) {
+                bytes.write(buffer, 0, n);
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    static Set<String> toFieldSet(Object fields) {
+        Set<String> set = new HashSet<String>();
+
+        if (fields instanceof String[]) {
+            set.addAll(Arrays.asList((String[]) fields));
+        } else if (fields instanceof Collection) {
+            for (Object field : (Collection) fields) {
+                set.add(String.valueOf(field));
+            }
+        } else if (fields != null) {
+            for (String field : fields.toString().split(",")) {
+                set.add(field.trim());
+            }
+        }
+        return set;
+    }
+
+    // Cached results belong to the signed-in user, not to a token, so they
+    // outlive token refreshes but are never shared between users.
+    private String cacheKey(String path, Map<? extends String, ? extends Object> parameters, Set<String> resultFields, Class<?> clazz) {
+        Map<String, Object> converted = new TreeMap<String, Object>();
+        if (parameters != null) {
+            for (Map.Entry<? extends String, ? extends Object> entry : parameters.entrySet()) {
+                if (!entry.getKey().equals("accessToken")) {
+                    converted.put(entry.getKey(), convertParameter(entry.getValue()));
+                }
+            }
+        }
+        String user = _parent.getCurrentUserId();
+        return RequestCoalescer.key(ResponseCache.normalize(path), converted, user == null ? "" : user, resultFields, clazz);
+    }
+
+    // null when the request can't share its result with identical ones.
+    private String coalescingKey(String verb, String path, Map<? extends String, ? extends Object> parameters, String accessToken, Set<String> resultFields, Class<?> clazz, RequestPriority priority) {
+        if (!_parent.getOptions().coalesceRequests || !GET.equalsIgnoreCase(verb) || clazz == BuddyFile.class) {
+            return null;
+        }
 
-                        StringWriter sw = new StringWriter();
-                        PrintWriter pw = new PrintWriter(sw);
-                        e.getTargetException().printStackTrace(pw);
-                        Log.e("BuddySdk", sw.toString());
+        Map<String, Object> converted = new TreeMap<String, Object>();
+        if (parameters != null) {
+            for (Map.Entry<? extends String, ? extends Object> entry : parameters.entrySet()) {
+                converted.put(entry.getKey(), convertParameter(entry.getValue()));
+            }
+        }
+        // an interactive call mustn't end up waiting on a background one.
+        return priority + " " + RequestCoalescer.key(path, converted, accessToken, resultFields, clazz);
+    }
 
-                        BuddyResult<T> newResult = new BuddyResult<T>(env);
+    // Completes a caller that joined an identical request in flight, the
+    // way its own request would have.  deadline is the System.nanoTime()
+    // the caller stops waiting at, or 0.
+    private <T> void follow(final BuddyFuture<BuddyResult<T>> leader, final BuddyCallback<T> callback, final BuddyFuture<BuddyResult<T>> promise, long deadline) {
+        final Looper looper = syncMode ? null : Looper.myLooper();
+
+        if (syncMode || (looper == null && _parent.getOptions().executor == null)) {
+            // synchronous callers expect the result when the call returns.
+            try {
+                BuddyResult<T> result = deadline == 0 ? leader.get() : leader.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                complete(promise, callback, result);
+                return;
+            } catch (TimeoutException e) {
+                // makeRequest times the call out.
+                return;
+            } catch (CancellationException e) {
+                // everyone who wanted the result left, this caller included.
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // can't happen; fall through to completing later.
+            }
+        }
 
-                        if (callback != null) callback.completed(newResult);
-                        promise.setValue(newResult);
+        leader.continueWith(new BuddyFutureCallback<BuddyResult<T>>() {
+            @Override
+            public void completed(final BuddyFuture<BuddyResult<T>> future) {
+                Runnable deliver = new Runnable() {
+                    @Override
+                    public void run() {
+                        BuddyResult<T> result;
+                        try {
+                            result = future.get();
+                        } catch (InterruptedException e) {
+                            return;
+                        } catch (ExecutionException e) {
+                            return;
+                        }
+                        complete(promise, callback, result);
                     }
-                } catch (IllegalAccessException e) {
+                };
 
+                if (looper == null || looper == Looper.myLooper()) {
+                    deliver.run();
+                } else {
+                    new Handler(looper).post(deliver);
                 }
             }
+        });
+    }
 
+    private static ScheduledExecutorService deadlines;
+
+    private static synchronized ScheduledExecutorService getDeadlines() {
+        if (deadlines == null) {
+            deadlines = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "BuddyDeadlines");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
-        return promise;
+        return deadlines;
+    }
+
+    // Gives up on the call if it hasn't completed within millis: whatever
+    // step it's at is cancelled, and the caller gets a RequestTimeout error
+    // where the result would have gone, on the thread the result would
+    // have come back on.  A synchronous caller is only unblocked from
+    // here, and completes the call itself; see makeRequest.
+    private <T> void scheduleDeadline(final BuddyFuture<BuddyResult<T>> promise, final BuddyFuture<Void> attempt, final BuddyCallback<T> callback, final long millis) {
+        final Looper looper = syncMode ? null : Looper.myLooper();
+        final Executor executor = _parent.getOptions().executor;
+        final boolean synchronous = syncMode || (looper == null && executor == null);
+
+        final ScheduledFuture<?> deadline = getDeadlines().schedule(new Runnable() {
+            @Override
+            public void run() {
+                if (promise.isDone() || !attempt.cancel(true) || synchronous) {
+                    return;
+                }
+
+                Runnable deliver = new Runnable() {
+                    @Override
+                    public void run() {
+                        complete(promise, callback, BuddyServiceClientImpl.<T>timedOut(millis));
+                    }
+                };
+                if (looper == null) {
+                    executor.execute(deliver);
+                } else {
+                    new Handler(looper).post(deliver);
+                }
+            }
+        }, millis, TimeUnit.MILLISECONDS);
+
+        promise.continueWith(new BuddyFutureCallback<BuddyResult<T>>() {
+            @Override
+            public void completed(BuddyFuture<BuddyResult<T>> future) {
+                deadline.cancel(false);
+            }
+        });
+        promise.propagateCancel(deadline);
     }
 
     public <T> Future<BuddyResult<T>> makeRequest(final String verb, final String path, final Map<? extends String, ? extends Object> parameters, final BuddyCallback<T> callback, final Class<T> clazz) {
 
 
         boolean autoRegister = true;
+        Set<String> resultFields = null;
+        CachePolicy policy = CachePolicy.Default;
+        RequestPriority lane = RequestPriority.Normal;
+        long timeout = _parent.getOptions().callTimeoutMillis;
 
         if (parameters != null) {
             // should we disable auto register?
@@ -623,11 +898,57 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                 parameters.remove(BuddyClientImpl.NoRegisterDevice);
                 autoRegister = false;
             }
+
+            // only keep these fields of the result (or of each page item).
+            //
+            if (parameters.containsKey(BuddyClientImpl.ResultFields)) {
+                resultFields = toFieldSet(parameters.remove(BuddyClientImpl.ResultFields));
+            }
+
+            // how this GET uses the response cache.
+            //
+            if (parameters.containsKey(BuddyClientImpl.ResultCachePolicy)) {
+                Object requested = parameters.remove(BuddyClientImpl.ResultCachePolicy);
+                if (requested instanceof CachePolicy) {
+                    policy = (CachePolicy) requested;
+                }
+            }
+
+            // which lane the request waits in.
+            //
+            if (parameters.containsKey(BuddyClientImpl.CallPriority)) {
+                Object requested = parameters.remove(BuddyClientImpl.CallPriority);
+                if (requested instanceof RequestPriority) {
+                    lane = (RequestPriority) requested;
+                }
+            }
+
+            // how long the caller waits for the result, in milliseconds.
+            //
+            if (parameters.containsKey(BuddyClientImpl.CallTimeout)) {
+                Object requested = parameters.remove(BuddyClientImpl.CallTimeout);
+                if (requested instanceof Number) {
+                    timeout = ((Number) requested).longValue();
+                }
+            }
         }
 
+        final Set<String> projection = resultFields;
+        final CachePolicy cachePolicy = policy;
+        final RequestPriority priority = lane;
+
 
         final BuddyFuture<BuddyResult<T>> promise = new BuddyFuture<BuddyResult<T>>();
 
+        // cancelled along with the call, or when its deadline passes, to stop
+        // whichever step it's at.
+        final BuddyFuture<Void> attempt = new BuddyFuture<Void>();
+        promise.propagateCancel(attempt);
+        final long deadline = timeout > 0 ? System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout) : 0;
+        if (timeout > 0) {
+            scheduleDeadline(promise, attempt, callback, timeout);
+        }
+
 
         // get the access token.
         //
@@ -636,11 +957,13 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                     @Override
                     public void completed(BuddyResult<Boolean> error, final String accessToken) {
 
+                        if (attempt.isCancelled()) {
+                            return;
+                        }
+
                         if (error != null) {
                             // propagate the error
-                            BuddyResult<T> newResult = error.convert((T) null);
-                            if (callback != null) callback.completed(newResult);
-                            promise.setValue(newResult);
+                            complete(promise, callback, error.convert((T) null));
                         } else {
 
                             String fullAccessToken = accessToken;
@@ -652,24 +975,88 @@ class BuddyServiceClientImpl implements BuddyServiceClient {
                                 }
                             }
 
-                            final BuddyFuture<BuddyResult<T>> innerPromise = BuddyServiceClientImpl.this.<T>makeRequestCore(verb, path, fullAccessToken, parameters, callback, clazz);
+                            Class<T> resultClass = clazz != null ? clazz : (callback != null ? callback.getResultClass() : null);
+                            // a stale-while-revalidate caller may be called back twice, so it
+                            // can't share a single result.
+                            final String flightKey = cachePolicy.kind == CachePolicy.Kind.StaleWhileRevalidate ? null
+                                    : coalescingKey(verb, path, parameters, fullAccessToken, projection, resultClass, priority);
+
+                            final BuddyFuture<BuddyResult<T>> flight = flightKey == null ? null : new BuddyFuture<BuddyResult<T>>();
+
+                            if (flightKey != null) {
+                                final BuddyFuture<BuddyResult<T>> leader = coalescer.join(flightKey, flight);
+
+                                if (leader != null) {
+                                    attempt.onCancel(new Runnable() {
+                                        @Override
+                                        public void run() {
+                                            coalescer.leave(flightKey, leader);
+                                        }
+                                    });
+                                    follow(leader, callback, promise, deadline);
+                                    return;
+                                }
+                            }
+
+                            // linked up before the request is made, as a synchronous one
+                            // has finished by the time makeRequestCore returns.
+                            final BuddyFuture<BuddyResult<T>> innerPromise = new BuddyFuture<BuddyResult<T>>();
+
+                            if (flightKey != null) {
+                                // the request carries on for anyone who joined it.
+                                coalescer.started(flightKey, flight, innerPromise);
+                                attempt.onCancel(new Runnable() {
+                                    @Override
+                                    public void run() {
+                                        coalescer.leave(flightKey, flight);
+                                    }
+                                });
+                            } else {
+                                attempt.propagateCancel(innerPromise);
+                            }
 
-                            innerPromise.continueWith(new BuddyFutureCallback() {
+                            innerPromise.continueWith(new BuddyFutureCallback<BuddyResult<T>>() {
                                 @Override
-                                public void completed(BuddyFuture future) {
+                                public void completed(BuddyFuture<BuddyResult<T>> future) {
+                                    BuddyResult<T> result;
                                     try {
-                                        promise.setValue(innerPromise.get());
+                                        result = future.get();
                                     } catch (InterruptedException e) {
-
+                                        return;
                                     } catch (ExecutionException e) {
-
+                                        return;
                                     }
+                                    if (flightKey != null) {
+                                        // release the flight before this caller's callback runs, so a
+                                        // callback that repeats the GET makes a new request.
+                                        coalescer.complete(flightKey, flight, result);
+                                    }
+                                    complete(promise, callback, result);
                                 }
                             });
+
+                            BuddyServiceClientImpl.this.<T>makeRequestCore(innerPromise, verb, path, fullAccessToken, parameters, callback, clazz, projection, cachePolicy, priority);
                         }
                     }
                 }
         );
+
+        // a synchronous caller gets its result, or the timeout, on its own
+        // thread before the call returns.
+        if (deadline != 0 && (syncMode || (Looper.myLooper() == null && _parent.getOptions().executor == null))) {
+            try {
+                promise.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+            } catch (TimeoutException e) {
+                attempt.cancel(true);
+                complete(promise, callback, BuddyServiceClientImpl.<T>timedOut(timeout));
+            } catch (CancellationException e) {
+                // cancelled by the caller.
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                // can't happen.
+            }
+        }
         return promise;
 
     }
@@ -0,0 +1,104 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+// Executes the HTTP requests built by the SDK.
+//
+// The SDK builds the full request (url with query string, headers, body)
+// and parses the response itself, so a transport only moves bytes.  The
+// default is LoopjTransport; set BuddyClientOptions.transport to plug in
+// another engine.  Implementations must be thread-safe.
+public interface BuddyTransport {
+
+    // Sends the request and reports to the callback exactly once, unless
+    // the call is cancelled first.  Synchronous requests run and report on
+    // the calling thread before this returns; others report on a thread
+    // owned by the transport.  A synchronous request hands its Call to a
+    // callback that is also a CallListener before doing any I/O.
+    Call execute(Request request, Callback callback);
+
+    class Request {
+        public final String method;
+        public final String url;
+        public final Header[] headers;
+        // null when the request has no body.
+        public final HttpEntity body;
+        public final boolean synchronous;
+        public final RequestPriority priority;
+
+        public Request(String method, String url, Header[] headers, HttpEntity body, boolean synchronous) {
+            this(method, url, headers, body, synchronous, RequestPriority.Normal);
+        }
+
+        public Request(String method, String url, Header[] headers, HttpEntity body, boolean synchronous, RequestPriority priority) {
+            this.method = method;
+            this.url = url;
+            this.headers = headers == null ? new Header[0] : headers;
+            this.body = body;
+            this.synchronous = synchronous;
+            this.priority = priority == null ? RequestPriority.Normal : priority;
+        }
+
+        public String getHeader(String name) {
+            return Response.findHeader(headers, name);
+        }
+    }
+
+    class Response {
+        public final int statusCode;
+        public final String reasonPhrase;
+        public final Header[] headers;
+        // null when the response has no body.  Closed by the transport
+        // once the callback returns.
+        public final InputStream body;
+
+        public Response(int statusCode, String reasonPhrase, Header[] headers, InputStream body) {
+            this.statusCode = statusCode;
+            this.reasonPhrase = reasonPhrase;
+            this.headers = headers == null ? new Header[0] : headers;
+            this.body = body;
+        }
+
+        public String getHeader(String name) {
+            return findHeader(headers, name);
+        }
+
+        static String findHeader(Header[] headers, String name) {
+            for (Header h : headers) {
+                if (h.getName().equalsIgnoreCase(name)) {
+                    return h.getValue();
+                }
+            }
+            return null;
+        }
+    }
+
+    interface Callback {
+        // Any status code, including errors, arrives here.  The body must be
+        // consumed before returning; an IOException thrown while reading it
+        // is passed on to onFailure.
+        void onResponse(Response response) throws IOException;
+
+        // No response was received.
+        void onFailure(Throwable error);
+    }
+
+    // For a callback that needs the Call of a synchronous request while
+    // it is still running, so another thread can cancel it mid-flight.
+    // A transport that wraps another passes on its own Call.
+    interface CallListener {
+        void onCall(Call call);
+    }
+
+    interface Call {
+        boolean cancel(boolean mayInterruptIfRunning);
+
+        boolean isCancelled();
+
+        boolean isDone();
+    }
+}
@@ -0,0 +1,65 @@
+package com.buddy.sdk;
+
+// How a single GET uses BuddyClientOptions.responseCache, passed to the
+// BuddyClient.get overloads that take one.  Without a response cache every
+// policy goes to the network.
+public final class CachePolicy {
+
+    enum Kind {
+        Default,
+        NetworkOnly,
+        CacheFirst,
+        StaleWhileRevalidate
+    }
+
+    // Answers from fresh entries and revalidates stale ones.
+    public static final CachePolicy Default = new CachePolicy(Kind.Default, 0);
+
+    // Always asks the service, unconditionally; the response is still
+    // stored for later calls.
+    public static final CachePolicy NetworkOnly = new CachePolicy(Kind.NetworkOnly, 0);
+
+    // Answers from any cached entry, however old, and only asks the
+    // service when there is none.  Entries the service marked
+    // must-revalidate are revalidated once stale, with every policy.
+    public static final CachePolicy CacheFirst = new CachePolicy(Kind.CacheFirst, 0);
+
+    // Answers straight away from an entry up to maxStaleMillis past its
+    // max-age, then revalidates it in the background.  The callback is
+    // called a second time only if the service returns something different;
+    // the returned Future completes with the first result.  Older entries
+    // are handled as with Default.
+    public static CachePolicy staleWhileRevalidate(long maxStaleMillis) {
+        return new CachePolicy(Kind.StaleWhileRevalidate, maxStaleMillis);
+    }
+
+    final Kind kind;
+    final long maxStaleMillis;
+
+    private CachePolicy(Kind kind, long maxStaleMillis) {
+        this.kind = kind;
+        this.maxStaleMillis = maxStaleMillis;
+    }
+
+    // whether a cached entry may answer the call without a request first.
+    boolean canAnswer(ResponseCache.Entry entry, long now) {
+        if (entry.mustRevalidate && !entry.isFresh(now)) {
+            return false;
+        }
+        switch (kind) {
+            case NetworkOnly:
+                return false;
+            case CacheFirst:
+                return true;
+            case StaleWhileRevalidate:
+                return entry.isFresh(now) || entry.ageMillis(now) <= Math.max(entry.maxAgeMillis, 0) + maxStaleMillis;
+            default:
+                return entry.isFresh(now);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return kind == Kind.StaleWhileRevalidate ? kind + "(" + maxStaleMillis + "ms)" : kind.toString();
+    }
+}
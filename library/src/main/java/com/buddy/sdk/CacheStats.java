@@ -0,0 +1,34 @@
+package com.buddy.sdk;
+
+// A snapshot of a ResponseCache.
+public final class CacheStats {
+
+    // answered from the cache without a request.
+    public final long hits;
+    // went to the network and got a full response.
+    public final long misses;
+    // answered from the cache after the service replied 304.
+    public final long revalidations;
+    // of hits, those that answered with a remembered failure.
+    public final long negativeHits;
+    public final int memoryEntries;
+    // remembered failures, which are kept in memory only.
+    public final int negativeEntries;
+    public final long diskBytes;
+
+    public CacheStats(long hits, long misses, long revalidations, long negativeHits, int memoryEntries, int negativeEntries, long diskBytes) {
+        this.hits = hits;
+        this.misses = misses;
+        this.revalidations = revalidations;
+        this.negativeHits = negativeHits;
+        this.memoryEntries = memoryEntries;
+        this.negativeEntries = negativeEntries;
+        this.diskBytes = diskBytes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("hits=%d misses=%d revalidations=%d negativeHits=%d memoryEntries=%d negativeEntries=%d diskBytes=%d",
+                hits, misses, revalidations, negativeHits, memoryEntries, negativeEntries, diskBytes);
+    }
+}
@@ -0,0 +1,182 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// Sits between the transport and the envelope handler for a cacheable GET:
+// answers 304s from the cached entry and stores what comes back.  For a
+// background refresh of an entry that has already been delivered, only a
+// changed result (or an error) reaches the handler.
+class CachingCallback<T> implements BuddyTransport.Callback {
+
+    private final ResponseCache cache;
+    private final String key;
+    private final String path;
+    private final ResponseCache.Entry cached;
+    private final JsonEnvelopeResponseHandler<T> handler;
+    private final boolean onlyIfChanged;
+
+    CachingCallback(ResponseCache cache, String key, String path, ResponseCache.Entry cached, JsonEnvelopeResponseHandler<T> handler) {
+        this(cache, key, path, cached, handler, false);
+    }
+
+    CachingCallback(ResponseCache cache, String key, String path, ResponseCache.Entry cached, JsonEnvelopeResponseHandler<T> handler, boolean onlyIfChanged) {
+        this.cache = cache;
+        this.key = key;
+        this.path = path;
+        this.cached = cached;
+        this.handler = handler;
+        this.onlyIfChanged = onlyIfChanged;
+    }
+
+    // The parsed envelope of an entry, parsing and keeping it in memory if
+    // it came from disk; null if it can't be read.
+    @SuppressWarnings("unchecked")
+    static <T> JsonEnvelope<T> envelopeOf(ResponseCache cache, ResponseCache.Entry entry, JsonEnvelopeResponseHandler<T> handler) {
+        JsonEnvelope<T> envelope = (JsonEnvelope<T>) entry.envelope;
+        if (envelope != null || entry.body == null) {
+            return envelope;
+        }
+
+        Header[] headers = entry.contentType == null ? new Header[0] : new Header[]{new BasicHeader("Content-Type", entry.contentType)};
+        try {
+            envelope = handler.parse(new BuddyTransport.Response(200, "OK", headers, new ByteArrayInputStream(entry.body)));
+        } catch (IOException e) {
+            return null;
+        }
+        if (envelope == null || envelope.error != null) {
+            return null;
+        }
+        cache.promote(entry, envelope);
+        return envelope;
+    }
+
+    @Override
+    public void onResponse(BuddyTransport.Response response) throws IOException {
+        if (response.statusCode == 304 && cached != null) {
+            JsonEnvelope<T> envelope = envelopeOf(cache, cached, handler);
+            if (envelope != null) {
+                cache.revalidated(cached, response.headers);
+                cache.countRevalidation();
+                if (!onlyIfChanged) {
+                    handler.deliver(200, "OK", response.headers, envelope);
+                }
+                return;
+            }
+            cache.remove(key, path);
+        }
+        cache.countMiss();
+
+        if (response.body != null && cache.cachesFailure(response.statusCode)) {
+            JsonEnvelope<T> envelope = handler.parse(response);
+            if (cached != null) {
+                cache.remove(key, path);
+            }
+            if (envelope != null) {
+                cache.storeNegative(key, path, response.statusCode, envelope);
+            }
+            handler.deliver(response.statusCode, response.reasonPhrase, response.headers, envelope);
+            return;
+        }
+
+        if (response.body == null || !ResponseCache.isCacheable(response)) {
+            if (cached != null && response.statusCode == 200) {
+                cache.remove(key, path);
+            }
+            handler.onResponse(response);
+            return;
+        }
+
+        ByteArrayOutputStream copy = cache.keepsBodies() ? new ByteArrayOutputStream() : null;
+        MessageDigest digest = newDigest();
+        BuddyTransport.Response toParse = new BuddyTransport.Response(response.statusCode, response.reasonPhrase, response.headers,
+                new TeeInputStream(response.body, copy, digest));
+
+        JsonEnvelope<T> envelope = handler.parse(toParse);
+
+        if (envelope != null && envelope.error == null) {
+            // the parser may stop short of trailing whitespace.
+            byte[] rest = new byte[1024];
+            while (toParse.body.read(rest) != -1) {
+                // copied as it's read.
+            }
+            String hex = BuddyServiceClientImpl.toHexString(digest.digest());
+            cache.store(key, path, response, copy == null ? null : copy.toByteArray(), hex, envelope);
+
+            if (onlyIfChanged && cached != null && hex.equals(cached.digest)) {
+                return;
+            }
+        }
+        handler.deliver(response.statusCode, response.reasonPhrase, response.headers, envelope);
+    }
+
+    @Override
+    public void onFailure(Throwable error) {
+        handler.onFailure(error);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Digests the body as it's read, and copies it when copy isn't null.
+    private static class TeeInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream copy;
+        private final MessageDigest digest;
+
+        TeeInputStream(InputStream in, ByteArrayOutputStream copy, MessageDigest digest) {
+            super(in);
+            this.copy = copy;
+            this.digest = digest;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                digest.update((byte) b);
+                if (copy != null) {
+                    copy.write(b);
+                }
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int count) throws IOException {
+            int n = super.read(buffer, offset, count);
+            if (n > 0) {
+                digest.update(buffer, offset, n);
+                if (copy != null) {
+                    copy.write(buffer, offset, n);
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            // keep the copy whole.
+            byte[] skipped = new byte[(int) Math.min(n, 8192)];
+            int read = read(skipped, 0, skipped.length);
+            return Math.max(read, 0);
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,469 @@
+package com.buddy.sdk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+// CBOR (RFC 7049) for the JSON data model: integers, floats, text, arrays,
+// maps with text keys, booleans and null.  Tags are read through and byte
+// strings are rejected, as neither has a JSON equivalent.
+public class CborWireFormat implements WireFormat {
+
+    public static final String ContentType = "application/cbor";
+
+    private static final int MajorUnsigned = 0;
+    private static final int MajorNegative = 1;
+    private static final int MajorBytes = 2;
+    private static final int MajorText = 3;
+    private static final int MajorArray = 4;
+    private static final int MajorMap = 5;
+    private static final int MajorTag = 6;
+
+    private static final int False = 0xf4;
+    private static final int True = 0xf5;
+    private static final int Null = 0xf6;
+    private static final int Undefined = 0xf7;
+    private static final int Float16 = 0xf9;
+    private static final int Float32 = 0xfa;
+    private static final int Float64 = 0xfb;
+    private static final int Break = 0xff;
+
+    private static final int Indefinite = 31;
+
+    private static final BigInteger TwoTo64 = BigInteger.ONE.shiftLeft(64);
+
+    @Override
+    public String getContentType() {
+        return ContentType;
+    }
+
+    @Override
+    public JsonElement read(InputStream in) throws IOException {
+        return readItem(in, readByte(in));
+    }
+
+    // Reads one item as it streams in, without building a tree first.  The
+    // CBOR is turned into JSON text a token at a time, so whatever reads
+    // from the JsonReader only ever sees Gson's public API.
+    public JsonReader newJsonReader(InputStream in) {
+        JsonReader reader = new JsonReader(new JsonText(in));
+        // NaN and the infinities come through as bare words.
+        reader.setLenient(true);
+        return reader;
+    }
+
+    @Override
+    public void write(JsonElement value, OutputStream out) throws IOException {
+        if (value == null || value.isJsonNull()) {
+            out.write(Null);
+        } else if (value.isJsonObject()) {
+            JsonObject obj = value.getAsJsonObject();
+            writeHead(out, MajorMap, obj.entrySet().size());
+            for (Map.Entry<String, JsonElement> entry : obj.entrySet()) {
+                writeText(out, entry.getKey());
+                write(entry.getValue(), out);
+            }
+        } else if (value.isJsonArray()) {
+            JsonArray array = value.getAsJsonArray();
+            writeHead(out, MajorArray, array.size());
+            for (JsonElement item : array) {
+                write(item, out);
+            }
+        } else {
+            JsonPrimitive primitive = value.getAsJsonPrimitive();
+            if (primitive.isBoolean()) {
+                out.write(primitive.getAsBoolean() ? True : False);
+            } else if (primitive.isNumber()) {
+                writeNumber(out, primitive.getAsNumber());
+            } else {
+                writeText(out, primitive.getAsString());
+            }
+        }
+    }
+
+    private static void writeNumber(OutputStream out, Number n) throws IOException {
+        if (n instanceof Integer || n instanceof Long || n instanceof Short || n instanceof Byte) {
+            writeInteger(out, n.longValue());
+            return;
+        }
+
+        if (n instanceof BigInteger && ((BigInteger) n).bitLength() < 64) {
+            writeInteger(out, n.longValue());
+            return;
+        }
+
+        double d = n.doubleValue();
+
+        // whole numbers (including ones parsed from JSON text) stay integers.
+        if (d == Math.rint(d) && Math.abs(d) < 9007199254740992.0 && !(d == 0 && 1 / d < 0)) {
+            writeInteger(out, (long) d);
+        } else if ((double) (float) d == d || Double.isNaN(d)) {
+            out.write(Float32);
+            writeFixed(out, Float.floatToIntBits((float) d), 4);
+        } else {
+            out.write(Float64);
+            writeFixed(out, Double.doubleToLongBits(d), 8);
+        }
+    }
+
+    private static void writeInteger(OutputStream out, long value) throws IOException {
+        if (value >= 0) {
+            writeHead(out, MajorUnsigned, value);
+        } else {
+            writeHead(out, MajorNegative, -1 - value);
+        }
+    }
+
+    private static void writeText(OutputStream out, String text) throws IOException {
+        byte[] bytes = text.getBytes("UTF-8");
+        writeHead(out, MajorText, bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeHead(OutputStream out, int major, long value) throws IOException {
+        int type = major << 5;
+
+        if (value < 24) {
+            out.write(type | (int) value);
+        } else if (value < 0x100) {
+            out.write(type | 24);
+            writeFixed(out, value, 1);
+        } else if (value < 0x10000) {
+            out.write(type | 25);
+            writeFixed(out, value, 2);
+        } else if (value < 0x100000000L) {
+            out.write(type | 26);
+            writeFixed(out, value, 4);
+        } else {
+            out.write(type | 27);
+            writeFixed(out, value, 8);
+        }
+    }
+
+    private static void writeFixed(OutputStream out, long value, int bytes) throws IOException {
+        for (int shift = (bytes - 1) * 8; shift >= 0; shift -= 8) {
+            out.write((int) (value >>> shift) & 0xff);
+        }
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b == -1) {
+            throw new EOFException("End of CBOR input");
+        }
+        return b;
+    }
+
+    private static long readFixed(InputStream in, int bytes) throws IOException {
+        long value = 0;
+        for (int i = 0; i < bytes; i++) {
+            value = (value << 8) | readByte(in);
+        }
+        return value;
+    }
+
+    // the argument of the initial byte, or -1 for indefinite length.
+    private static long readArgument(InputStream in, int initial) throws IOException {
+        int info = initial & 0x1f;
+
+        if (info < 24) {
+            return info;
+        } else if (info == 24) {
+            return readFixed(in, 1);
+        } else if (info == 25) {
+            return readFixed(in, 2);
+        } else if (info == 26) {
+            return readFixed(in, 4);
+        } else if (info == 27) {
+            return readFixed(in, 8);
+        } else if (info == Indefinite) {
+            return -1;
+        }
+        throw new JsonParseException("Invalid CBOR initial byte " + initial);
+    }
+
+    private static int readLength(InputStream in, int initial) throws IOException {
+        long length = readArgument(in, initial);
+        if (length > Integer.MAX_VALUE || length < -1) {
+            throw new JsonParseException("CBOR item too long: " + length);
+        }
+        return (int) length;
+    }
+
+    private JsonElement readItem(InputStream in, int initial) throws IOException {
+        int major = initial >>> 5;
+
+        if (major <= MajorNegative && (initial & 0x1f) == Indefinite) {
+            throw new JsonParseException("Invalid CBOR initial byte " + initial);
+        }
+
+        switch (major) {
+            case MajorUnsigned: {
+                long value = readArgument(in, initial);
+                return value >= 0 ? new JsonPrimitive(value) : new JsonPrimitive(BigInteger.valueOf(value).add(TwoTo64));
+            }
+            case MajorNegative: {
+                long value = readArgument(in, initial);
+                return value >= 0 ? new JsonPrimitive(-1 - value) : new JsonPrimitive(BigInteger.valueOf(value).add(TwoTo64).add(BigInteger.ONE).negate());
+            }
+            case MajorBytes:
+                throw new JsonParseException("CBOR byte strings are not supported");
+            case MajorText:
+                return new JsonPrimitive(readText(in, initial));
+            case MajorArray: {
+                JsonArray array = new JsonArray();
+                int length = readLength(in, initial);
+                if (length < 0) {
+                    for (int b = readByte(in); b != Break; b = readByte(in)) {
+                        array.add(readItem(in, b));
+                    }
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        array.add(read(in));
+                    }
+                }
+                return array;
+            }
+            case MajorMap: {
+                JsonObject obj = new JsonObject();
+                int length = readLength(in, initial);
+                if (length < 0) {
+                    for (int b = readByte(in); b != Break; b = readByte(in)) {
+                        obj.add(readKey(in, b), read(in));
+                    }
+                } else {
+                    for (int i = 0; i < length; i++) {
+                        obj.add(readKey(in, readByte(in)), read(in));
+                    }
+                }
+                return obj;
+            }
+            case MajorTag:
+                readArgument(in, initial);
+                return read(in);
+            default:
+                return readSimple(in, initial);
+        }
+    }
+
+    private static class Container {
+        final boolean map;
+        // items, or pairs for a map, left to read; -1 until a break.
+        long remaining;
+        boolean keyNext = true;
+
+        Container(boolean map, long remaining) {
+            this.map = map;
+            this.remaining = remaining;
+        }
+    }
+
+    private class JsonText extends Reader {
+        private final InputStream in;
+        private final StringBuilder pending = new StringBuilder();
+        private final JsonWriter json;
+        private final List<Container> open = new ArrayList<Container>();
+        private int position;
+        private boolean started;
+
+        JsonText(InputStream in) {
+            this.in = in;
+            json = new JsonWriter(new Writer() {
+                @Override
+                public void write(char[] buffer, int offset, int count) {
+                    pending.append(buffer, offset, count);
+                }
+
+                @Override
+                public void write(String text) {
+                    pending.append(text);
+                }
+
+                @Override
+                public void flush() {
+                }
+
+                @Override
+                public void close() {
+                }
+            });
+            json.setLenient(true);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int count) throws IOException {
+            while (position == pending.length()) {
+                pending.setLength(0);
+                position = 0;
+                if (!step()) {
+                    return -1;
+                }
+            }
+            int n = Math.min(count, pending.length() - position);
+            pending.getChars(position, position + n, buffer, offset);
+            position += n;
+            return n;
+        }
+
+        // Writes the next token; false once the item is finished.
+        private boolean step() throws IOException {
+            if (open.isEmpty()) {
+                if (started) {
+                    return false;
+                }
+                started = true;
+                value(readByte(in));
+                return true;
+            }
+
+            Container top = open.get(open.size() - 1);
+            if (top.map && !top.keyNext) {
+                top.keyNext = true;
+                value(readByte(in));
+                return true;
+            }
+
+            int initial = top.remaining == 0 ? Break : readByte(in);
+            if (initial == Break) {
+                if (top.remaining > 0) {
+                    throw new JsonParseException("Unexpected break in CBOR container");
+                }
+                open.remove(open.size() - 1);
+                if (top.map) {
+                    json.endObject();
+                } else {
+                    json.endArray();
+                }
+            } else {
+                if (top.remaining > 0) {
+                    top.remaining--;
+                }
+                if (top.map) {
+                    top.keyNext = false;
+                    json.name(readKey(in, initial));
+                } else {
+                    value(initial);
+                }
+            }
+            return true;
+        }
+
+        private void value(int initial) throws IOException {
+            while (initial >>> 5 == MajorTag) {
+                readArgument(in, initial);
+                initial = readByte(in);
+            }
+
+            int major = initial >>> 5;
+            if (major == MajorArray || major == MajorMap) {
+                int length = readLength(in, initial);
+                open.add(new Container(major == MajorMap, length));
+                if (major == MajorMap) {
+                    json.beginObject();
+                } else {
+                    json.beginArray();
+                }
+                return;
+            }
+
+            JsonElement scalar = readItem(in, initial);
+            if (scalar.isJsonNull()) {
+                json.nullValue();
+            } else if (scalar.getAsJsonPrimitive().isBoolean()) {
+                json.value(scalar.getAsBoolean());
+            } else if (scalar.getAsJsonPrimitive().isNumber()) {
+                json.value(scalar.getAsNumber());
+            } else {
+                json.value(scalar.getAsString());
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    private String readKey(InputStream in, int initial) throws IOException {
+        if (initial >>> 5 != MajorText) {
+            throw new JsonParseException("CBOR map keys must be text");
+        }
+        return readText(in, initial);
+    }
+
+    private static String readText(InputStream in, int initial) throws IOException {
+        int length = readLength(in, initial);
+
+        if (length < 0) {
+            StringBuilder text = new StringBuilder();
+            for (int b = readByte(in); b != Break; b = readByte(in)) {
+                if (b >>> 5 != MajorText || (b & 0x1f) == Indefinite) {
+                    throw new JsonParseException("Invalid chunk in CBOR text string");
+                }
+                text.append(readText(in, b));
+            }
+            return text.toString();
+        }
+
+        byte[] bytes = new byte[length];
+        int read = 0;
+        while (read < length) {
+            int n = in.read(bytes, read, length - read);
+            if (n == -1) {
+                throw new EOFException("End of CBOR input");
+            }
+            read += n;
+        }
+        return new String(bytes, "UTF-8");
+    }
+
+    private static JsonElement readSimple(InputStream in, int initial) throws IOException {
+        switch (initial) {
+            case False:
+                return new JsonPrimitive(false);
+            case True:
+                return new JsonPrimitive(true);
+            case Null:
+            case Undefined:
+                return JsonNull.INSTANCE;
+            case Float16:
+                return new JsonPrimitive(halfToFloat((int) readFixed(in, 2)));
+            case Float32:
+                return new JsonPrimitive(Float.intBitsToFloat((int) readFixed(in, 4)));
+            case Float64:
+                return new JsonPrimitive(Double.longBitsToDouble(readFixed(in, 8)));
+        }
+        throw new JsonParseException("Unsupported CBOR simple value " + (initial & 0x1f));
+    }
+
+    private static float halfToFloat(int half) {
+        int exponent = (half >> 10) & 0x1f;
+        int mantissa = half & 0x3ff;
+        float value;
+
+        if (exponent == 0) {
+            value = mantissa * (float) Math.pow(2, -24);
+        } else if (exponent == 31) {
+            value = mantissa == 0 ? Float.POSITIVE_INFINITY : Float.NaN;
+        } else {
+            value = (mantissa + 1024) * (float) Math.pow(2, exponent - 25);
+        }
+        return (half & 0x8000) != 0 ? -value : value;
+    }
+}
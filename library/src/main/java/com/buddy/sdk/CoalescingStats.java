@@ -0,0 +1,25 @@
+package com.buddy.sdk;
+
+// A snapshot of how many GETs were answered by an identical request that
+// was already in flight.
+public final class CoalescingStats {
+
+    // GETs that could have been coalesced.
+    public final long requests;
+    // of those, the ones that joined a request in flight instead of going
+    // to the network.
+    public final long coalesced;
+    // distinct GETs in flight now.
+    public final int inFlight;
+
+    public CoalescingStats(long requests, long coalesced, int inFlight) {
+        this.requests = requests;
+        this.coalesced = coalesced;
+        this.inFlight = inFlight;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requests=%d coalesced=%d inFlight=%d", requests, coalesced, inFlight);
+    }
+}
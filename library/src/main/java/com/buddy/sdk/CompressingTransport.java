@@ -0,0 +1,315 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// Negotiates gzip for every transport: asks for gzip responses and
+// inflates them as they're read, so the parser sees the plain body without
+// it ever being buffered, and gzips request bodies of at least
+// thresholdBytes.  If the service answers a compressed request with 415,
+// the request is sent again as is and later ones aren't compressed.
+//
+// Transports must pass bodies through as they are on the wire.
+public class CompressingTransport implements PooledTransport {
+
+    public static final int DefaultThresholdBytes = 1024;
+
+    private final BuddyTransport transport;
+    private final int thresholdBytes;
+    private volatile boolean requestsRejected;
+
+    private final AtomicLong requestBytes = new AtomicLong();
+    private final AtomicLong requestWireBytes = new AtomicLong();
+    private final AtomicLong responseWireBytes = new AtomicLong();
+    private final AtomicLong responseBytes = new AtomicLong();
+    private final AtomicLong compressedRequests = new AtomicLong();
+    private final AtomicLong compressedResponses = new AtomicLong();
+
+    // thresholdBytes < 0 never compresses request bodies.
+    public CompressingTransport(BuddyTransport transport, int thresholdBytes) {
+        this.transport = transport;
+        this.thresholdBytes = thresholdBytes;
+    }
+
+    public CompressionStats getStats() {
+        return new CompressionStats(requestBytes.get(), requestWireBytes.get(), responseWireBytes.get(), responseBytes.get(),
+                compressedRequests.get(), compressedResponses.get());
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return transport instanceof PooledTransport ? ((PooledTransport) transport).getPoolStats() : null;
+    }
+
+    @Override
+    public Call execute(final Request request, final Callback callback) {
+        List<Header> headers = new ArrayList<Header>();
+        for (Header h : request.headers) {
+            headers.add(h);
+        }
+        if (request.getHeader("Accept-Encoding") == null) {
+            headers.add(new BasicHeader("Accept-Encoding", "gzip"));
+        }
+        final Request plain = new Request(request.method, request.url, headers.toArray(new Header[headers.size()]), request.body, request.synchronous, request.priority);
+
+        HttpEntity body = request.body;
+        long length = body == null ? -1 : body.getContentLength();
+        if (length >= 0) {
+            requestBytes.addAndGet(length);
+        }
+
+        Request compressed = shouldCompress(request) ? compress(plain) : null;
+        if (compressed == null) {
+            if (length >= 0) {
+                requestWireBytes.addAndGet(length);
+            }
+            return transport.execute(plain, new Decompressing(callback));
+        }
+
+        requestWireBytes.addAndGet(compressed.body.getContentLength());
+        compressedRequests.incrementAndGet();
+
+        Retrying retrying = new Retrying(plain, callback);
+        retrying.call.attempted(transport.execute(compressed, new Decompressing(retrying)), true);
+        return retrying.call;
+    }
+
+    // Sends the body again uncompressed if the service answers 415.
+    private class Retrying implements Callback, CallListener {
+        final RetriedCall call = new RetriedCall();
+        private final Request plain;
+        private final Callback callback;
+        private boolean announced;
+
+        Retrying(Request plain, Callback callback) {
+            this.plain = plain;
+            this.callback = callback;
+        }
+
+        @Override
+        public void onCall(Call inner) {
+            call.attempted(inner, false);
+            // a synchronous request's attempts all run on this thread.
+            if (!announced && callback instanceof CallListener) {
+                announced = true;
+                ((CallListener) callback).onCall(call);
+            }
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+            if (response.statusCode != 415) {
+                call.delivered = true;
+                callback.onResponse(response);
+                return;
+            }
+
+            // the service doesn't take compressed bodies.
+            requestsRejected = true;
+            if (response.body != null) {
+                drain(response.body);
+            }
+            if (!call.isCancelled()) {
+                requestWireBytes.addAndGet(plain.body.getContentLength());
+                call.attempted(transport.execute(plain, new Decompressing(this)), false);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            call.delivered = true;
+            callback.onFailure(error);
+        }
+    }
+
+    private boolean shouldCompress(Request request) {
+        HttpEntity body = request.body;
+        return body != null && thresholdBytes >= 0 && !requestsRejected
+                && body.isRepeatable() && body.getContentLength() >= thresholdBytes
+                && body.getContentEncoding() == null && request.getHeader("Content-Encoding") == null;
+    }
+
+    // null if the body can't be read.
+    private static Request compress(Request request) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+            request.body.writeTo(gzip);
+            gzip.close();
+        } catch (IOException e) {
+            return null;
+        }
+
+        ByteArrayEntity entity = new ByteArrayEntity(bytes.toByteArray());
+        entity.setContentType(request.body.getContentType());
+        entity.setContentEncoding("gzip");
+
+        Header[] headers = new Header[request.headers.length + 1];
+        System.arraycopy(request.headers, 0, headers, 0, request.headers.length);
+        headers[request.headers.length] = new BasicHeader("Content-Encoding", "gzip");
+        return new Request(request.method, request.url, headers, entity, request.synchronous, request.priority);
+    }
+
+    private static void drain(InputStream stream) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (stream.read(buffer) != -1) {
+            // discarded.
+        }
+    }
+
+    // The call that's current after a 415 has been retried.
+    private static class RetriedCall implements Call {
+        private Call current;
+        private volatile boolean cancelled;
+        volatile boolean delivered;
+
+        // The first attempt's Call, as returned from execute, can come back
+        // after the retry has already started.
+        void attempted(Call call, boolean first) {
+            synchronized (this) {
+                if (first && current != null) {
+                    return;
+                }
+                current = call;
+            }
+            if (cancelled) {
+                call.cancel(true);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            cancelled = true;
+            Call call;
+            synchronized (this) {
+                call = current;
+            }
+            if (call == null || call.cancel(mayInterruptIfRunning)) {
+                return true;
+            }
+            // cancelled between a 415 and its retry, which won't be sent, so
+            // nothing will be delivered either.
+            return !delivered;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public synchronized boolean isDone() {
+            return current != null && current.isDone();
+        }
+    }
+
+    // Inflates gzip responses and counts bytes on both sides.
+    private class Decompressing implements Callback, CallListener {
+        private final Callback callback;
+
+        Decompressing(Callback callback) {
+            this.callback = callback;
+        }
+
+        @Override
+        public void onCall(Call call) {
+            if (callback instanceof CallListener) {
+                ((CallListener) callback).onCall(call);
+            }
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+            if (response.body == null) {
+                callback.onResponse(response);
+                return;
+            }
+
+            InputStream wire = new CountingInputStream(response.body, responseWireBytes);
+            String encoding = response.getHeader("Content-Encoding");
+
+            if (encoding == null || !encoding.trim().toLowerCase(Locale.US).equals("gzip")) {
+                callback.onResponse(new Response(response.statusCode, response.reasonPhrase, response.headers,
+                        new CountingInputStream(wire, responseBytes)));
+                return;
+            }
+
+            compressedResponses.incrementAndGet();
+            List<Header> headers = new ArrayList<Header>();
+            for (Header h : response.headers) {
+                if (!h.getName().equalsIgnoreCase("Content-Encoding") && !h.getName().equalsIgnoreCase("Content-Length")) {
+                    headers.add(h);
+                }
+            }
+            InputStream inflated = new CountingInputStream(inflate(wire), responseBytes);
+            callback.onResponse(new Response(response.statusCode, response.reasonPhrase, headers.toArray(new Header[headers.size()]), inflated));
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            callback.onFailure(error);
+        }
+    }
+
+    // An empty body, e.g. a HEAD or 204 marked gzip, has no gzip header for
+    // GZIPInputStream to read, so it stays empty.
+    private static InputStream inflate(InputStream wire) throws IOException {
+        PushbackInputStream in = new PushbackInputStream(wire, 1);
+        int first = in.read();
+        if (first == -1) {
+            return in;
+        }
+        in.unread(first);
+        return new GZIPInputStream(in, 8192);
+    }
+
+    private static class CountingInputStream extends FilterInputStream {
+        private final AtomicLong count;
+
+        CountingInputStream(InputStream in, AtomicLong count) {
+            super(in);
+            this.count = count;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b != -1) {
+                count.incrementAndGet();
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buffer, int offset, int length) throws IOException {
+            int n = super.read(buffer, offset, length);
+            if (n > 0) {
+                count.addAndGet(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = super.skip(n);
+            if (skipped > 0) {
+                count.addAndGet(skipped);
+            }
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package com.buddy.sdk;
+
+// A snapshot of request and response body bytes, before and after gzip.
+// Bodies of unknown length aren't counted on the request side.
+public final class CompressionStats {
+
+    // request bodies as built by the SDK.
+    public final long requestBytes;
+    // request bodies as sent.
+    public final long requestWireBytes;
+    // response bodies as received.
+    public final long responseWireBytes;
+    // response bodies as read by the SDK, after decompression.
+    public final long responseBytes;
+    public final long compressedRequests;
+    public final long compressedResponses;
+
+    public CompressionStats(long requestBytes, long requestWireBytes, long responseWireBytes, long responseBytes, long compressedRequests, long compressedResponses) {
+        this.requestBytes = requestBytes;
+        this.requestWireBytes = requestWireBytes;
+        this.responseWireBytes = responseWireBytes;
+        this.responseBytes = responseBytes;
+        this.compressedRequests = compressedRequests;
+        this.compressedResponses = compressedResponses;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("requestBytes=%d requestWireBytes=%d responseWireBytes=%d responseBytes=%d compressedRequests=%d compressedResponses=%d",
+                requestBytes, requestWireBytes, responseWireBytes, responseBytes, compressedRequests, compressedResponses);
+    }
+}
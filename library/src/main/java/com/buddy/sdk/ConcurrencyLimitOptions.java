@@ -0,0 +1,39 @@
+package com.buddy.sdk;
+
+// How many requests LimitingTransport lets through at once, and what
+// happens to the rest.
+public class ConcurrencyLimitOptions {
+
+    public enum QueueFullPolicy {
+        // the new request fails.
+        RejectNew,
+        // the request that has waited longest fails and the new one queues.
+        DropOldest
+    }
+
+    // The limit the client starts with, and the range it adapts within.
+    public int initialLimit = 8;
+    public int minLimit = 1;
+    public int maxLimit = 64;
+
+    // Most requests waiting for their turn in each RequestPriority lane;
+    // 0 fails any request over the limit.
+    public int maxQueued = 256;
+
+    // Slots only Interactive requests may use, so one can always start
+    // unless Interactive requests fill the limit themselves.  The limit
+    // never goes below interactiveReserve + 1, whatever minLimit says.
+    public int interactiveReserve = 1;
+
+    // The part of the limit Background requests may use.
+    public double backgroundShare = 0.5;
+
+    public QueueFullPolicy queueFullPolicy = QueueFullPolicy.RejectNew;
+
+    // The limit is multiplied by this when the service shows strain.
+    public double backoffRatio = 0.9;
+
+    // A response this many times slower than the fastest recent one to
+    // the same route counts as strain.
+    public double rttTolerance = 2.0;
+}
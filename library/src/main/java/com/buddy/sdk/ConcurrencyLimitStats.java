@@ -0,0 +1,37 @@
+package com.buddy.sdk;
+
+import java.util.Map;
+
+// A snapshot of LimitingTransport.
+public final class ConcurrencyLimitStats {
+
+    // requests allowed in flight at once, as adapted so far.
+    public final int limit;
+    public final int inFlight;
+    // requests waiting for their turn, in all lanes.
+    public final int queued;
+    // requests failed because the queue was full: new ones under
+    // QueueFullPolicy.RejectNew, waiting ones under DropOldest.
+    public final long rejected;
+    public final long dropped;
+    // the fastest recent time to a response on any route, or -1 before
+    // the first.
+    public final long minRttMillis;
+    public final Map<RequestPriority, LaneStats> lanes;
+
+    public ConcurrencyLimitStats(int limit, int inFlight, int queued, long rejected, long dropped, long minRttMillis, Map<RequestPriority, LaneStats> lanes) {
+        this.limit = limit;
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.rejected = rejected;
+        this.dropped = dropped;
+        this.minRttMillis = minRttMillis;
+        this.lanes = lanes;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("limit=%d inFlight=%d queued=%d rejected=%d dropped=%d minRttMillis=%d",
+                limit, inFlight, queued, rejected, dropped, minRttMillis);
+    }
+}
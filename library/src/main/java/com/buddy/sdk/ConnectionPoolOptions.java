@@ -0,0 +1,19 @@
+package com.buddy.sdk;
+
+// How a transport keeps connections to the service root open between
+// requests.
+public class ConnectionPoolOptions {
+
+    // Most connections open to any one host.
+    public int maxPerRoute = 8;
+
+    // Most connections open across all hosts.
+    public int maxTotal = 16;
+
+    // Connections unused for this long are closed.
+    public long idleTimeoutMillis = 30000;
+
+    // How long a connection stays reusable after a response, when the
+    // server doesn't ask for less.  0 closes every connection after use.
+    public long keepAliveMillis = 60000;
+}
@@ -0,0 +1,28 @@
+package com.buddy.sdk;
+
+// A snapshot of a transport's connection pool.
+public final class ConnectionPoolStats {
+
+    // connections carrying a request.
+    public final int leased;
+    // open connections waiting to be reused.
+    public final int idle;
+    // requests waiting for a connection.
+    public final int pending;
+    // connections opened and closed since the transport was created.
+    public final long created;
+    public final long closed;
+
+    public ConnectionPoolStats(int leased, int idle, int pending, long created, long closed) {
+        this.leased = leased;
+        this.idle = idle;
+        this.pending = pending;
+        this.created = created;
+        this.closed = closed;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("leased=%d idle=%d pending=%d created=%d closed=%d", leased, idle, pending, created, closed);
+    }
+}
@@ -6,13 +6,16 @@ import com.google.gson.JsonSerializationContext;
 import com.google.gson.JsonSerializer;
 
 import java.lang.reflect.Type;
-import java.util.Locale;
 
 public class DateRangeSerializer implements JsonSerializer<DateRange>{
 
 
     public static String serializeCore(DateRange dateRange) {
-        return String.format(Locale.US,"%d-%d", dateRange.getStart().getTime(), dateRange.getEnd().getTime());
+        return new StringBuilder(27)
+                .append(dateRange.getStart().getTime())
+                .append('-')
+                .append(dateRange.getEnd().getTime())
+                .toString();
     }
     @Override public JsonElement serialize(final DateRange dateRange, final Type typeOfSrc, final JsonSerializationContext context) {
        
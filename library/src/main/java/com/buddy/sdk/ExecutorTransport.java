@@ -0,0 +1,114 @@
+package com.buddy.sdk;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+// Runs asynchronous requests as blocking calls on a caller-supplied
+// executor, so the executor's threads do the I/O and deliver the
+// callbacks.  With a virtual-thread-per-task executor each request gets a
+// cheap thread of its own instead of a slot in a fixed pool.
+//
+// Synchronous requests still run on the calling thread.
+public class ExecutorTransport implements PooledTransport {
+
+    private final BuddyTransport transport;
+    private final Executor executor;
+
+    public ExecutorTransport(BuddyTransport transport, Executor executor) {
+        this.transport = transport;
+        this.executor = executor;
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return transport instanceof PooledTransport ? ((PooledTransport) transport).getPoolStats() : null;
+    }
+
+    @Override
+    public Call execute(final Request request, final Callback callback) {
+        if (request.synchronous) {
+            return transport.execute(request, callback);
+        }
+
+        final Request blocking = new Request(request.method, request.url, request.headers, request.body, true, request.priority);
+        final Running running = new Running(callback);
+
+        final FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    transport.execute(blocking, running);
+                } catch (RuntimeException e) {
+                    running.onFailure(e);
+                }
+            }
+        }, null);
+
+        executor.execute(task);
+
+        return new Call() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                boolean cancelled = task.cancel(mayInterruptIfRunning);
+                if (cancelled) {
+                    running.cancel();
+                }
+                return cancelled;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return task.isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                return task.isDone();
+            }
+        };
+    }
+
+    // The blocking request on the executor's thread.  Its Call arrives
+    // before any I/O, so a cancel closes the connection instead of only
+    // interrupting a thread stuck in a socket read.
+    private static class Running implements Callback, CallListener {
+        private final Callback callback;
+        private volatile Call call;
+        private volatile boolean cancelled;
+
+        Running(Callback callback) {
+            this.callback = callback;
+        }
+
+        void cancel() {
+            cancelled = true;
+            Call current = call;
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+
+        @Override
+        public void onCall(Call call) {
+            this.call = call;
+            if (cancelled) {
+                call.cancel(true);
+            }
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+            if (!cancelled) {
+                callback.onResponse(response);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            if (!cancelled) {
+                callback.onFailure(error);
+            }
+        }
+    }
+}
@@ -2,7 +2,10 @@ package com.buddy.sdk;
 
 import android.location.Location;
 
+import com.buddy.sdk.models.CompactJson;
 import com.buddy.sdk.models.ModelBase;
+import com.buddy.sdk.models.ModelTypeAdapterFactory;
+import com.buddy.sdk.models.PagedResult;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.JsonDeserializationContext;
@@ -11,9 +14,13 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonParseException;
 import com.google.gson.JsonPrimitive;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
+import java.io.IOException;
 import java.lang.reflect.Type;
 import java.util.Date;
+import java.util.Set;
 
 public class JsonEnvelopeDeserializer<T> implements JsonDeserializer<JsonEnvelope<Object>>
 {
@@ -21,15 +28,33 @@ public class JsonEnvelopeDeserializer<T> implements JsonDeserializer<JsonEnvelop
 
     private Gson gson;
 
+    private boolean lazyPageResults;
+
+    private JsonRetentionPolicy jsonRetention = JsonRetentionPolicy.Full;
+
+    private Set<String> resultFields;
+
     public JsonEnvelopeDeserializer(Class<T> clazz) {
         this.clazz = clazz;
-        gson = JsonEnvelopeDeserializer.makeGsonDeserializer();
+        gson = BuddyCodec.getResponseDeserializer();
+    }
+
+    JsonEnvelopeDeserializer(Class<T> clazz, BuddyClientOptions options, Set<String> resultFields) {
+        this(clazz);
+        this.resultFields = resultFields;
+        if (options != null) {
+            lazyPageResults = options.lazyPageResults;
+            if (options.jsonRetention != null) {
+                jsonRetention = options.jsonRetention;
+            }
+        }
     }
 
     public static Gson makeGsonDeserializer(){
         return new GsonBuilder()
                 .registerTypeAdapter(Location.class, new BuddyLocationDeserializer())
                 .registerTypeAdapter(Date.class, new BuddyDateDeserializer())
+                .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
                 .create();
     }
 
@@ -37,9 +62,86 @@ public class JsonEnvelopeDeserializer<T> implements JsonDeserializer<JsonEnvelop
     public JsonEnvelope<Object> deserialize(JsonElement json, Type typeOfT, JsonDeserializationContext ctx) throws JsonParseException
     {
         JsonObject jsonObj = json.getAsJsonObject();
-        Object result = null;
 
-        JsonElement element = jsonObj.get("result");
+        JsonEnvelope<Object> env = new JsonEnvelope<Object>(jsonObj, convertResult(jsonObj.get("result")));
+
+        return env;
+    }
+
+    // Reads the envelope straight off the wire.  Only the "result" subtree is
+    // materialized, everything else is pulled out of the stream as it goes by.
+    public JsonEnvelope<Object> deserialize(JsonReader reader) throws IOException, JsonParseException
+    {
+        JsonEnvelope<Object> env = new JsonEnvelope<Object>();
+
+        reader.beginObject();
+
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+
+            if (reader.peek() == JsonToken.NULL) {
+                reader.nextNull();
+            } else if (name.equals("result")) {
+                env.result = readResult(reader);
+            } else if (name.equals("error")) {
+                env.error = reader.nextString();
+            } else if (name.equals("errorNumber")) {
+                env.errorCode = reader.nextInt();
+            } else if (name.equals("message")) {
+                env.message = reader.nextString();
+            } else if (name.equals("status")) {
+                env.status = reader.nextInt();
+            } else if (name.equals("request_id")) {
+                env.request_id = reader.nextString();
+            } else {
+                reader.skipValue();
+            }
+        }
+
+        reader.endObject();
+
+        return env;
+    }
+
+    private Object readResult(JsonReader reader) throws IOException, JsonParseException
+    {
+        if (clazz != null && reader.peek() == JsonToken.BEGIN_OBJECT) {
+
+            if (resultFields != null) {
+                // everything after this only sees the projected fields.
+                byte[] projected = CompactJson.project(reader, resultFields, PagedResult.class.isAssignableFrom(clazz));
+                reader = new JsonReader(CompactJson.reader(projected, 0, projected.length));
+            }
+
+            if (PagedResult.class.isAssignableFrom(clazz)) {
+                PagedResult page = lazyPageResults && clazz == PagedResult.class
+                        ? PagedResult.readLazily(reader)
+                        : (PagedResult) gson.getAdapter(clazz).read(reader);
+                page.setJsonRetention(jsonRetention);
+                return page;
+            }
+
+            if (ModelBase.class.isAssignableFrom(clazz)) {
+                if (jsonRetention == JsonRetentionPolicy.None) {
+                    return gson.getAdapter(clazz).read(reader);
+                } else if (jsonRetention == JsonRetentionPolicy.Lazy) {
+                    byte[] source = CompactJson.copy(reader);
+                    ModelBase model = (ModelBase) gson.getAdapter(clazz).fromJson(CompactJson.reader(source, 0, source.length));
+                    model.setJsonSource(source);
+                    return model;
+                }
+            } else if (!JsonObject.class.isAssignableFrom(clazz)) {
+                // nothing keeps the tree of anything but models around, so
+                // everything else is read straight into the typed result.
+                return gson.getAdapter(clazz).read(reader);
+            }
+        }
+        return convertResult(gson.getAdapter(JsonElement.class).read(reader));
+    }
+
+    private Object convertResult(JsonElement element) throws JsonParseException
+    {
+        Object result = null;
 
         if (element != null) {
             if (element.isJsonObject()) {
@@ -68,9 +170,6 @@ public class JsonEnvelopeDeserializer<T> implements JsonDeserializer<JsonEnvelop
             }
 
         }
-
-        JsonEnvelope<Object> env = new JsonEnvelope<Object>(jsonObj, result);
-
-        return env;
+        return result;
     }
 }
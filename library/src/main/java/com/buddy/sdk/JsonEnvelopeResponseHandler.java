@@ -0,0 +1,222 @@
+package com.buddy.sdk;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.google.gson.JsonParseException;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.MalformedJsonException;
+
+import org.apache.http.Header;
+import org.apache.http.client.HttpResponseException;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PushbackReader;
+import java.io.StringReader;
+import java.util.Set;
+
+// Transport callback that parses the Buddy envelope directly from the
+// response stream on the transport's thread, so the body is never buffered
+// into a byte[], String or org.json tree before Gson sees it.  The result
+// is then delivered on the Looper the request was made from, or inline
+// when there is none.
+abstract class JsonEnvelopeResponseHandler<T> implements BuddyTransport.Callback {
+
+    private static final char BOM = '\uFEFF';
+    private static final String DefaultCharset = "UTF-8";
+
+    private final JsonEnvelopeDeserializer<T> deserializer;
+    private final WireFormat wireFormat;
+    private final Handler handler;
+
+    public JsonEnvelopeResponseHandler(Class<T> clazz, BuddyClientOptions options, Set<String> resultFields, Looper looper) {
+        deserializer = new JsonEnvelopeDeserializer<T>(clazz, options, resultFields);
+        wireFormat = options == null ? null : options.wireFormat;
+        handler = looper == null ? null : new Handler(looper);
+    }
+
+    public abstract void onSuccess(int statusCode, Header[] headers, JsonEnvelope<T> envelope);
+
+    // errorEnvelope is null when no response body was received.
+    public abstract void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<T> errorEnvelope);
+
+    // Called on the transport's thread with the format the response body
+    // came back in, null for JSON.
+    protected void onResponseWireFormat(WireFormat format) {
+    }
+
+    // True once the caller has given up on the result: the body isn't
+    // parsed and nothing is delivered.
+    protected boolean isCancelled() {
+        return false;
+    }
+
+    // Runs the given completion where results are delivered, unless the
+    // call is cancelled by then.
+    void post(final Runnable runnable) {
+        if (handler == null) {
+            if (!isCancelled()) {
+                runnable.run();
+            }
+        } else {
+            handler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        runnable.run();
+                    }
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onResponse(BuddyTransport.Response response) throws IOException {
+        deliver(response.statusCode, response.reasonPhrase, response.headers, parse(response));
+    }
+
+    // Reads the envelope off the response body; null when there is none.
+    JsonEnvelope<T> parse(BuddyTransport.Response response) throws IOException {
+        if (response.body == null || isCancelled()) {
+            return null;
+        }
+
+        String contentType = response.getHeader("Content-Type");
+
+        if (isWireFormat(contentType)) {
+            onResponseWireFormat(wireFormat);
+            return parseWireFormat(response.body);
+        }
+        onResponseWireFormat(null);
+        return parse(response.body, getCharset(contentType));
+    }
+
+    // Completes the request with an envelope that has already been read,
+    // possibly from a cache.
+    void deliver(final int statusCode, String reasonPhrase, final Header[] headers, final JsonEnvelope<T> env) {
+        if (statusCode >= 300) {
+            final Throwable error = new HttpResponseException(statusCode, reasonPhrase);
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onFailure(statusCode, headers, error, env);
+                }
+            });
+        } else if (env != null && UnexpectedServiceError.equals(env.error)) {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onFailure(statusCode, headers, null, env);
+                }
+            });
+        } else {
+            post(new Runnable() {
+                @Override
+                public void run() {
+                    onSuccess(statusCode, headers, env == null ? new JsonEnvelope<T>() : env);
+                }
+            });
+        }
+    }
+
+    @Override
+    public void onFailure(final Throwable error) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                onFailure(0, null, error, null);
+            }
+        });
+    }
+
+    private static final String UnexpectedServiceError = "UnexpectedServiceError";
+
+    private JsonEnvelope<T> makeUnexpectedError(Exception e) {
+        JsonEnvelope<T> env = new JsonEnvelope<T>();
+        env.error = UnexpectedServiceError;
+        env.message = e.getMessage();
+        return env;
+    }
+
+    private static String getCharset(String contentType) {
+        if (contentType != null) {
+            for (String param : contentType.split(";")) {
+                param = param.trim();
+                if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+                    return param.substring(8).replace("\"", "").trim();
+                }
+            }
+        }
+        return DefaultCharset;
+    }
+
+    private boolean isWireFormat(String contentType) {
+        if (wireFormat == null || contentType == null) {
+            return false;
+        }
+        int semi = contentType.indexOf(';');
+        if (semi >= 0) {
+            contentType = contentType.substring(0, semi);
+        }
+        return contentType.trim().equalsIgnoreCase(wireFormat.getContentType());
+    }
+
+    private JsonEnvelope<T> parseWireFormat(InputStream stream) throws IOException {
+        try {
+            return read(wireFormatReader(stream));
+        } catch (MalformedJsonException e) {
+            return makeUnexpectedError(e);
+        } catch (EOFException e) {
+            return makeUnexpectedError(e);
+        } catch (JsonParseException e) {
+            return makeUnexpectedError(e);
+        }
+    }
+
+    // CBOR streams straight into the reader.  Any other format is decoded
+    // to a tree and written back out as JSON text, a second copy of the
+    // body, since Gson can only stream from text through its public API.
+    private JsonReader wireFormatReader(InputStream stream) throws IOException {
+        if (wireFormat instanceof CborWireFormat) {
+            return ((CborWireFormat) wireFormat).newJsonReader(stream);
+        }
+        return new JsonReader(new StringReader(wireFormat.read(stream).toString()));
+    }
+
+    private JsonEnvelope<T> parse(InputStream stream, String charset) throws IOException {
+        PushbackReader reader = new PushbackReader(new InputStreamReader(stream, charset));
+
+        int first = reader.read();
+        if (first == -1) {
+            // empty body
+            return null;
+        } else if (first != BOM) {
+            reader.unread(first);
+        }
+
+        try {
+            return read(new JsonReader(reader));
+        } catch (MalformedJsonException e) {
+            return makeUnexpectedError(e);
+        } catch (EOFException e) {
+            return makeUnexpectedError(e);
+        } catch (JsonParseException e) {
+            return makeUnexpectedError(e);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private JsonEnvelope<T> read(JsonReader reader) throws IOException {
+        try {
+            return (JsonEnvelope<T>) (JsonEnvelope) deserializer.deserialize(reader);
+        } catch (IllegalStateException e) {
+            // not an object at the top level
+            return makeUnexpectedError(e);
+        } catch (NumberFormatException e) {
+            return makeUnexpectedError(e);
+        }
+    }
+}
@@ -0,0 +1,12 @@
+package com.buddy.sdk;
+
+// How much of the source JSON a model keeps for ModelBase.getJsonObject().
+public enum JsonRetentionPolicy
+{
+    // getJsonObject() returns null.
+    None,
+    // compact UTF-8 bytes are kept and parsed on each getJsonObject() call.
+    Lazy,
+    // the parsed JsonObject is kept alongside the model.
+    Full
+}
@@ -0,0 +1,53 @@
+package com.buddy.sdk;
+
+// A snapshot of one RequestPriority lane of LimitingTransport, with how
+// long its requests waited for a slot.
+public final class LaneStats {
+
+    // Upper bounds of the wait histogram buckets; waitCounts has one more
+    // bucket for longer waits.
+    public static final long[] WaitBoundsMillis = {1, 5, 10, 25, 50, 100, 250, 500, 1000, 2500, 5000, 10000};
+
+    public final RequestPriority priority;
+    public final int inFlight;
+    public final int queued;
+    // requests that have started, including those that didn't wait.
+    public final long started;
+    public final long[] waitCounts;
+
+    public LaneStats(RequestPriority priority, int inFlight, int queued, long started, long[] waitCounts) {
+        this.priority = priority;
+        this.inFlight = inFlight;
+        this.queued = queued;
+        this.started = started;
+        this.waitCounts = waitCounts;
+    }
+
+    // The bucket bound that percentile (0-100) of waits fell within, -1
+    // before any request has started, or Long.MAX_VALUE past the last bound.
+    public long waitPercentileMillis(double percentile) {
+        long total = 0;
+        for (long count : waitCounts) {
+            total += count;
+        }
+        if (total == 0) {
+            return -1;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < WaitBoundsMillis.length; i++) {
+            seen += waitCounts[i];
+            if (seen >= rank) {
+                return WaitBoundsMillis[i];
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s inFlight=%d queued=%d started=%d p50WaitMillis=%d p99WaitMillis=%d",
+                priority, inFlight, queued, started, waitPercentileMillis(50), waitPercentileMillis(99));
+    }
+}
@@ -0,0 +1,405 @@
+package com.buddy.sdk;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Caps how many requests are in flight at once and queues the rest, so a
+// burst of calls waits its turn in the SDK instead of piling up in the
+// transport and slowing every request down.
+//
+// The limit adapts to the service (AIMD): while it's in use it grows by
+// one for each limit's worth of requests that finish, and it shrinks by
+// backoffRatio when a request fails, gets a 429 or 503, or takes
+// rttTolerance times longer than the fastest recent one to the same route
+// (method and URL without the query), as endpoints differ too much in how
+// long they take for one baseline to fit them all.  It must also take
+// MinStrainMillis longer, so jitter on a fast route isn't strain.  A
+// request that finds the queue full fails with RequestQueueFullException,
+// or makes the oldest waiting request fail instead, per queueFullPolicy.
+//
+// Each RequestPriority has a lane of its own.  Waiting requests start in
+// lane order, Normal and Background requests leave interactiveReserve
+// slots free, and Background requests only use backgroundShare of the
+// limit, so an Interactive request never waits behind the others.
+//
+// Synchronous requests wait for their turn on the calling thread.  Wrap
+// it around CompressingTransport, so a request sent again after a 415
+// keeps the slot it started in.
+public class LimitingTransport implements PooledTransport {
+
+    // samples in each window of the fastest-recent-response estimate.
+    private static final int RttWindow = 100;
+    // how much slower than the fastest a response must be to count as strain.
+    private static final long MinStrainMillis = 10;
+    // routes whose response times are kept, least recently used first out.
+    private static final int MaxRoutes = 256;
+
+    private static final int Queued = 0;
+    private static final int Running = 1;
+    private static final int Failed = 2;
+    private static final int Cancelled = 3;
+
+    private final BuddyTransport transport;
+    private final ConcurrencyLimitOptions options;
+    private final int minLimit;
+    private final int maxLimit;
+
+    private static class Lane {
+        final LinkedList<Pending> queue = new LinkedList<Pending>();
+        int inFlight;
+        long started;
+        final long[] waitCounts = new long[LaneStats.WaitBoundsMillis.length + 1];
+    }
+
+    // all guarded by this.
+    private final Lane[] lanes = new Lane[RequestPriority.values().length];
+    private double limit;
+    private int inFlight;
+    private long rejected;
+    private long dropped;
+    // bumped by each decrease, so one burst of strain only counts once.
+    private int epoch;
+    private final Map<String, Rtt> routes = new LinkedHashMap<String, Rtt>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Rtt> eldest) {
+            return size() > MaxRoutes;
+        }
+    };
+
+    // The fastest recent response time of one route.  The fastest seen is
+    // forgotten a window at a time, so it follows the service if it gets
+    // lastingly slower.
+    private static class Rtt {
+        long fastest = Long.MAX_VALUE;
+        long window = Long.MAX_VALUE;
+        int samples;
+
+        long get() {
+            return Math.min(fastest, window);
+        }
+
+        void sample(long rtt) {
+            window = Math.min(window, rtt);
+            if (++samples >= RttWindow) {
+                fastest = window;
+                window = Long.MAX_VALUE;
+                samples = 0;
+            }
+        }
+    }
+
+    public LimitingTransport(BuddyTransport transport, ConcurrencyLimitOptions options) {
+        this.transport = transport;
+        this.options = options;
+        // room for the reserve and at least one other request.
+        this.minLimit = Math.max(options.minLimit, options.interactiveReserve + 1);
+        this.maxLimit = Math.max(options.maxLimit, minLimit);
+        this.limit = Math.max(minLimit, Math.min(maxLimit, options.initialLimit));
+        for (int i = 0; i < lanes.length; i++) {
+            lanes[i] = new Lane();
+        }
+    }
+
+    public synchronized ConcurrencyLimitStats getStats() {
+        Map<RequestPriority, LaneStats> laneStats = new EnumMap<RequestPriority, LaneStats>(RequestPriority.class);
+        for (RequestPriority priority : RequestPriority.values()) {
+            Lane lane = lanes[priority.ordinal()];
+            laneStats.put(priority, new LaneStats(priority, lane.inFlight, lane.queue.size(), lane.started, lane.waitCounts.clone()));
+        }
+
+        long fastest = Long.MAX_VALUE;
+        for (Rtt rtt : routes.values()) {
+            fastest = Math.min(fastest, rtt.get());
+        }
+        return new ConcurrencyLimitStats((int) limit, inFlight, queued(), rejected, dropped,
+                fastest == Long.MAX_VALUE ? -1 : TimeUnit.NANOSECONDS.toMillis(fastest), Collections.unmodifiableMap(laneStats));
+    }
+
+    // Called with the lock held.
+    private int queued() {
+        int queued = 0;
+        for (Lane lane : lanes) {
+            queued += lane.queue.size();
+        }
+        return queued;
+    }
+
+    // How many requests may be in flight for a request of this priority to
+    // start.  Never more for a lower priority than for a higher one.
+    private int capacity(RequestPriority priority) {
+        int all = (int) limit;
+        int shared = all - options.interactiveReserve;
+        switch (priority) {
+            case Interactive:
+                return all;
+            case Background:
+                return Math.max(1, Math.min(shared, (int) (limit * options.backgroundShare)));
+            default:
+                return shared;
+        }
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return transport instanceof PooledTransport ? ((PooledTransport) transport).getPoolStats() : null;
+    }
+
+    @Override
+    public Call execute(Request request, Callback callback) {
+        Pending pending = new Pending(request, callback);
+        Pending failed = null;
+        boolean admitted = false;
+
+        synchronized (this) {
+            LinkedList<Pending> queue = pending.lane.queue;
+            if (queue.isEmpty() && inFlight < capacity(request.priority)) {
+                admit(pending);
+                admitted = true;
+            } else if (queue.size() < options.maxQueued) {
+                queue.add(pending);
+            } else if (options.queueFullPolicy == ConcurrencyLimitOptions.QueueFullPolicy.DropOldest && !queue.isEmpty()) {
+                failed = queue.removeFirst();
+                failed.state = Failed;
+                dropped++;
+                queue.add(pending);
+                notifyAll();
+            } else {
+                failed = pending;
+                failed.state = Failed;
+                rejected++;
+            }
+        }
+
+        if (failed != null && !failed.request.synchronous) {
+            failed.callback.onFailure(queueFull());
+        }
+        if (request.synchronous && callback instanceof CallListener) {
+            ((CallListener) callback).onCall(pending);
+        }
+        if (admitted) {
+            pending.start();
+        } else if (request.synchronous) {
+            // includes a new request that was turned away.
+            pending.await();
+        }
+        return pending;
+    }
+
+    private IOException queueFull() {
+        return new RequestQueueFullException(String.format("More than %d requests of this priority are waiting to be sent.", options.maxQueued));
+    }
+
+    // Called with the lock held.
+    private void admit(Pending pending) {
+        inFlight++;
+        pending.lane.inFlight++;
+        pending.lane.started++;
+        pending.state = Running;
+        pending.epoch = epoch;
+        pending.saturated = inFlight >= (int) limit || queued() > 0;
+
+        long waited = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - pending.queuedNanos);
+        int bucket = 0;
+        while (bucket < LaneStats.WaitBoundsMillis.length && waited > LaneStats.WaitBoundsMillis[bucket]) {
+            bucket++;
+        }
+        pending.lane.waitCounts[bucket]++;
+    }
+
+    // Frees the request's slot and starts whatever it makes room for.
+    // strained is null for a request that was cancelled, which says
+    // nothing about the service.
+    private void release(Pending pending, Boolean strained, long rtt) {
+        List<Pending> started = new ArrayList<Pending>();
+
+        synchronized (this) {
+            inFlight--;
+            pending.lane.inFlight--;
+
+            if (strained != null) {
+                if (!strained && rtt >= 0) {
+                    Rtt route = routes.get(pending.route);
+                    if (route == null) {
+                        route = new Rtt();
+                        routes.put(pending.route, route);
+                    }
+                    long fastest = route.get();
+                    strained = fastest != Long.MAX_VALUE && rtt > fastest * options.rttTolerance
+                            && rtt - fastest > TimeUnit.MILLISECONDS.toNanos(MinStrainMillis);
+                    route.sample(rtt);
+                }
+                if (strained) {
+                    if (pending.epoch == epoch) {
+                        limit = Math.max(minLimit, limit * options.backoffRatio);
+                        epoch++;
+                    }
+                } else if (pending.saturated) {
+                    limit = Math.min(maxLimit, limit + 1 / limit);
+                }
+            }
+
+            // a lane only gets a turn once the lanes above it are empty.
+            for (RequestPriority priority : RequestPriority.values()) {
+                LinkedList<Pending> queue = lanes[priority.ordinal()].queue;
+                while (!queue.isEmpty() && inFlight < capacity(priority)) {
+                    Pending next = queue.removeFirst();
+                    admit(next);
+                    if (!next.request.synchronous) {
+                        started.add(next);
+                    }
+                }
+                if (!queue.isEmpty()) {
+                    break;
+                }
+            }
+            notifyAll();
+        }
+
+        for (Pending next : started) {
+            next.start();
+        }
+    }
+
+    private class Pending implements Call, Callback, CallListener {
+        final Request request;
+        final Callback callback;
+        final Lane lane;
+        final String route;
+        final long queuedNanos = System.nanoTime();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        // guarded by LimitingTransport.this.
+        volatile int state = Queued;
+        int epoch;
+        boolean saturated;
+
+        private long startNanos;
+        private volatile Call call;
+        private volatile boolean cancelled;
+
+        Pending(Request request, Callback callback) {
+            this.request = request;
+            this.callback = callback;
+            this.lane = lanes[request.priority.ordinal()];
+            int query = request.url.indexOf('?');
+            this.route = request.method + " " + (query < 0 ? request.url : request.url.substring(0, query));
+        }
+
+        void start() {
+            startNanos = System.nanoTime();
+            try {
+                call = transport.execute(request, this);
+            } catch (RuntimeException e) {
+                finish(Boolean.TRUE, -1);
+                callback.onFailure(e);
+                return;
+            }
+            if (cancelled && call.cancel(true)) {
+                finish(null, -1);
+            }
+        }
+
+        // Waits for a synchronous request's turn, then runs it here.
+        void await() {
+            boolean interrupted = false;
+            synchronized (LimitingTransport.this) {
+                while (state == Queued && !interrupted) {
+                    try {
+                        LimitingTransport.this.wait();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (state == Queued) {
+                    lane.queue.remove(this);
+                    state = Cancelled;
+                }
+            }
+
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+            if (state == Running) {
+                start();
+            } else if (state == Failed) {
+                callback.onFailure(queueFull());
+            } else if (interrupted) {
+                callback.onFailure(new InterruptedIOException());
+            }
+        }
+
+        private void finish(Boolean strained, long rtt) {
+            if (released.compareAndSet(false, true)) {
+                release(this, strained, rtt);
+            }
+        }
+
+        @Override
+        public void onCall(Call call) {
+            this.call = call;
+            if (cancelled) {
+                call.cancel(true);
+            }
+        }
+
+        @Override
+        public void onResponse(Response response) throws IOException {
+            long rtt = System.nanoTime() - startNanos;
+            try {
+                callback.onResponse(response);
+            } finally {
+                finish(response.statusCode == 429 || response.statusCode == 503, rtt);
+            }
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            // a cancelled request fails as its connection is closed.
+            finish(cancelled ? null : Boolean.TRUE, -1);
+            callback.onFailure(error);
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            synchronized (LimitingTransport.this) {
+                if (state == Queued) {
+                    lane.queue.remove(this);
+                    state = Cancelled;
+                    cancelled = true;
+                    LimitingTransport.this.notifyAll();
+                    return true;
+                }
+                if (state != Running || released.get()) {
+                    return false;
+                }
+            }
+
+            cancelled = true;
+            Call current = call;
+            if (current != null && current.cancel(mayInterruptIfRunning)) {
+                finish(null, -1);
+                return true;
+            }
+            return current == null;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return cancelled || state == Failed || released.get();
+        }
+    }
+}
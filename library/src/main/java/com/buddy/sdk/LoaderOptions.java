@@ -0,0 +1,21 @@
+package com.buddy.sdk;
+
+// How a BuddyLoader collects and resolves its lookups.
+public class LoaderOptions {
+
+    // How long to collect lookups before resolving them.  0 resolves them
+    // on the next pass of the caller's Looper; without a Looper, set a
+    // window so lookups issued in a burst reliably land together.
+    public long windowMillis;
+
+    // Most requests in flight at once.
+    public int maxParallel = 4;
+
+    // When set, ids are resolved with one GET of the collection per
+    // maxIdsPerQuery ids, passing them comma separated in this parameter,
+    // e.g. "ids".  Null resolves each id with a GET of collection/id.
+    public String idsParameter;
+
+    // Most ids in one list query.
+    public int maxIdsPerQuery = 50;
+}
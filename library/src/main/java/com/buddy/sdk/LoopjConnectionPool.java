@@ -0,0 +1,145 @@
+package com.buddy.sdk;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ClientConnectionOperator;
+import org.apache.http.conn.ClientConnectionRequest;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.ConnectionPoolTimeoutException;
+import org.apache.http.conn.ManagedClientConnection;
+import org.apache.http.conn.OperatedClientConnection;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.routing.HttpRoute;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.NoConnectionReuseStrategy;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.HttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// HttpClient's connection manager with the limits from
+// ConnectionPoolOptions and the counts behind ConnectionPoolStats.
+class LoopjConnectionPool extends ThreadSafeClientConnManager {
+
+    private static final long EvictionIntervalMillis = 1000;
+
+    private final ConnectionPoolOptions options;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong lastEviction = new AtomicLong();
+    private final Set<ManagedClientConnection> leased =
+            Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<ManagedClientConnection, Boolean>()));
+
+    LoopjConnectionPool(HttpParams params, SchemeRegistry schemeRegistry, ConnectionPoolOptions options) {
+        super(applyLimits(params, options), schemeRegistry);
+        this.options = options;
+    }
+
+    // the pool reads its limits once, when it's constructed.
+    private static HttpParams applyLimits(HttpParams params, ConnectionPoolOptions options) {
+        ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(options.maxPerRoute));
+        ConnManagerParams.setMaxTotalConnections(params, options.maxTotal);
+        return params;
+    }
+
+    // Sets how long the client may keep a connection after a response.
+    void configure(DefaultHttpClient client) {
+        if (options.keepAliveMillis <= 0) {
+            client.setReuseStrategy(new NoConnectionReuseStrategy());
+            return;
+        }
+
+        final ConnectionKeepAliveStrategy server = new DefaultConnectionKeepAliveStrategy();
+        client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy() {
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = server.getKeepAliveDuration(response, context);
+                return duration > 0 && duration < options.keepAliveMillis ? duration : options.keepAliveMillis;
+            }
+        });
+    }
+
+    // Closes idle and expired connections, at most once a second.
+    void evictIdle() {
+        long now = System.currentTimeMillis();
+        long last = lastEviction.get();
+        if (now - last < EvictionIntervalMillis || !lastEviction.compareAndSet(last, now)) {
+            return;
+        }
+        closeExpiredConnections();
+        closeIdleConnections(options.idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    ConnectionPoolStats getStats() {
+        int open = getConnectionsInPool();
+        int inUse = leased.size();
+        long opened = created.get();
+        return new ConnectionPoolStats(inUse, Math.max(0, open - inUse), pending.get(), opened, Math.max(0, opened - open));
+    }
+
+    @Override
+    protected ClientConnectionOperator createConnectionOperator(SchemeRegistry schreg) {
+        final ClientConnectionOperator operator = super.createConnectionOperator(schreg);
+
+        // called from the superclass constructor; the counters are only
+        // touched once connections are made.
+        return new ClientConnectionOperator() {
+            @Override
+            public OperatedClientConnection createConnection() {
+                created.incrementAndGet();
+                return operator.createConnection();
+            }
+
+            @Override
+            public void openConnection(OperatedClientConnection conn, HttpHost target, InetAddress local, HttpContext context, HttpParams params) throws IOException {
+                operator.openConnection(conn, target, local, context, params);
+            }
+
+            @Override
+            public void updateSecureConnection(OperatedClientConnection conn, HttpHost target, HttpContext context, HttpParams params) throws IOException {
+                operator.updateSecureConnection(conn, target, context, params);
+            }
+        };
+    }
+
+    @Override
+    public ClientConnectionRequest requestConnection(HttpRoute route, Object state) {
+        final ClientConnectionRequest request = super.requestConnection(route, state);
+
+        return new ClientConnectionRequest() {
+            @Override
+            public ManagedClientConnection getConnection(long timeout, TimeUnit unit) throws InterruptedException, ConnectionPoolTimeoutException {
+                pending.incrementAndGet();
+                try {
+                    ManagedClientConnection connection = request.getConnection(timeout, unit);
+                    leased.add(connection);
+                    return connection;
+                } finally {
+                    pending.decrementAndGet();
+                }
+            }
+
+            @Override
+            public void abortRequest() {
+                request.abortRequest();
+            }
+        };
+    }
+
+    @Override
+    public void releaseConnection(ManagedClientConnection conn, long validDuration, TimeUnit timeUnit) {
+        leased.remove(conn);
+        super.releaseConnection(conn, validDuration, timeUnit);
+    }
+}
@@ -0,0 +1,322 @@
+package com.buddy.sdk;
+
+import com.loopj.android.http.AsyncHttpClient;
+import com.loopj.android.http.AsyncHttpRequest;
+import com.loopj.android.http.RequestHandle;
+import com.loopj.android.http.ResponseHandlerInterface;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.StatusLine;
+import org.apache.http.client.methods.HttpEntityEnclosingRequestBase;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.RequestWrapper;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// The default transport, on android-async-http.  Every verb goes through
+// the same request type, so there is no per-verb dispatch, and the mode
+// is chosen per request rather than per client.  Bodies are passed through
+// as they are on the wire.
+public class LoopjTransport implements PooledTransport {
+
+    private static class HttpMethodBase extends HttpEntityEnclosingRequestBase {
+
+        private final String methodName;
+
+        public HttpMethodBase(final URI uri, final String methodName) {
+            super();
+            setURI(uri);
+            this.methodName = methodName;
+        }
+
+        @Override
+        public String getMethod() {
+            return methodName;
+        }
+    }
+
+    // The pool options for the engine being constructed; the connection
+    // manager is created from inside the AsyncHttpClient constructor.
+    private static final ThreadLocal<ConnectionPoolOptions> constructing = new ThreadLocal<ConnectionPoolOptions>();
+
+    // One client for both modes: asynchronous requests go to its thread
+    // pool, synchronous ones run on the calling thread, and both share its
+    // connection pool and context.
+    private static final String AcceptEncoding = "Accept-Encoding";
+
+    private static class Engine extends AsyncHttpClient {
+        Engine() {
+            // gzip is negotiated above the transport (see CompressingTransport),
+            // so loopj's inflating response interceptor, the only one it
+            // adds, goes.  Its request interceptor also sends the headers
+            // set with addHeader(), so it stays, and the Accept-Encoding it
+            // adds to requests that had none is taken off again.
+            DefaultHttpClient client = (DefaultHttpClient) getHttpClient();
+            for (int i = client.getResponseInterceptorCount() - 1; i >= 0; i--) {
+                HttpResponseInterceptor interceptor = client.getResponseInterceptor(i);
+                if (interceptor.getClass().getEnclosingClass() == AsyncHttpClient.class) {
+                    client.removeResponseInterceptorByClass(interceptor.getClass());
+                }
+            }
+            client.addRequestInterceptor(new HttpRequestInterceptor() {
+                @Override
+                public void process(HttpRequest request, HttpContext context) {
+                    if (request instanceof RequestWrapper && !((RequestWrapper) request).getOriginal().containsHeader(AcceptEncoding)) {
+                        request.removeHeaders(AcceptEncoding);
+                    }
+                }
+            });
+        }
+
+        @Override
+        protected ClientConnectionManager createConnectionManager(SchemeRegistry schemeRegistry, BasicHttpParams params) {
+            return new LoopjConnectionPool(params, schemeRegistry, constructing.get());
+        }
+
+        RequestHandle send(HttpUriRequest request, ResponseHandlerInterface handler) {
+            return sendRequest((DefaultHttpClient) getHttpClient(), getHttpContext(), request, null, handler, null);
+        }
+
+        // A request to run on the calling thread.
+        AsyncHttpRequest prepare(HttpUriRequest request, ResponseHandlerInterface handler) {
+            return newAsyncHttpRequest((DefaultHttpClient) getHttpClient(), getHttpContext(), request, null, handler, null);
+        }
+    }
+
+    private final ConnectionPoolOptions poolOptions;
+    private Engine engine;
+    private LoopjConnectionPool pool;
+
+    public LoopjTransport() {
+        this(null);
+    }
+
+    // poolOptions may be null for the defaults.
+    public LoopjTransport(ConnectionPoolOptions poolOptions) {
+        this.poolOptions = poolOptions != null ? poolOptions : new ConnectionPoolOptions();
+    }
+
+    @Override
+    public synchronized ConnectionPoolStats getPoolStats() {
+        return pool == null ? new ConnectionPoolStats(0, 0, 0, 0, 0) : pool.getStats();
+    }
+
+    // The AsyncHttpClient requests go through, for client-wide headers and
+    // credentials.
+    AsyncHttpClient getClient() {
+        return getEngine();
+    }
+
+    private synchronized Engine getEngine() {
+        if (engine == null) {
+            constructing.set(poolOptions);
+            try {
+                engine = new Engine();
+            } finally {
+                constructing.remove();
+            }
+            pool = (LoopjConnectionPool) engine.getHttpClient().getConnectionManager();
+            pool.configure((DefaultHttpClient) engine.getHttpClient());
+        }
+        return engine;
+    }
+
+    @Override
+    public Call execute(Request request, Callback callback) {
+        URI uri = URI.create(request.url).normalize();
+
+        HttpUriRequest httpRequest;
+
+        if (request.body == null && request.method.equalsIgnoreCase(BuddyServiceClient.GET)) {
+            httpRequest = new HttpGet(uri);
+        } else {
+            HttpMethodBase withBody = new HttpMethodBase(uri, request.method);
+            if (request.body != null) {
+                withBody.setEntity(request.body);
+            }
+            httpRequest = withBody;
+        }
+        httpRequest.setHeaders(request.headers);
+
+        Engine current = getEngine();
+        pool.evictIdle();
+
+        CallbackHandler handler = new CallbackHandler(callback, request.synchronous);
+        if (!request.synchronous) {
+            return call(current.send(httpRequest, handler));
+        }
+
+        AsyncHttpRequest task = current.prepare(httpRequest, handler);
+        Call call = call(new RequestHandle(task));
+        if (callback instanceof CallListener) {
+            ((CallListener) callback).onCall(call);
+        }
+        task.run();
+        return call;
+    }
+
+    private static Call call(final RequestHandle handle) {
+        return new Call() {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return handle.cancel(mayInterruptIfRunning);
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return handle.isCancelled();
+            }
+
+            @Override
+            public boolean isDone() {
+                return handle.isFinished();
+            }
+        };
+    }
+
+    // Hands the response stream straight to the callback on the thread
+    // running the request; nothing is buffered or posted to a Looper, and
+    // loopj's per-event Messages are skipped entirely.
+    private static class CallbackHandler implements ResponseHandlerInterface {
+
+        private final Callback callback;
+        private final boolean synchronous;
+        private final AtomicBoolean reported = new AtomicBoolean();
+        private URI requestURI;
+        private Header[] requestHeaders;
+        private Object tag;
+
+        CallbackHandler(Callback callback, boolean synchronous) {
+            this.callback = callback;
+            this.synchronous = synchronous;
+        }
+
+        @Override
+        public void sendResponseMessage(HttpResponse response) throws IOException {
+            if (Thread.currentThread().isInterrupted() || !reported.compareAndSet(false, true)) {
+                return;
+            }
+
+            StatusLine status = response.getStatusLine();
+            HttpEntity entity = response.getEntity();
+            InputStream stream = entity == null ? null : entity.getContent();
+
+            try {
+                callback.onResponse(new Response(status.getStatusCode(), status.getReasonPhrase(), response.getAllHeaders(), stream));
+            } catch (IOException e) {
+                callback.onFailure(e);
+            } finally {
+                if (stream != null) {
+                    try {
+                        stream.close();
+                    } catch (IOException e) {
+                        // nothing to do.
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void sendFailureMessage(int statusCode, Header[] headers, byte[] responseBody, Throwable error) {
+            if (reported.compareAndSet(false, true)) {
+                callback.onFailure(error);
+            }
+        }
+
+        @Override
+        public void sendSuccessMessage(int statusCode, Header[] headers, byte[] responseBody) {
+            // every response goes through sendResponseMessage.
+        }
+
+        @Override
+        public void sendStartMessage() {
+        }
+
+        @Override
+        public void sendFinishMessage() {
+        }
+
+        @Override
+        public void sendProgressMessage(long bytesWritten, long bytesTotal) {
+        }
+
+        @Override
+        public void sendCancelMessage() {
+        }
+
+        @Override
+        public void sendRetryMessage(int retryNo) {
+        }
+
+        @Override
+        public URI getRequestURI() {
+            return requestURI;
+        }
+
+        @Override
+        public Header[] getRequestHeaders() {
+            return requestHeaders;
+        }
+
+        @Override
+        public void setRequestURI(URI requestURI) {
+            this.requestURI = requestURI;
+        }
+
+        @Override
+        public void setRequestHeaders(Header[] requestHeaders) {
+            this.requestHeaders = requestHeaders;
+        }
+
+        @Override
+        public void setUseSynchronousMode(boolean useSynchronousMode) {
+            // results are never posted anywhere.
+        }
+
+        @Override
+        public boolean getUseSynchronousMode() {
+            return true;
+        }
+
+        @Override
+        public void setUsePoolThread(boolean usePoolThread) {
+        }
+
+        @Override
+        public boolean getUsePoolThread() {
+            return !synchronous;
+        }
+
+        @Override
+        public void onPreProcessResponse(ResponseHandlerInterface instance, HttpResponse response) {
+        }
+
+        @Override
+        public void onPostProcessResponse(ResponseHandlerInterface instance, HttpResponse response) {
+        }
+
+        @Override
+        public void setTag(Object tag) {
+            this.tag = tag;
+        }
+
+        @Override
+        public Object getTag() {
+            return tag;
+        }
+    }
+}
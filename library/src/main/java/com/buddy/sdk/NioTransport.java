@@ -0,0 +1,1318 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.message.BasicHeader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+// A non-blocking transport: one selector thread drives every connection,
+// and a fixed set of worker threads runs the callbacks and the TLS
+// handshake's certificate checks, so the thread count stays the same
+// however many requests are in flight.
+//
+// Requests are multiplexed over a pool of keep-alive HTTP/1.1 connections
+// limited by ConnectionPoolOptions; requests beyond the limits wait for a
+// connection to come free.  Request and response bodies are buffered in
+// memory, so this suits API traffic rather than large file transfers.
+public class NioTransport implements PooledTransport {
+
+    public static final int DefaultTimeoutMillis = 30000;
+
+    private static final int MaxHeaderBytes = 64 * 1024;
+    private static final long SweepMillis = 1000;
+
+    private final ConnectionPoolOptions pool;
+    private final int timeoutMillis;
+    private final Executor callbackExecutor;
+    // the default workers, stopped with the transport; null when the
+    // caller supplied the executor.
+    private final ExecutorService ownedWorkers;
+
+    // owned by the loop thread.
+    private final Map<String, Route> routes = new HashMap<String, Route>();
+    private final Set<Connection> connections = new HashSet<Connection>();
+    private long created;
+    private long closedConnections;
+
+    // published by the loop thread after every pass.
+    private volatile ConnectionPoolStats stats = new ConnectionPoolStats(0, 0, 0, 0, 0);
+
+    private final ConcurrentLinkedQueue<Runnable> tasks = new ConcurrentLinkedQueue<Runnable>();
+    private Selector selector;
+    private Thread loop;
+    private volatile boolean closed;
+
+    public NioTransport() {
+        this(null);
+    }
+
+    // pool may be null for the defaults.
+    public NioTransport(ConnectionPoolOptions pool) {
+        this(pool, DefaultTimeoutMillis, newWorkers(Math.max(2, Runtime.getRuntime().availableProcessors())), true);
+    }
+
+    // callbackExecutor runs the callbacks of asynchronous requests and the
+    // TLS handshake's delegated tasks.  It's left running by shutdown().
+    public NioTransport(ConnectionPoolOptions pool, int timeoutMillis, Executor callbackExecutor) {
+        this(pool, timeoutMillis, callbackExecutor, false);
+    }
+
+    private NioTransport(ConnectionPoolOptions pool, int timeoutMillis, Executor callbackExecutor, boolean owned) {
+        this.pool = pool != null ? pool : new ConnectionPoolOptions();
+        if (this.pool.maxPerRoute <= 0 || this.pool.maxTotal <= 0) {
+            throw new IllegalArgumentException("Connection limits must be positive");
+        }
+        this.timeoutMillis = timeoutMillis;
+        this.callbackExecutor = callbackExecutor;
+        this.ownedWorkers = owned ? (ExecutorService) callbackExecutor : null;
+    }
+
+    @Override
+    public ConnectionPoolStats getPoolStats() {
+        return stats;
+    }
+
+    private static ExecutorService newWorkers(int count) {
+        return Executors.newFixedThreadPool(count, new ThreadFactory() {
+            private int created;
+
+            @Override
+            public synchronized Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BuddyNio-worker-" + (++created));
+                t.setDaemon(true);
+                return t;
+            }
+        });
+    }
+
+    @Override
+    public Call execute(Request request, final Callback callback) {
+        final Exchange exchange;
+        try {
+            exchange = new Exchange(request, callback);
+        } catch (final IOException e) {
+            // the body couldn't be produced.
+            if (request.synchronous) {
+                callback.onFailure(e);
+            } else {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        callback.onFailure(e);
+                    }
+                });
+            }
+            return new Exchange(request);
+        }
+
+        if (request.synchronous && callback instanceof CallListener) {
+            ((CallListener) callback).onCall(exchange);
+        }
+        submit(new Dispatch(exchange));
+
+        if (request.synchronous) {
+            exchange.awaitAndDeliver();
+        }
+        return exchange;
+    }
+
+    // Closes every connection and stops the selector thread and the default
+    // workers.  Requests in flight fail.
+    public void shutdown() {
+        Selector s;
+        synchronized (this) {
+            closed = true;
+            s = selector;
+        }
+        if (s != null) {
+            // the loop stops the workers once it has failed what's left.
+            s.wakeup();
+        } else if (ownedWorkers != null) {
+            ownedWorkers.shutdown();
+        }
+    }
+
+    private void submit(Runnable task) {
+        if (!trySubmit(task)) {
+            throw new IllegalStateException("NioTransport has been shut down");
+        }
+    }
+
+    // false once the transport is shut down or its loop has stopped.
+    private boolean trySubmit(Runnable task) {
+        Selector s;
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            if (loop == null) {
+                try {
+                    selector = Selector.open();
+                } catch (IOException e) {
+                    throw new IllegalStateException(e);
+                }
+                loop = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        runLoop();
+                    }
+                }, "BuddyNio-selector");
+                loop.setDaemon(true);
+                loop.start();
+            }
+            // added under the lock, so a loop on its way out either runs
+            // the task or fails it.
+            tasks.add(task);
+            s = selector;
+        }
+        s.wakeup();
+        return true;
+    }
+
+    private class Dispatch implements Runnable {
+        final Exchange exchange;
+
+        Dispatch(Exchange exchange) {
+            this.exchange = exchange;
+        }
+
+        @Override
+        public void run() {
+            dispatch(exchange);
+        }
+    }
+
+    // ---- selector thread ----
+
+    private void runLoop() {
+        Throwable failure = null;
+        try {
+            loop();
+        } catch (IOException e) {
+            failure = e;
+        } catch (RuntimeException e) {
+            // a bug, but one that shouldn't leave callers waiting forever.
+            failure = e;
+        } finally {
+            stop(failure);
+        }
+    }
+
+    private void loop() throws IOException {
+        long lastSweep = System.currentTimeMillis();
+
+        while (!closed) {
+            selector.select(SweepMillis);
+
+            for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    // keep the loop alive; the task has reported its own failure.
+                }
+            }
+
+            Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+            while (keys.hasNext()) {
+                SelectionKey key = keys.next();
+                keys.remove();
+                Connection c = (Connection) key.attachment();
+                try {
+                    c.onReady();
+                } catch (CancelledKeyException e) {
+                    c.fail(new EOFException("Connection closed"));
+                } catch (IOException e) {
+                    c.fail(e);
+                } catch (RuntimeException e) {
+                    c.fail(e);
+                }
+            }
+
+            long now = System.currentTimeMillis();
+            if (now - lastSweep >= SweepMillis) {
+                lastSweep = now;
+                sweep(now);
+            }
+            publishStats();
+        }
+    }
+
+    // Fails everything still waiting once the loop has stopped, whether it
+    // was shut down or died; later requests are refused by submit().
+    private void stop(Throwable failure) {
+        synchronized (this) {
+            closed = true;
+        }
+        IOException error = failure == null
+                ? new IOException("NioTransport has been shut down")
+                : new IOException("NioTransport stopped", failure);
+
+        for (Runnable task = tasks.poll(); task != null; task = tasks.poll()) {
+            if (task instanceof Dispatch) {
+                ((Dispatch) task).exchange.complete(null, error);
+            }
+        }
+        for (Connection c : new ArrayList<Connection>(connections)) {
+            c.fail(error);
+        }
+        for (Route route : routes.values()) {
+            for (Exchange ex = route.pending.poll(); ex != null; ex = route.pending.poll()) {
+                ex.complete(null, error);
+            }
+        }
+        publishStats();
+        try {
+            selector.close();
+        } catch (IOException e) {
+            // nothing to do.
+        }
+        if (ownedWorkers != null) {
+            ownedWorkers.shutdown();
+        }
+    }
+
+    private void sweep(long now) {
+        for (Connection c : new ArrayList<Connection>(connections)) {
+            if (c.exchange != null) {
+                if (now - c.lastActivity > timeoutMillis) {
+                    c.fail(new SocketTimeoutException("No response within " + timeoutMillis + "ms"));
+                }
+            } else if (c.isStale(now)) {
+                c.close();
+            }
+        }
+    }
+
+    private void publishStats() {
+        int idle = 0;
+        int pending = 0;
+        for (Route route : routes.values()) {
+            idle += route.idle.size();
+            pending += route.pending.size();
+        }
+        stats = new ConnectionPoolStats(connections.size() - idle, idle, pending, created, closedConnections);
+    }
+
+    private Route route(Exchange ex) {
+        Route route = routes.get(ex.routeKey);
+        if (route == null) {
+            route = new Route(ex.secure, ex.host, ex.port);
+            routes.put(ex.routeKey, route);
+        }
+        return route;
+    }
+
+    private void dispatch(Exchange ex) {
+        if (ex.isCancelled()) {
+            return;
+        }
+
+        Route route = route(ex);
+        long now = System.currentTimeMillis();
+
+        for (Connection c = route.idle.pollFirst(); c != null; c = route.idle.pollFirst()) {
+            if (!c.isStale(now)) {
+                c.start(ex);
+                return;
+            }
+            c.close();
+        }
+
+        if (route.open < pool.maxPerRoute && (connections.size() < pool.maxTotal || evictIdle())) {
+            open(route, ex);
+        } else {
+            route.pending.add(ex);
+        }
+    }
+
+    // Closes an idle connection to another host to make room under maxTotal.
+    private boolean evictIdle() {
+        for (Route other : routes.values()) {
+            Connection c = other.idle.pollLast();
+            if (c != null) {
+                c.close();
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean hasPendingElsewhere() {
+        for (Route route : routes.values()) {
+            if (!route.pending.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // Starts waiting requests that a closed connection made room for.
+    private void servePending() {
+        for (Route route : routes.values()) {
+            while (!route.pending.isEmpty() && route.open < pool.maxPerRoute && connections.size() < pool.maxTotal) {
+                open(route, route.pending.poll());
+            }
+        }
+    }
+
+    private void open(Route route, Exchange ex) {
+        Connection c;
+        try {
+            c = new Connection(route);
+        } catch (IOException e) {
+            ex.complete(null, e);
+            return;
+        } catch (NoSuchAlgorithmException e) {
+            ex.complete(null, e);
+            return;
+        } catch (RuntimeException e) {
+            // e.g. a host that doesn't resolve.
+            ex.complete(null, e);
+            return;
+        }
+        c.start(ex);
+    }
+
+    private void abort(Exchange ex) {
+        Route route = routes.get(ex.routeKey);
+        if (route != null && route.pending.remove(ex)) {
+            return;
+        }
+        for (Connection c : connections) {
+            if (c.exchange == ex) {
+                c.exchange = null;
+                c.close();
+                return;
+            }
+        }
+    }
+
+    private static class Route {
+        final boolean secure;
+        final String host;
+        final int port;
+        final ArrayDeque<Connection> idle = new ArrayDeque<Connection>();
+        final ArrayDeque<Exchange> pending = new ArrayDeque<Exchange>();
+        int open;
+
+        Route(boolean secure, String host, int port) {
+            this.secure = secure;
+            this.host = host;
+            this.port = port;
+        }
+    }
+
+    private class Connection {
+        final Route route;
+        final SocketChannel channel;
+        final SelectionKey key;
+        final Io io;
+
+        boolean connected;
+        boolean reused;
+        long lastActivity = System.currentTimeMillis();
+        long expires = Long.MAX_VALUE;
+
+        Exchange exchange;
+        ByteBuffer outbound;
+        ResponseParser parser;
+        final ByteBuffer readBuffer = ByteBuffer.allocate(16 * 1024);
+
+        Connection(Route route) throws IOException, NoSuchAlgorithmException {
+            this.route = route;
+            channel = SocketChannel.open();
+            try {
+                channel.configureBlocking(false);
+                connected = channel.connect(new InetSocketAddress(route.host, route.port));
+                io = route.secure ? new TlsIo(channel, route.host, route.port, callbackExecutor, new Runnable() {
+                    @Override
+                    public void run() {
+                        trySubmit(new Runnable() {
+                            @Override
+                            public void run() {
+                                resume();
+                            }
+                        });
+                    }
+                }) : new PlainIo(channel);
+                key = channel.register(selector, connected ? SelectionKey.OP_READ : SelectionKey.OP_CONNECT, this);
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            } catch (NoSuchAlgorithmException e) {
+                channel.close();
+                throw e;
+            } catch (RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+            route.open++;
+            connections.add(this);
+            created++;
+        }
+
+        void start(Exchange ex) {
+            exchange = ex;
+            outbound = ByteBuffer.wrap(ex.requestBytes);
+            parser = new ResponseParser(ex.request.method.equalsIgnoreCase("HEAD"));
+            lastActivity = System.currentTimeMillis();
+            try {
+                if (connected) {
+                    onReady();
+                }
+                updateInterest();
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        // Carries on once the TLS handshake's delegated tasks are done.
+        void resume() {
+            if (!connections.contains(this)) {
+                return;
+            }
+            try {
+                onReady();
+            } catch (CancelledKeyException e) {
+                fail(new EOFException("Connection closed"));
+            } catch (IOException e) {
+                fail(e);
+            }
+        }
+
+        void onReady() throws IOException {
+            if (!connected) {
+                if (!channel.finishConnect()) {
+                    return;
+                }
+                connected = true;
+            }
+
+            lastActivity = System.currentTimeMillis();
+
+            if (exchange != null) {
+                io.write(outbound);
+            }
+
+            while (true) {
+                readBuffer.clear();
+                int n = io.read(readBuffer);
+
+                if (n < 0) {
+                    onEof();
+                    return;
+                }
+                if (n == 0) {
+                    break;
+                }
+                readBuffer.flip();
+
+                if (exchange == null) {
+                    // an idle connection shouldn't receive anything.
+                    close();
+                    return;
+                }
+                if (parser.feed(readBuffer)) {
+                    onResponse();
+                    return;
+                }
+            }
+
+            if (exchange != null && outbound.hasRemaining()) {
+                io.write(outbound);
+            }
+            updateInterest();
+        }
+
+        private void onEof() throws IOException {
+            if (exchange != null && parser.finishAtEof()) {
+                Exchange ex = exchange;
+                exchange = null;
+                close();
+                ex.complete(parser.toResponse(), null);
+            } else {
+                fail(new EOFException("Connection closed by the server"));
+            }
+        }
+
+        private void onResponse() {
+            Exchange ex = exchange;
+            exchange = null;
+            outbound = null;
+
+            long keepAlive = parser.keepAlive ? pool.keepAliveMillis : 0;
+            if (parser.keepAliveTimeoutMillis > 0) {
+                keepAlive = Math.min(keepAlive, parser.keepAliveTimeoutMillis);
+            }
+            BuddyTransport.Response response = parser.toResponse();
+            parser = null;
+
+            if (keepAlive > 0 && !closed) {
+                reused = true;
+                expires = System.currentTimeMillis() + keepAlive;
+                release();
+            } else {
+                close();
+            }
+            ex.complete(response, null);
+        }
+
+        private void release() {
+            lastActivity = System.currentTimeMillis();
+            Exchange next = route.pending.poll();
+            if (next != null) {
+                start(next);
+            } else if (connections.size() >= pool.maxTotal && hasPendingElsewhere()) {
+                // another host is waiting for room under maxTotal.
+                close();
+            } else {
+                route.idle.addFirst(this);
+                try {
+                    updateInterest();
+                } catch (CancelledKeyException e) {
+                    close();
+                }
+            }
+        }
+
+        boolean isStale(long now) {
+            return now - lastActivity > pool.idleTimeoutMillis || now >= expires;
+        }
+
+        private void updateInterest() {
+            if (!key.isValid()) {
+                return;
+            }
+            if (!connected) {
+                key.interestOps(SelectionKey.OP_CONNECT);
+            } else if (io.isBusy()) {
+                // resume() picks it up again.
+                key.interestOps(0);
+            } else if ((exchange != null && outbound.hasRemaining()) || io.hasPendingOutput()) {
+                key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void fail(Throwable error) {
+            Exchange ex = exchange;
+            exchange = null;
+            // only resend what the server can't have acted on: a request
+            // that's safe to repeat, or one it never got all of.
+            boolean retry = ex != null && reused && !parser.started && ex.attempts == 0 && !closed
+                    && (isSafe(ex.request.method) || outbound.hasRemaining());
+            close();
+
+            if (ex != null) {
+                if (retry && error instanceof IOException) {
+                    // the server closed a pooled connection before answering.
+                    ex.attempts++;
+                    dispatch(ex);
+                } else {
+                    ex.complete(null, error);
+                }
+            }
+        }
+
+        void close() {
+            if (!connections.remove(this)) {
+                return;
+            }
+            route.idle.remove(this);
+            route.open--;
+            closedConnections++;
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nothing to do.
+            }
+
+            if (exchange != null) {
+                Exchange ex = exchange;
+                exchange = null;
+                ex.complete(null, new IOException("Connection closed"));
+            }
+
+            // a slot freed up for a waiting request.
+            if (!closed) {
+                servePending();
+            }
+        }
+    }
+
+    private static boolean isSafe(String method) {
+        return method.equalsIgnoreCase(BuddyServiceClient.GET) || method.equalsIgnoreCase("HEAD")
+                || method.equalsIgnoreCase("OPTIONS");
+    }
+
+    // ---- the socket, with or without TLS ----
+
+    private interface Io {
+        void write(ByteBuffer src) throws IOException;
+
+        // -1 at end of stream.
+        int read(ByteBuffer dst) throws IOException;
+
+        boolean hasPendingOutput();
+
+        // true while it waits on work off the selector thread.
+        boolean isBusy();
+    }
+
+    private static class PlainIo implements Io {
+        private final SocketChannel channel;
+
+        PlainIo(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            while (src.hasRemaining() && channel.write(src) > 0) {
+                // keep going while the socket takes it.
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            return channel.read(dst);
+        }
+
+        @Override
+        public boolean hasPendingOutput() {
+            return false;
+        }
+
+        @Override
+        public boolean isBusy() {
+            return false;
+        }
+    }
+
+    private static class TlsIo implements Io {
+        private static final ByteBuffer Empty = ByteBuffer.allocate(0);
+
+        private final SocketChannel channel;
+        private final SSLEngine engine;
+        private final String host;
+        private final Executor workers;
+        private final Runnable resume;
+
+        // netIn and appIn are kept ready for writing into, netOut for
+        // reading out of.
+        private ByteBuffer netIn;
+        private ByteBuffer netOut;
+        private ByteBuffer appIn;
+        private boolean verified;
+        // set while the delegated tasks run on a worker.
+        private volatile boolean busy;
+
+        // resume is called once delegated tasks have run on workers.
+        TlsIo(SocketChannel channel, String host, int port, Executor workers, Runnable resume) throws IOException, NoSuchAlgorithmException {
+            this.channel = channel;
+            this.host = host;
+            this.workers = workers;
+            this.resume = resume;
+            engine = SSLContext.getDefault().createSSLEngine(host, port);
+            engine.setUseClientMode(true);
+            engine.beginHandshake();
+
+            int packet = engine.getSession().getPacketBufferSize();
+            netIn = ByteBuffer.allocate(packet);
+            netOut = ByteBuffer.allocate(packet);
+            netOut.flip();
+            appIn = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
+        }
+
+        @Override
+        public boolean hasPendingOutput() {
+            return netOut.hasRemaining();
+        }
+
+        private boolean flush() throws IOException {
+            while (netOut.hasRemaining()) {
+                if (channel.write(netOut) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public boolean isBusy() {
+            return busy;
+        }
+
+        // Delegated tasks check the server's certificates, which can take a
+        // while, so they run on a worker rather than hold up every other
+        // connection.
+        private void runTasks() {
+            final List<Runnable> delegated = new ArrayList<Runnable>();
+            for (Runnable task = engine.getDelegatedTask(); task != null; task = engine.getDelegatedTask()) {
+                delegated.add(task);
+            }
+            busy = true;
+            Runnable run = new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (Runnable task : delegated) {
+                            task.run();
+                        }
+                    } finally {
+                        busy = false;
+                        resume.run();
+                    }
+                }
+            };
+            try {
+                workers.execute(run);
+            } catch (RejectedExecutionException e) {
+                run.run();
+            }
+        }
+
+        private void checkFinished(SSLEngineResult result) throws SSLException {
+            if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED && !verified) {
+                if (!HttpsURLConnection.getDefaultHostnameVerifier().verify(host, engine.getSession())) {
+                    throw new SSLPeerUnverifiedException("Hostname " + host + " not verified");
+                }
+                verified = true;
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer src) throws IOException {
+            if (!flush()) {
+                return;
+            }
+
+            while (true) {
+                SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    if (!busy) {
+                        runTasks();
+                    }
+                    return;
+                } else if (hs == SSLEngineResult.HandshakeStatus.NEED_UNWRAP) {
+                    // waiting on the server; read() picks it up.
+                    return;
+                } else {
+                    boolean handshaking = hs == SSLEngineResult.HandshakeStatus.NEED_WRAP;
+                    if (!handshaking && !src.hasRemaining()) {
+                        return;
+                    }
+
+                    netOut.compact();
+                    SSLEngineResult result;
+                    try {
+                        result = engine.wrap(handshaking ? Empty : src, netOut);
+                    } finally {
+                        netOut.flip();
+                    }
+                    if (result.getStatus() == SSLEngineResult.Status.CLOSED) {
+                        throw new EOFException("TLS session closed");
+                    }
+                    checkFinished(result);
+
+                    if (!flush()) {
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            while (true) {
+                if (appIn.position() > 0) {
+                    appIn.flip();
+                    int n = Math.min(appIn.remaining(), dst.remaining());
+                    ByteBuffer slice = appIn.duplicate();
+                    slice.limit(slice.position() + n);
+                    dst.put(slice);
+                    appIn.position(appIn.position() + n);
+                    appIn.compact();
+                    return n;
+                }
+
+                SSLEngineResult.HandshakeStatus hs = engine.getHandshakeStatus();
+
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+                    if (!busy) {
+                        runTasks();
+                    }
+                    return 0;
+                }
+                if (hs == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                    write(Empty);
+                    if (hasPendingOutput() || engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                        return 0;
+                    }
+                    continue;
+                }
+
+                netIn.flip();
+                SSLEngineResult result;
+                try {
+                    result = engine.unwrap(netIn, appIn);
+                } finally {
+                    netIn.compact();
+                }
+                checkFinished(result);
+
+                switch (result.getStatus()) {
+                    case BUFFER_UNDERFLOW:
+                        if (!netIn.hasRemaining()) {
+                            ByteBuffer bigger = ByteBuffer.allocate(netIn.capacity() * 2);
+                            netIn.flip();
+                            bigger.put(netIn);
+                            netIn = bigger;
+                        }
+                        int n = channel.read(netIn);
+                        if (n < 0) {
+                            return -1;
+                        }
+                        if (n == 0) {
+                            return 0;
+                        }
+                        break;
+                    case BUFFER_OVERFLOW:
+                        ByteBuffer bigger = ByteBuffer.allocate(appIn.capacity() * 2);
+                        appIn.flip();
+                        bigger.put(appIn);
+                        appIn = bigger;
+                        break;
+                    case CLOSED:
+                        return -1;
+                    default:
+                        break;
+                }
+            }
+        }
+    }
+
+    // ---- HTTP/1.1 ----
+
+    private static class ResponseParser {
+        private static final int Head = 0;
+        private static final int FixedBody = 1;
+        private static final int ChunkSize = 2;
+        private static final int ChunkData = 3;
+        private static final int ChunkEnd = 4;
+        private static final int Trailers = 5;
+        private static final int BodyToEof = 6;
+        private static final int Done = 7;
+
+        private final boolean headRequest;
+        private int state = Head;
+        private final StringBuilder line = new StringBuilder();
+        private int headBytes;
+
+        boolean started;
+        boolean keepAlive;
+        // from a Keep-Alive: timeout=n header, 0 if none.
+        long keepAliveTimeoutMillis;
+
+        private int status;
+        private String reason;
+        private String version;
+        private final List<Header> headers = new ArrayList<Header>();
+        private long remaining;
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        ResponseParser(boolean headRequest) {
+            this.headRequest = headRequest;
+        }
+
+        // true once the whole response has been read.
+        boolean feed(ByteBuffer in) throws IOException {
+            started = true;
+
+            while (in.hasRemaining() && state != Done) {
+                switch (state) {
+                    case Head:
+                    case ChunkSize:
+                    case ChunkEnd:
+                    case Trailers:
+                        String text = readLine(in);
+                        if (text != null) {
+                            onLine(text);
+                        }
+                        break;
+                    case FixedBody:
+                    case ChunkData: {
+                        int n = (int) Math.min(remaining, in.remaining());
+                        body.write(in.array(), in.arrayOffset() + in.position(), n);
+                        in.position(in.position() + n);
+                        remaining -= n;
+                        if (remaining == 0) {
+                            state = state == FixedBody ? Done : ChunkEnd;
+                        }
+                        break;
+                    }
+                    case BodyToEof:
+                        body.write(in.array(), in.arrayOffset() + in.position(), in.remaining());
+                        in.position(in.limit());
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return state == Done;
+        }
+
+        boolean finishAtEof() {
+            if (state == BodyToEof) {
+                state = Done;
+                return true;
+            }
+            return false;
+        }
+
+        private String readLine(ByteBuffer in) throws IOException {
+            while (in.hasRemaining()) {
+                char c = (char) (in.get() & 0xff);
+                if (++headBytes > MaxHeaderBytes) {
+                    throw new IOException("Response header too large");
+                }
+                if (c == '\n') {
+                    int end = line.length();
+                    if (end > 0 && line.charAt(end - 1) == '\r') {
+                        end--;
+                    }
+                    String text = line.substring(0, end);
+                    line.setLength(0);
+                    return text;
+                }
+                line.append(c);
+            }
+            return null;
+        }
+
+        private void onLine(String text) throws IOException {
+            if (state != Head) {
+                // chunk lines are limited one at a time.
+                headBytes = 0;
+            }
+            switch (state) {
+                case Head:
+                    if (version == null) {
+                        parseStatusLine(text);
+                    } else if (text.length() > 0) {
+                        int colon = text.indexOf(':');
+                        if (colon > 0) {
+                            headers.add(new BasicHeader(text.substring(0, colon).trim(), text.substring(colon + 1).trim()));
+                        }
+                    } else if (status >= 100 && status < 200) {
+                        // interim response; the real one follows.
+                        version = null;
+                        headers.clear();
+                    } else {
+                        startBody();
+                    }
+                    break;
+                case ChunkSize: {
+                    int semi = text.indexOf(';');
+                    String size = (semi >= 0 ? text.substring(0, semi) : text).trim();
+                    try {
+                        remaining = Long.parseLong(size, 16);
+                    } catch (NumberFormatException e) {
+                        throw new IOException("Invalid chunk size: " + size);
+                    }
+                    state = remaining == 0 ? Trailers : ChunkData;
+                    break;
+                }
+                case ChunkEnd:
+                    state = ChunkSize;
+                    break;
+                case Trailers:
+                    if (text.length() == 0) {
+                        state = Done;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        private void parseStatusLine(String text) throws IOException {
+            String[] parts = text.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) {
+                throw new IOException("Invalid status line: " + text);
+            }
+            version = parts[0];
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException e) {
+                throw new IOException("Invalid status line: " + text);
+            }
+            reason = parts.length > 2 ? parts[2] : "";
+        }
+
+        private String header(String name) {
+            for (Header h : headers) {
+                if (h.getName().equalsIgnoreCase(name)) {
+                    return h.getValue();
+                }
+            }
+            return null;
+        }
+
+        private void startBody() throws IOException {
+            String connection = header("Connection");
+            if (version.equals("HTTP/1.0")) {
+                keepAlive = connection != null && connection.equalsIgnoreCase("keep-alive");
+            } else {
+                keepAlive = connection == null || !connection.equalsIgnoreCase("close");
+            }
+            String keepAliveHeader = header("Keep-Alive");
+            if (keepAliveHeader != null) {
+                for (String param : keepAliveHeader.split(",")) {
+                    param = param.trim();
+                    if (param.regionMatches(true, 0, "timeout=", 0, 8)) {
+                        try {
+                            keepAliveTimeoutMillis = Long.parseLong(param.substring(8).trim()) * 1000;
+                        } catch (NumberFormatException e) {
+                            // ignore it.
+                        }
+                    }
+                }
+            }
+
+            String transferEncoding = header("Transfer-Encoding");
+            String length = header("Content-Length");
+
+            if (headRequest || status == 204 || status == 304) {
+                state = Done;
+            } else if (transferEncoding != null && transferEncoding.toLowerCase(Locale.US).contains("chunked")) {
+                state = ChunkSize;
+            } else if (length != null) {
+                try {
+                    remaining = Long.parseLong(length.trim());
+                } catch (NumberFormatException e) {
+                    throw new IOException("Invalid Content-Length: " + length);
+                }
+                state = remaining == 0 ? Done : FixedBody;
+            } else {
+                keepAlive = false;
+                state = BodyToEof;
+            }
+        }
+
+        BuddyTransport.Response toResponse() {
+            return new BuddyTransport.Response(status, reason, headers.toArray(new Header[headers.size()]),
+                    body.size() == 0 ? null : new ByteArrayInputStream(body.toByteArray()));
+        }
+    }
+
+    private class Exchange implements Call {
+        final Request request;
+        final Callback callback;
+
+        final boolean secure;
+        final String host;
+        final int port;
+        final String routeKey;
+        final byte[] requestBytes;
+        int attempts;
+
+        private final CountDownLatch done = new CountDownLatch(1);
+        private volatile boolean cancelled;
+        private volatile boolean completed;
+        private BuddyTransport.Response response;
+        private Throwable error;
+
+        // an exchange that failed before it started.
+        Exchange(Request request) {
+            this.request = request;
+            this.callback = null;
+            secure = false;
+            host = null;
+            port = 0;
+            routeKey = null;
+            requestBytes = null;
+            completed = true;
+            done.countDown();
+        }
+
+        Exchange(Request request, Callback callback) throws IOException {
+            this.request = request;
+            this.callback = callback;
+
+            URI uri = URI.create(request.url);
+            String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.US);
+            if (!scheme.equals("http") && !scheme.equals("https")) {
+                throw new IllegalArgumentException("Unsupported URL: " + request.url);
+            }
+            secure = scheme.equals("https");
+            host = uri.getHost();
+            int defaultPort = secure ? 443 : 80;
+            port = uri.getPort() == -1 ? defaultPort : uri.getPort();
+            routeKey = scheme + "://" + host + ":" + port;
+
+            String target = uri.getRawPath() == null || uri.getRawPath().length() == 0 ? "/" : uri.getRawPath();
+            if (uri.getRawQuery() != null) {
+                target = target + "?" + uri.getRawQuery();
+            }
+
+            requestBytes = serialize(target, port == defaultPort ? host : host + ":" + port);
+        }
+
+        private byte[] serialize(String target, String hostHeader) throws IOException {
+            HttpEntity entity = request.body;
+            byte[] payload = null;
+
+            if (entity != null) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                entity.writeTo(out);
+                payload = out.toByteArray();
+            }
+
+            StringBuilder head = new StringBuilder();
+            head.append(request.method.toUpperCase(Locale.US)).append(' ').append(target).append(" HTTP/1.1\r\n");
+            head.append("Host: ").append(hostHeader).append("\r\n");
+
+            for (Header h : request.headers) {
+                if (!h.getName().equalsIgnoreCase("Host") && !h.getName().equalsIgnoreCase("Content-Length")) {
+                    head.append(h.getName()).append(": ").append(h.getValue()).append("\r\n");
+                }
+            }
+
+            if (payload != null) {
+                if (request.getHeader("Content-Type") == null && entity.getContentType() != null) {
+                    head.append("Content-Type: ").append(entity.getContentType().getValue()).append("\r\n");
+                }
+                head.append("Content-Length: ").append(payload.length).append("\r\n");
+            } else if (!request.method.equalsIgnoreCase(BuddyServiceClient.GET) && !request.method.equalsIgnoreCase("HEAD")) {
+                head.append("Content-Length: 0\r\n");
+            }
+            head.append("\r\n");
+
+            byte[] headBytes = head.toString().getBytes("ISO-8859-1");
+            if (payload == null) {
+                return headBytes;
+            }
+            byte[] all = new byte[headBytes.length + payload.length];
+            System.arraycopy(headBytes, 0, all, 0, headBytes.length);
+            System.arraycopy(payload, 0, all, headBytes.length, payload.length);
+            return all;
+        }
+
+        // on the selector thread.
+        void complete(BuddyTransport.Response response, Throwable error) {
+            if (completed || cancelled) {
+                return;
+            }
+            this.response = response;
+            this.error = error;
+            completed = true;
+
+            if (request.synchronous) {
+                done.countDown();
+                return;
+            }
+            try {
+                callbackExecutor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        deliver();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // the workers are gone; better here than never.
+                deliver();
+            }
+        }
+
+        void awaitAndDeliver() {
+            try {
+                done.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancel(true);
+                return;
+            }
+            if (!cancelled) {
+                deliver();
+            }
+        }
+
+        private void deliver() {
+            if (error != null) {
+                callback.onFailure(error);
+                return;
+            }
+            try {
+                callback.onResponse(response);
+            } catch (IOException e) {
+                callback.onFailure(e);
+            }
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            if (completed || cancelled) {
+                return false;
+            }
+            cancelled = true;
+            done.countDown();
+            trySubmit(new Runnable() {
+                @Override
+                public void run() {
+                    abort(Exchange.this);
+                }
+            });
+            return true;
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return cancelled;
+        }
+
+        @Override
+        public boolean isDone() {
+            return completed || cancelled;
+        }
+    }
+}
@@ -0,0 +1,7 @@
+package com.buddy.sdk;
+
+// A transport that keeps connections open between requests.
+public interface PooledTransport extends BuddyTransport {
+
+    ConnectionPoolStats getPoolStats();
+}
@@ -0,0 +1,133 @@
+package com.buddy.sdk;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Single-flight for GETs: while a request is in flight, identical ones
+// (same path, parameters, token, projection and result type) wait for its
+// result instead of going to the network.  Callers that join share the
+// same BuddyResult.
+//
+// The request is cancelled once every caller waiting on it, the one that
+// made it included, has cancelled.
+class RequestCoalescer {
+
+    private static class Flight {
+        final BuddyFuture<?> future;
+        // guarded by this.
+        int waiting = 1;
+        boolean abandoned;
+        Future<?> work;
+
+        Flight(BuddyFuture<?> future) {
+            this.future = future;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Flight> inFlight = new ConcurrentHashMap<String, Flight>();
+    private final AtomicLong requests = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    // parameters should already be converted to the values sent on the
+    // query string; identity is whoever the result belongs to.
+    static String key(String path, Map<String, ?> parameters, String identity, Set<String> resultFields, Class<?> clazz) {
+        StringBuilder key = new StringBuilder();
+        key.append(clazz == null ? "" : clazz.getName()).append(' ');
+        key.append(identity).append(' ');
+        key.append(path);
+
+        if (parameters != null) {
+            char separator = '?';
+            for (Map.Entry<String, ?> entry : new TreeMap<String, Object>(parameters).entrySet()) {
+                if (entry.getValue() == null) {
+                    continue;
+                }
+                key.append(separator).append(entry.getKey()).append('=').append(entry.getValue());
+                separator = '&';
+            }
+        }
+        if (resultFields != null) {
+            key.append(' ').append(new TreeSet<String>(resultFields));
+        }
+        return key.toString();
+    }
+
+    // Returns the future of the identical request already in flight, or
+    // null after registering flight as the one to wait for; the caller then
+    // makes the request and calls complete().
+    @SuppressWarnings("unchecked")
+    <V> BuddyFuture<V> join(String key, BuddyFuture<V> flight) {
+        requests.incrementAndGet();
+
+        Flight mine = new Flight(flight);
+        while (true) {
+            Flight existing = inFlight.putIfAbsent(key, mine);
+            if (existing == null) {
+                return null;
+            }
+            synchronized (existing) {
+                if (!existing.abandoned) {
+                    existing.waiting++;
+                    coalesced.incrementAndGet();
+                    return (BuddyFuture<V>) existing.future;
+                }
+            }
+            inFlight.remove(key, existing);
+        }
+    }
+
+    // Stops new callers joining, then hands the result to those that did.
+    <V> void complete(String key, BuddyFuture<V> flight, V value) {
+        Flight current = inFlight.get(key);
+        if (current != null && current.future == flight) {
+            inFlight.remove(key, current);
+        }
+        flight.setValue(value);
+    }
+
+    // The request made for flight, cancelled if everyone leaves it.
+    void started(String key, BuddyFuture<?> flight, Future<?> work) {
+        Flight current = inFlight.get(key);
+        if (current == null || current.future != flight) {
+            return;
+        }
+        synchronized (current) {
+            current.work = work;
+            if (!current.abandoned) {
+                return;
+            }
+        }
+        work.cancel(true);
+    }
+
+    // For a caller, the one that made the request or one that joined it,
+    // that no longer wants the result.  The last one to leave cancels the
+    // request.
+    void leave(String key, BuddyFuture<?> flight) {
+        Flight current = inFlight.get(key);
+        if (current == null || current.future != flight) {
+            return;
+        }
+        Future<?> work;
+        synchronized (current) {
+            if (current.abandoned || --current.waiting > 0) {
+                return;
+            }
+            current.abandoned = true;
+            work = current.work;
+        }
+        inFlight.remove(key, current);
+        if (work != null) {
+            work.cancel(true);
+        }
+    }
+
+    CoalescingStats getStats() {
+        return new CoalescingStats(requests.get(), coalesced.get(), inFlight.size());
+    }
+}
@@ -0,0 +1,14 @@
+package com.buddy.sdk;
+
+// Which lane a request waits in when LimitingTransport is holding requests
+// back.  Set per call with the BuddyClientImpl.CallPriority parameter.
+// Lanes only exist with BuddyClientOptions.concurrencyLimit set; without
+// it, a priority changes nothing.
+public enum RequestPriority
+{
+    // the user is waiting on it; never waits behind the other lanes.
+    Interactive,
+    Normal,
+    // fire-and-forget work, kept to a share of the limit.
+    Background
+}
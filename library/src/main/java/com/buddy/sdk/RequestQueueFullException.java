@@ -0,0 +1,12 @@
+package com.buddy.sdk;
+
+import java.io.IOException;
+
+// Passed to BuddyTransport.Callback.onFailure for a request that
+// LimitingTransport had no room to queue.
+public class RequestQueueFullException extends IOException {
+
+    public RequestQueueFullException(String message) {
+        super(message);
+    }
+}
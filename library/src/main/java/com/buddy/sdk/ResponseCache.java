@@ -0,0 +1,575 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+// An opt-in cache for GET results, set on BuddyClientOptions.responseCache.
+//
+// Entries are kept for responses that carry an ETag, a Last-Modified date
+// or a Cache-Control max-age.  A fresh entry answers without a request; a
+// stale one is revalidated with If-None-Match / If-Modified-Since, and a
+// 304 is answered with the envelope already parsed.  The memory tier holds
+// parsed envelopes in LRU order; the optional disk tier holds response
+// bodies, which are parsed again when first read back, off the calling
+// thread for asynchronous calls.
+//
+// Failures can be remembered too: see setNegativeCaching.
+//
+// Results handed out from the memory tier are shared between callers.
+public class ResponseCache {
+
+    private static final int DiskFormatVersion = 3;
+    private static final String Suffix = ".cache";
+
+    private final int maxMemoryEntries;
+    private final File directory;
+    private final long maxDiskBytes;
+
+    private final LinkedHashMap<String, Entry> memory;
+    private long diskBytes = -1;
+    private ThreadPoolExecutor diskWorker;
+
+    private final LinkedHashMap<String, Entry> negatives;
+    private volatile long negativeTtlMillis;
+    private volatile int[] negativeStatusCodes = new int[0];
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong revalidations = new AtomicLong();
+    private final AtomicLong negativeHits = new AtomicLong();
+
+    public ResponseCache(int maxMemoryEntries) {
+        this(maxMemoryEntries, null, 0);
+    }
+
+    // directory may be null for a memory-only cache.
+    public ResponseCache(int maxMemoryEntries, File directory, long maxDiskBytes) {
+        this.maxMemoryEntries = maxMemoryEntries;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+
+        memory = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+                return size() > ResponseCache.this.maxMemoryEntries;
+            }
+        };
+
+        negatives = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, ResponseCache.Entry> eldest) {
+                return size() > ResponseCache.this.maxMemoryEntries;
+            }
+        };
+
+        if (directory != null) {
+            directory.mkdirs();
+        }
+    }
+
+    // Remembers failed GETs with the given HTTP statuses, e.g. 404, for
+    // ttlMillis, so a lookup already known to fail is answered with the same
+    // error without a request.  A successful write to the resource, or to
+    // a collection above it, forgets them.  A ttlMillis of 0 turns this off.
+    public void setNegativeCaching(long ttlMillis, int... statusCodes) {
+        negativeStatusCodes = statusCodes == null ? new int[0] : statusCodes.clone();
+        negativeTtlMillis = ttlMillis;
+        if (ttlMillis <= 0) {
+            synchronized (this) {
+                negatives.clear();
+            }
+        }
+    }
+
+    public CacheStats getStats() {
+        int entries;
+        int negativeEntries;
+        long bytes;
+        synchronized (this) {
+            entries = memory.size();
+            negativeEntries = negatives.size();
+            bytes = Math.max(0, diskBytes);
+        }
+        return new CacheStats(hits.get(), misses.get(), revalidations.get(), negativeHits.get(), entries, negativeEntries, bytes);
+    }
+
+    public synchronized void clear() {
+        memory.clear();
+        negatives.clear();
+        if (directory != null) {
+            for (File file : listFiles()) {
+                file.delete();
+            }
+            diskBytes = 0;
+        }
+    }
+
+    // ---- used by the service client ----
+
+    static class Entry {
+        final String key;
+        final String path;
+        final String contentType;
+        volatile String etag;
+        volatile String lastModified;
+        volatile long storedAt;
+        volatile long maxAgeMillis;
+        // never answered from once it's stale, whatever the policy.
+        volatile boolean mustRevalidate;
+        // hex SHA-1 of the body, to tell whether a refresh changed anything.
+        volatile String digest;
+        // the failure's status for a remembered failure, otherwise 200.
+        int statusCode = 200;
+
+        // parsed result; the memory tier only.
+        volatile JsonEnvelope<?> envelope;
+        // raw body; only while reading from or writing to disk.
+        byte[] body;
+
+        Entry(String key, String path, String contentType) {
+            this.key = key;
+            this.path = path;
+            this.contentType = contentType;
+        }
+
+        boolean isFresh(long now) {
+            return maxAgeMillis > 0 && now - storedAt < maxAgeMillis;
+        }
+
+        long ageMillis(long now) {
+            return now - storedAt;
+        }
+
+        void update(Header[] headers, long now) {
+            String tag = BuddyTransport.Response.findHeader(headers, "ETag");
+            if (tag != null) {
+                etag = tag;
+            }
+            String modified = BuddyTransport.Response.findHeader(headers, "Last-Modified");
+            if (modified != null) {
+                lastModified = modified;
+            }
+            String cacheControl = BuddyTransport.Response.findHeader(headers, "Cache-Control");
+            maxAgeMillis = maxAgeMillis(cacheControl);
+            mustRevalidate = hasDirective(cacheControl, "must-revalidate");
+            storedAt = now;
+        }
+    }
+
+    // -1 when there is no max-age; 0 when the response must be revalidated
+    // on every use.  must-revalidate keeps the max-age; it only stops the
+    // entry being used once stale (RFC 9111 5.2.2.2).
+    static long maxAgeMillis(String cacheControl) {
+        if (cacheControl == null) {
+            return -1;
+        }
+        long maxAge = -1;
+        for (String directive : cacheControl.split(",")) {
+            directive = directive.trim();
+            if (directive.equalsIgnoreCase("no-cache")) {
+                return 0;
+            }
+            if (directive.regionMatches(true, 0, "max-age=", 0, 8)) {
+                try {
+                    maxAge = Long.parseLong(directive.substring(8).trim()) * 1000;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+        return maxAge;
+    }
+
+    static boolean hasDirective(String cacheControl, String name) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                if (directive.trim().equalsIgnoreCase(name)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    static boolean isCacheable(BuddyTransport.Response response) {
+        if (response.statusCode != 200) {
+            return false;
+        }
+        String cacheControl = response.getHeader("Cache-Control");
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.US).contains("no-store")) {
+            return false;
+        }
+        return response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null
+                || maxAgeMillis(cacheControl) > 0;
+    }
+
+    boolean cachesFailure(int statusCode) {
+        if (negativeTtlMillis <= 0) {
+            return false;
+        }
+        for (int code : negativeStatusCodes) {
+            if (code == statusCode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // The remembered failure for key, or null once it has expired.
+    synchronized Entry getNegative(String key) {
+        Entry entry = negatives.get(key);
+        if (entry != null && !entry.isFresh(System.currentTimeMillis())) {
+            negatives.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    synchronized void storeNegative(String key, String path, int statusCode, JsonEnvelope<?> envelope) {
+        Entry entry = new Entry(key, normalize(path), null);
+        entry.statusCode = statusCode;
+        entry.storedAt = System.currentTimeMillis();
+        entry.maxAgeMillis = negativeTtlMillis;
+        entry.envelope = envelope;
+        negatives.put(key, entry);
+    }
+
+    // The entry for key from memory or, failing that, disk.  Entries read
+    // from disk come back with a body and no envelope.
+    Entry get(String key, String path) {
+        synchronized (this) {
+            Entry entry = memory.get(key);
+            if (entry != null || directory == null) {
+                return entry;
+            }
+        }
+        return readFile(normalize(path), key);
+    }
+
+    // Whether get() has to go to disk for key.
+    synchronized boolean needsDisk(String key) {
+        return directory != null && !memory.containsKey(key);
+    }
+
+    // Runs disk lookups for calls made where there's no executor, such as
+    // on the main thread: one thread, stopped while there's nothing to do.
+    synchronized Executor getDiskExecutor() {
+        if (diskWorker == null) {
+            diskWorker = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "BuddyCache");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            diskWorker.allowCoreThreadTimeOut(true);
+        }
+        return diskWorker;
+    }
+
+    // Keeps a parsed envelope in memory once a disk entry has been parsed.
+    synchronized void promote(Entry entry, JsonEnvelope<?> envelope) {
+        entry.envelope = envelope;
+        entry.body = null;
+        memory.put(entry.key, entry);
+    }
+
+    Entry store(String key, String path, BuddyTransport.Response response, byte[] body, String digest, JsonEnvelope<?> envelope) {
+        Entry entry = new Entry(key, normalize(path), response.getHeader("Content-Type"));
+        entry.update(response.headers, System.currentTimeMillis());
+        entry.digest = digest;
+        entry.envelope = envelope;
+
+        synchronized (this) {
+            memory.put(key, entry);
+            negatives.remove(key);
+        }
+        if (directory != null) {
+            entry.body = body;
+            writeFile(entry);
+            entry.body = null;
+        }
+        return entry;
+    }
+
+    // A 304 confirmed the entry; take the new validators and freshness.
+    void revalidated(Entry entry, Header[] headers) {
+        entry.update(headers, System.currentTimeMillis());
+        if (directory != null) {
+            Entry onDisk = readFile(entry.path, entry.key);
+            if (onDisk != null) {
+                onDisk.update(headers, entry.storedAt);
+                writeFile(onDisk);
+            }
+        }
+    }
+
+    synchronized void remove(String key, String path) {
+        memory.remove(key);
+        if (directory != null) {
+            deleteFile(fileFor(normalize(path), key));
+        }
+    }
+
+    // Drops what a write to path may have changed: the resource itself and
+    // the collections above it, and any failures remembered under it.
+    synchronized void invalidate(String path) {
+        String written = normalize(path);
+        List<String> paths = new ArrayList<String>();
+        for (String p = written; p.length() > 0; p = p.lastIndexOf('/') < 0 ? "" : p.substring(0, p.lastIndexOf('/'))) {
+            paths.add(p);
+        }
+
+        Iterator<Entry> entries = memory.values().iterator();
+        while (entries.hasNext()) {
+            if (paths.contains(entries.next().path)) {
+                entries.remove();
+            }
+        }
+
+        // a write may create what was missing, e.g. a POST to a collection.
+        entries = negatives.values().iterator();
+        while (entries.hasNext()) {
+            String p = entries.next().path;
+            if (paths.contains(p) || p.startsWith(written + "/")) {
+                entries.remove();
+            }
+        }
+
+        if (directory != null) {
+            List<String> prefixes = new ArrayList<String>();
+            for (String p : paths) {
+                prefixes.add(hash(p) + ".");
+            }
+            for (File file : listFiles()) {
+                for (String prefix : prefixes) {
+                    if (file.getName().startsWith(prefix)) {
+                        deleteFile(file);
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // whether store() needs the raw body.
+    boolean keepsBodies() {
+        return directory != null;
+    }
+
+    void countHit() {
+        hits.incrementAndGet();
+    }
+
+    void countMiss() {
+        misses.incrementAndGet();
+    }
+
+    void countRevalidation() {
+        revalidations.incrementAndGet();
+    }
+
+    void countNegativeHit() {
+        hits.incrementAndGet();
+        negativeHits.incrementAndGet();
+    }
+
+    static String normalize(String path) {
+        int query = path.indexOf('?');
+        if (query >= 0) {
+            path = path.substring(0, query);
+        }
+        while (path.startsWith("/")) {
+            path = path.substring(1);
+        }
+        while (path.endsWith("/")) {
+            path = path.substring(0, path.length() - 1);
+        }
+        return path;
+    }
+
+    // ---- disk tier ----
+
+    private static String hash(String value) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            return BuddyServiceClientImpl.toHexString(digest.digest(value.getBytes("UTF-8")));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // named by path and key, so a path's entries can be found by name.
+    private File fileFor(String path, String key) {
+        return new File(directory, hash(path) + "." + hash(key) + Suffix);
+    }
+
+    private File[] listFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return new File[0];
+        }
+        List<File> ours = new ArrayList<File>();
+        for (File file : files) {
+            if (file.getName().endsWith(Suffix)) {
+                ours.add(file);
+            }
+        }
+        return ours.toArray(new File[ours.size()]);
+    }
+
+    private synchronized void deleteFile(File file) {
+        long length = file.length();
+        if (file.exists() && file.delete() && diskBytes >= 0) {
+            diskBytes -= length;
+        }
+    }
+
+    private Entry readFile(String path, String key) {
+        File file = fileFor(path, key);
+        if (!file.exists()) {
+            return null;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != DiskFormatVersion || !in.readUTF().equals(key)) {
+                return null;
+            }
+            Entry entry = new Entry(key, in.readUTF(), emptyToNull(in.readUTF()));
+            entry.etag = emptyToNull(in.readUTF());
+            entry.lastModified = emptyToNull(in.readUTF());
+            entry.storedAt = in.readLong();
+            entry.maxAgeMillis = in.readLong();
+            entry.mustRevalidate = in.readBoolean();
+            entry.digest = emptyToNull(in.readUTF());
+            entry.body = new byte[in.readInt()];
+            in.readFully(entry.body);
+
+            // least recently used goes first when the disk tier is full.
+            file.setLastModified(System.currentTimeMillis());
+            return entry;
+        } catch (IOException e) {
+            deleteFile(file);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {
+                    // nothing to do.
+                }
+            }
+        }
+    }
+
+    private void writeFile(Entry entry) {
+        File file = fileFor(entry.path, entry.key);
+        File temp = new File(directory, file.getName() + "." + Thread.currentThread().getId() + ".tmp");
+
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)));
+            out.writeInt(DiskFormatVersion);
+            out.writeUTF(entry.key);
+            out.writeUTF(entry.path);
+            out.writeUTF(nullToEmpty(entry.contentType));
+            out.writeUTF(nullToEmpty(entry.etag));
+            out.writeUTF(nullToEmpty(entry.lastModified));
+            out.writeLong(entry.storedAt);
+            out.writeLong(entry.maxAgeMillis);
+            out.writeBoolean(entry.mustRevalidate);
+            out.writeUTF(nullToEmpty(entry.digest));
+            out.writeInt(entry.body.length);
+            out.write(entry.body);
+            out.close();
+            out = null;
+        } catch (IOException e) {
+            temp.delete();
+            return;
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // nothing to do.
+                }
+            }
+        }
+
+        synchronized (this) {
+            if (diskBytes < 0) {
+                diskBytes = 0;
+                for (File existing : listFiles()) {
+                    diskBytes += existing.length();
+                }
+            }
+            if (file.exists()) {
+                diskBytes -= file.length();
+            }
+            if (!temp.renameTo(file)) {
+                temp.delete();
+                return;
+            }
+            diskBytes += file.length();
+            trimDisk();
+        }
+    }
+
+    private void trimDisk() {
+        if (diskBytes <= maxDiskBytes) {
+            return;
+        }
+        File[] files = listFiles();
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        for (File file : files) {
+            if (diskBytes <= maxDiskBytes) {
+                break;
+            }
+            deleteFile(file);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+}
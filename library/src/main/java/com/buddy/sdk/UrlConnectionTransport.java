@@ -0,0 +1,201 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.message.BasicHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.ProtocolException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+// A transport on the platform HttpURLConnection, which pools keep-alive
+// connections itself.  Asynchronous requests run on the given executor.
+//
+// Some HttpURLConnection implementations refuse PATCH; those requests are
+// sent as POST with an X-HTTP-Method-Override header instead.
+public class UrlConnectionTransport implements BuddyTransport {
+
+    private final ExecutorService executor;
+
+    public UrlConnectionTransport() {
+        this(Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "BuddyTransport");
+                t.setDaemon(true);
+                return t;
+            }
+        }));
+    }
+
+    public UrlConnectionTransport(ExecutorService executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Call execute(final Request request, final Callback callback) {
+        final AtomicReference<HttpURLConnection> connection = new AtomicReference<HttpURLConnection>();
+        final AtomicBoolean cancelled = new AtomicBoolean();
+
+        FutureTask<Void> task = new FutureTask<Void>(new Runnable() {
+            @Override
+            public void run() {
+                Response response;
+                try {
+                    HttpURLConnection c = open(request);
+                    connection.set(c);
+                    if (cancelled.get()) {
+                        return;
+                    }
+                    response = send(c, request);
+                } catch (IOException e) {
+                    if (!cancelled.get() && !Thread.currentThread().isInterrupted()) {
+                        callback.onFailure(e);
+                    }
+                    return;
+                } catch (RuntimeException e) {
+                    callback.onFailure(e);
+                    return;
+                }
+
+                try {
+                    callback.onResponse(response);
+                } catch (IOException e) {
+                    callback.onFailure(e);
+                } finally {
+                    if (response.body != null) {
+                        try {
+                            response.body.close();
+                        } catch (IOException e) {
+                            // nothing to do.
+                        }
+                    }
+                }
+            }
+        }, null) {
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                if (!super.cancel(mayInterruptIfRunning)) {
+                    return false;
+                }
+                // closing the socket is what stops a blocked read.
+                cancelled.set(true);
+                HttpURLConnection c = connection.get();
+                if (c != null) {
+                    c.disconnect();
+                }
+                return true;
+            }
+        };
+
+        Call call = new FutureCall(task);
+        if (request.synchronous) {
+            if (callback instanceof CallListener) {
+                ((CallListener) callback).onCall(call);
+            }
+            task.run();
+        } else {
+            executor.execute(task);
+        }
+        return call;
+    }
+
+    private static HttpURLConnection open(Request request) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(request.url).openConnection();
+
+        try {
+            connection.setRequestMethod(request.method.toUpperCase(Locale.US));
+        } catch (ProtocolException e) {
+            connection.setRequestMethod(BuddyServiceClient.POST);
+            connection.setRequestProperty("X-HTTP-Method-Override", request.method.toUpperCase(Locale.US));
+        }
+
+        for (Header h : request.headers) {
+            connection.addRequestProperty(h.getName(), h.getValue());
+        }
+        return connection;
+    }
+
+    private static Response send(HttpURLConnection connection, Request request) throws IOException {
+        HttpEntity body = request.body;
+
+        if (body != null) {
+            if (request.getHeader("Content-Type") == null && body.getContentType() != null) {
+                connection.setRequestProperty("Content-Type", body.getContentType().getValue());
+            }
+
+            long length = body.getContentLength();
+            if (length >= 0 && length <= Integer.MAX_VALUE) {
+                connection.setFixedLengthStreamingMode((int) length);
+            } else {
+                connection.setChunkedStreamingMode(0);
+            }
+
+            connection.setDoOutput(true);
+            OutputStream out = connection.getOutputStream();
+            try {
+                body.writeTo(out);
+            } finally {
+                out.close();
+            }
+        }
+
+        int status = connection.getResponseCode();
+
+        InputStream stream = status >= 400 ? connection.getErrorStream() : connection.getInputStream();
+
+        return new Response(status, connection.getResponseMessage(), getHeaders(connection), stream);
+    }
+
+    private static Header[] getHeaders(HttpURLConnection connection) {
+        List<Header> headers = new ArrayList<Header>();
+
+        for (Map.Entry<String, List<String>> field : connection.getHeaderFields().entrySet()) {
+            // the status line is reported under a null name.
+            if (field.getKey() == null) {
+                continue;
+            }
+            for (String value : field.getValue()) {
+                headers.add(new BasicHeader(field.getKey(), value));
+            }
+        }
+        return headers.toArray(new Header[headers.size()]);
+    }
+
+    private static class FutureCall implements Call {
+        private final Future<?> future;
+
+        FutureCall(Future<?> future) {
+            this.future = future;
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return future.cancel(mayInterruptIfRunning);
+        }
+
+        @Override
+        public boolean isCancelled() {
+            return future.isCancelled();
+        }
+
+        @Override
+        public boolean isDone() {
+            return future.isDone();
+        }
+    }
+}
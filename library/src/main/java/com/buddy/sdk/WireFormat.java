@@ -0,0 +1,22 @@
+package com.buddy.sdk;
+
+import com.google.gson.JsonElement;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+// An encoding of the JSON data model that can be negotiated in place of
+// JSON.  When one is set on BuddyClientOptions it is offered ahead of JSON
+// in the Accept header; responses that come back in it are decoded with
+// read(), and once the server has answered in it request bodies are sent
+// with write() as well.  Servers that don't know it keep getting JSON.
+public interface WireFormat {
+
+    // The media type sent in Accept and Content-Type, e.g. application/cbor.
+    String getContentType();
+
+    JsonElement read(InputStream in) throws IOException;
+
+    void write(JsonElement value, OutputStream out) throws IOException;
+}
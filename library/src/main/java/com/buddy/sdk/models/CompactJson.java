@@ -0,0 +1,147 @@
+package com.buddy.sdk.models;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UnsupportedEncodingException;
+import java.util.Set;
+
+// Helpers for keeping JSON as compact UTF-8 bytes rather than as a tree.
+public final class CompactJson {
+
+    static final String Charset = "UTF-8";
+
+    private CompactJson() {
+    }
+
+    // Copies the value at the reader's position to compact bytes, without
+    // building a tree.
+    public static byte[] copy(JsonReader in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(new OutputStreamWriter(bytes, Charset));
+        copy(in, out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    // Copies the object at the reader's position keeping only the named
+    // fields; everything else is skipped without being read into memory.
+    // For a page the names apply to each item of pageResults instead.
+    public static byte[] project(JsonReader in, Set<String> fields, boolean page) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(new OutputStreamWriter(bytes, Charset));
+
+        if (page) {
+            in.beginObject();
+            out.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+                out.name(name);
+
+                if (name.equals("pageResults") && in.peek() == JsonToken.BEGIN_ARRAY) {
+                    in.beginArray();
+                    out.beginArray();
+                    while (in.hasNext()) {
+                        copyFields(in, out, fields);
+                    }
+                    in.endArray();
+                    out.endArray();
+                } else {
+                    copy(in, out);
+                }
+            }
+            in.endObject();
+            out.endObject();
+        } else {
+            copyFields(in, out, fields);
+        }
+
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static void copyFields(JsonReader in, JsonWriter out, Set<String> fields) throws IOException {
+        if (in.peek() != JsonToken.BEGIN_OBJECT) {
+            copy(in, out);
+            return;
+        }
+
+        in.beginObject();
+        out.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+
+            if (fields.contains(name)) {
+                out.name(name);
+                copy(in, out);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+        out.endObject();
+    }
+
+    static void copy(JsonReader in, JsonWriter out) throws IOException {
+        JsonToken token = in.peek();
+
+        if (token == JsonToken.BEGIN_OBJECT) {
+            in.beginObject();
+            out.beginObject();
+            while (in.hasNext()) {
+                out.name(in.nextName());
+                copy(in, out);
+            }
+            in.endObject();
+            out.endObject();
+        } else if (token == JsonToken.BEGIN_ARRAY) {
+            in.beginArray();
+            out.beginArray();
+            while (in.hasNext()) {
+                copy(in, out);
+            }
+            in.endArray();
+            out.endArray();
+        } else if (token == JsonToken.STRING) {
+            out.value(in.nextString());
+        } else if (token == JsonToken.NUMBER) {
+            out.jsonValue(in.nextString());
+        } else if (token == JsonToken.BOOLEAN) {
+            out.value(in.nextBoolean());
+        } else if (token == JsonToken.NULL) {
+            in.nextNull();
+            out.nullValue();
+        } else {
+            in.skipValue();
+        }
+    }
+
+    public static byte[] toBytes(JsonObject json) {
+        try {
+            return json.toString().getBytes(Charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static Reader reader(byte[] bytes, int offset, int length) {
+        try {
+            return new InputStreamReader(new ByteArrayInputStream(bytes, offset, length), Charset);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public static JsonObject parse(byte[] bytes, int offset, int length) {
+        return new JsonParser().parse(reader(bytes, offset, length)).getAsJsonObject();
+    }
+}
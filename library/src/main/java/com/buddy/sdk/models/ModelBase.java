@@ -13,12 +13,24 @@ public class ModelBase {
     public Location location;
 
     private JsonObject jsonObject;
+    private transient byte[] jsonSource;
 
     public void setJsonObject(JsonObject json) {
         jsonObject = json;
+        jsonSource = null;
+    }
+
+    // Keeps the source as compact UTF-8 JSON, parsed on every call to
+    // getJsonObject() instead of being held as a tree.
+    public void setJsonSource(byte[] utf8Json) {
+        jsonSource = utf8Json;
+        jsonObject = null;
     }
 
     public JsonObject getJsonObject() {
+        if (jsonObject == null && jsonSource != null) {
+            return CompactJson.parse(jsonSource, 0, jsonSource.length);
+        }
         return jsonObject;
     }
 
@@ -0,0 +1,505 @@
+package com.buddy.sdk.models;
+
+import android.location.Location;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+// Reflection-free readers for the ModelBase classes.
+//
+// Only the exact SDK classes are handled here; application subclasses of
+// them fall through to Gson's reflective adapter so their extra fields
+// are still picked up.  Nested values (dates, locations, enums,
+// collections) are delegated to the adapters registered on the Gson
+// instance so the wire format is unchanged.  Writing isn't on the
+// response path, so it's left to Gson's reflective adapter.
+//
+// A field added to a model has to be added to its reader too;
+// ModelTypeAdapterFactoryTest fails for any field that isn't read.
+public final class ModelTypeAdapterFactory implements TypeAdapterFactory {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> TypeAdapter<T> create(Gson gson, TypeToken<T> type) {
+        ModelBaseAdapter adapter = reader(gson, type.getRawType());
+        if (adapter != null) {
+            adapter.writer = gson.getDelegateAdapter(this, type);
+        }
+        return (TypeAdapter<T>) adapter;
+    }
+
+    private static ModelBaseAdapter<?> reader(Gson gson, Class<?> raw) {
+        if (raw == User.class) {
+            return new UserAdapter<User>(gson) {
+                @Override
+                protected User newInstance() {
+                    return new User();
+                }
+            };
+        } else if (raw == Message.class) {
+            return new MessageAdapter(gson);
+        } else if (raw == Checkin.class) {
+            return new CheckinAdapter(gson);
+        } else if (raw == Picture.class) {
+            return new PictureAdapter(gson);
+        } else if (raw == Video.class) {
+            return new VideoAdapter(gson);
+        } else if (raw == Album.class) {
+            return new AlbumAdapter(gson);
+        } else if (raw == AlbumItem.class) {
+            return new AlbumItemAdapter(gson);
+        } else if (raw == UserList.class) {
+            return new UserListAdapter(gson);
+        } else if (raw == SocialNetworkUser.class) {
+            return new SocialNetworkUserAdapter(gson);
+        } else if (raw == Identity.class) {
+            return new IdentityAdapter(gson);
+        } else if (raw == Blob.class) {
+            return new BlobAdapter(gson);
+        } else if (raw == BinaryModelBase.class) {
+            return new BinaryModelBaseAdapter<BinaryModelBase>(gson) {
+                @Override
+                protected BinaryModelBase newInstance() {
+                    return new BinaryModelBase();
+                }
+            };
+        } else if (raw == TimedMetric.class) {
+            return new ModelBaseAdapter<TimedMetric>(gson) {
+                @Override
+                protected TimedMetric newInstance() {
+                    return new TimedMetric();
+                }
+            };
+        } else if (raw == ModelBase.class) {
+            return new ModelBaseAdapter<ModelBase>(gson) {
+                @Override
+                protected ModelBase newInstance() {
+                    return new ModelBase();
+                }
+            };
+        }
+        return null;
+    }
+
+    abstract static class ModelBaseAdapter<T extends ModelBase> extends TypeAdapter<T> {
+
+        protected final TypeAdapter<Date> dateAdapter;
+        protected final TypeAdapter<Location> locationAdapter;
+        TypeAdapter<T> writer;
+
+        ModelBaseAdapter(Gson gson) {
+            dateAdapter = gson.getAdapter(Date.class);
+            locationAdapter = gson.getAdapter(Location.class);
+        }
+
+        protected abstract T newInstance();
+
+        // returns false for names this class doesn't know, which are skipped.
+        protected boolean readField(T model, String name, JsonReader in) throws IOException {
+            if (name.equals("id")) {
+                model.id = readString(name, in);
+            } else if (name.equals("created")) {
+                model.created = dateAdapter.read(in);
+            } else if (name.equals("lastModified")) {
+                model.lastModified = dateAdapter.read(in);
+            } else if (name.equals("location")) {
+                model.location = locationAdapter.read(in);
+            } else {
+                return false;
+            }
+            return true;
+        }
+
+        // strings go through the shared StringPool, when one is set.
+        protected static String readString(String name, JsonReader in) throws IOException {
+            return StringPool.pooled(name, in.nextString());
+        }
+
+        @Override
+        public T read(JsonReader in) throws IOException {
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+                return null;
+            }
+
+            T model = newInstance();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (!readField(model, name, in)) {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return model;
+        }
+
+        @Override
+        public void write(JsonWriter out, T model) throws IOException {
+            writer.write(out, model);
+        }
+    }
+
+    abstract static class UserAdapter<T extends User> extends ModelBaseAdapter<T> {
+
+        UserAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected boolean readField(T model, String name, JsonReader in) throws IOException {
+            if (name.equals("userName")) {
+                model.userName = readString(name, in);
+            } else if (name.equals("firstName")) {
+                model.firstName = readString(name, in);
+            } else if (name.equals("lastName")) {
+                model.lastName = readString(name, in);
+            } else if (name.equals("email")) {
+                model.email = readString(name, in);
+            } else if (name.equals("dateOfBirth")) {
+                model.dateOfBirth = dateAdapter.read(in);
+            } else if (name.equals("lastLogin")) {
+                model.lastLogin = dateAdapter.read(in);
+            } else if (name.equals("profilePictureID")) {
+                model.profilePictureID = readString(name, in);
+            } else if (name.equals("profilePictureUrl")) {
+                model.profilePictureUrl = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class SocialNetworkUserAdapter extends UserAdapter<SocialNetworkUser> {
+
+        SocialNetworkUserAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected SocialNetworkUser newInstance() {
+            return new SocialNetworkUser();
+        }
+
+        @Override
+        protected boolean readField(SocialNetworkUser model, String name, JsonReader in) throws IOException {
+            if (name.equals("isNew")) {
+                model.isNew = in.nextBoolean();
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class MessageAdapter extends ModelBaseAdapter<Message> {
+
+        private final TypeAdapter<Message.MessageType> typeAdapter;
+        private final TypeAdapter<List<String>> recipientsAdapter;
+        private final TypeAdapter<Map<String, Object>> warningsAdapter;
+
+        MessageAdapter(Gson gson) {
+            super(gson);
+            typeAdapter = gson.getAdapter(Message.MessageType.class);
+            recipientsAdapter = gson.getAdapter(new TypeToken<List<String>>() { });
+            warningsAdapter = gson.getAdapter(new TypeToken<Map<String, Object>>() { });
+        }
+
+        @Override
+        protected Message newInstance() {
+            return new Message();
+        }
+
+        @Override
+        protected boolean readField(Message model, String name, JsonReader in) throws IOException {
+            if (name.equals("subject")) {
+                model.subject = readString(name, in);
+            } else if (name.equals("body")) {
+                model.body = readString(name, in);
+            } else if (name.equals("thread")) {
+                model.thread = readString(name, in);
+            } else if (name.equals("fromUserId")) {
+                model.fromUserId = readString(name, in);
+            } else if (name.equals("fromUserName")) {
+                model.fromUserName = readString(name, in);
+            } else if (name.equals("toUserId")) {
+                model.toUserId = readString(name, in);
+            } else if (name.equals("toUserName")) {
+                model.toUserName = readString(name, in);
+            } else if (name.equals("sent")) {
+                model.sent = dateAdapter.read(in);
+            } else if (name.equals("recipients")) {
+                model.recipients = recipientsAdapter.read(in);
+            } else if (name.equals("type")) {
+                model.type = typeAdapter.read(in);
+            } else if (name.equals("isNew")) {
+                model.isNew = in.nextBoolean();
+            } else if (name.equals("warnings")) {
+                model.warnings = warningsAdapter.read(in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class CheckinAdapter extends ModelBaseAdapter<Checkin> {
+
+        CheckinAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected Checkin newInstance() {
+            return new Checkin();
+        }
+
+        @Override
+        protected boolean readField(Checkin model, String name, JsonReader in) throws IOException {
+            if (name.equals("comment")) {
+                model.comment = readString(name, in);
+            } else if (name.equals("description")) {
+                model.description = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    abstract static class BinaryModelBaseAdapter<T extends BinaryModelBase> extends ModelBaseAdapter<T> {
+
+        BinaryModelBaseAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected boolean readField(T model, String name, JsonReader in) throws IOException {
+            if (name.equals("contentType")) {
+                model.contentType = readString(name, in);
+            } else if (name.equals("contentLength")) {
+                model.contentLength = in.nextInt();
+            } else if (name.equals("signedUrl")) {
+                model.signedUrl = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class PictureAdapter extends BinaryModelBaseAdapter<Picture> {
+
+        PictureAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected Picture newInstance() {
+            return new Picture();
+        }
+
+        @Override
+        protected boolean readField(Picture model, String name, JsonReader in) throws IOException {
+            if (name.equals("title")) {
+                model.title = readString(name, in);
+            } else if (name.equals("caption")) {
+                model.caption = readString(name, in);
+            } else if (name.equals("watermark")) {
+                model.watermark = readString(name, in);
+            } else if (name.equals("size")) {
+                model.size = readSize(model, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+
+        private Picture.SizeInfo readSize(Picture model, JsonReader in) throws IOException {
+            Picture.SizeInfo size = model.new SizeInfo();
+
+            in.beginObject();
+            while (in.hasNext()) {
+                String name = in.nextName();
+
+                if (in.peek() == JsonToken.NULL) {
+                    in.nextNull();
+                } else if (name.equals("w")) {
+                    size.w = in.nextInt();
+                } else if (name.equals("h")) {
+                    size.h = in.nextInt();
+                } else {
+                    in.skipValue();
+                }
+            }
+            in.endObject();
+
+            return size;
+        }
+    }
+
+    static class VideoAdapter extends BinaryModelBaseAdapter<Video> {
+
+        VideoAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected Video newInstance() {
+            return new Video();
+        }
+
+        @Override
+        protected boolean readField(Video model, String name, JsonReader in) throws IOException {
+            if (name.equals("encoding")) {
+                model.encoding = readString(name, in);
+            } else if (name.equals("bitRate")) {
+                model.bitRate = in.nextInt();
+            } else if (name.equals("lengthInSeconds")) {
+                model.lengthInSeconds = in.nextDouble();
+            } else if (name.equals("thumbnailID")) {
+                model.thumbnailID = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class AlbumAdapter extends ModelBaseAdapter<Album> {
+
+        AlbumAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected Album newInstance() {
+            return new Album();
+        }
+
+        @Override
+        protected boolean readField(Album model, String name, JsonReader in) throws IOException {
+            if (name.equals("caption")) {
+                model.caption = readString(name, in);
+            } else if (name.equals("name")) {
+                model.name = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class AlbumItemAdapter extends ModelBaseAdapter<AlbumItem> {
+
+        private final TypeAdapter<AlbumItem.AlbumItemType> itemTypeAdapter;
+
+        AlbumItemAdapter(Gson gson) {
+            super(gson);
+            itemTypeAdapter = gson.getAdapter(AlbumItem.AlbumItemType.class);
+        }
+
+        @Override
+        protected AlbumItem newInstance() {
+            return new AlbumItem();
+        }
+
+        @Override
+        protected boolean readField(AlbumItem model, String name, JsonReader in) throws IOException {
+            if (name.equals("itemType")) {
+                model.itemType = itemTypeAdapter.read(in);
+            } else if (name.equals("caption")) {
+                model.caption = readString(name, in);
+            } else if (name.equals("itemId")) {
+                model.itemId = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class UserListAdapter extends ModelBaseAdapter<UserList> {
+
+        UserListAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected UserList newInstance() {
+            return new UserList();
+        }
+
+        @Override
+        protected boolean readField(UserList model, String name, JsonReader in) throws IOException {
+            if (name.equals("name")) {
+                model.name = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class IdentityAdapter extends ModelBaseAdapter<Identity> {
+
+        IdentityAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected Identity newInstance() {
+            return new Identity();
+        }
+
+        @Override
+        protected boolean readField(Identity model, String name, JsonReader in) throws IOException {
+            if (name.equals("providerName")) {
+                model.providerName = readString(name, in);
+            } else if (name.equals("providerID")) {
+                model.providerID = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+
+    static class BlobAdapter extends ModelBaseAdapter<Blob> {
+
+        BlobAdapter(Gson gson) {
+            super(gson);
+        }
+
+        @Override
+        protected Blob newInstance() {
+            return new Blob();
+        }
+
+        @Override
+        protected boolean readField(Blob model, String name, JsonReader in) throws IOException {
+            if (name.equals("friendlyName")) {
+                model.friendlyName = readString(name, in);
+            } else {
+                return super.readField(model, name, in);
+            }
+            return true;
+        }
+    }
+}
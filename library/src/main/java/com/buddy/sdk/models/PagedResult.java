@@ -1,13 +1,21 @@
 package com.buddy.sdk.models;
 
-import com.buddy.sdk.JsonEnvelopeDeserializer;
-import com.google.gson.Gson;
+import com.buddy.sdk.BuddyCodec;
+import com.buddy.sdk.JsonRetentionPolicy;
 import com.google.gson.JsonObject;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonParseException;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
 
-import java.lang.reflect.Type;
+import java.io.IOException;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 public class PagedResult {
 
@@ -17,19 +25,169 @@ public class PagedResult {
     public String currentToken;
     public List<JsonObject> pageResults;
 
+    private transient JsonRetentionPolicy jsonRetention = JsonRetentionPolicy.Full;
+
+    // What the models returned by convertPageResults keep of their JSON.
+    public void setJsonRetention(JsonRetentionPolicy policy) {
+        jsonRetention = policy == null ? JsonRetentionPolicy.Full : policy;
+    }
+
+    // Reads a page keeping pageResults as raw JSON; items are parsed the
+    // first time they are asked for, through pageResults or the list
+    // returned by convertPageResults.
+    public static PagedResult readLazily(JsonReader in) throws IOException {
+        PagedResult page = new PagedResult();
+
+        in.beginObject();
+        while (in.hasNext()) {
+            String name = in.nextName();
+
+            if (in.peek() == JsonToken.NULL) {
+                in.nextNull();
+            } else if (name.equals("nextToken")) {
+                page.nextToken = in.nextString();
+            } else if (name.equals("previousToken")) {
+                page.previousToken = in.nextString();
+            } else if (name.equals("currentToken")) {
+                page.currentToken = in.nextString();
+            } else if (name.equals("pageResults")) {
+                page.pageResults = RawPageResults.read(in);
+            } else {
+                in.skipValue();
+            }
+        }
+        in.endObject();
+
+        return page;
+    }
+
     public <T extends ModelBase> List<T> convertPageResults(Class<T> clazz) {
+
+        TypeAdapter<T> adapter = BuddyCodec.getAdapter(clazz);
+
+        if (pageResults instanceof RawPageResults) {
+            return new LazyModelList<T>(this, adapter);
+        }
+
         List<T> result = new ArrayList<T>();
 
-        Gson gson = JsonEnvelopeDeserializer.makeGsonDeserializer();
+        for (int i = 0; i < pageResults.size(); i++) {
+            result.add(convertItem(i, adapter));
+        }
+        return result;
+    }
+
+    private static final int MinItemsPerTask = 32;
+
+    // Converts the page on the given executor, in order.  Pages smaller
+    // than parallelThreshold are converted on the calling thread.  Don't
+    // call this from a task running on a bounded executor that is also
+    // passed in, as it blocks until every chunk is done.
+    @SuppressWarnings("unchecked")
+    public <T extends ModelBase> List<T> convertPageResults(Class<T> clazz, ExecutorService executor, int parallelThreshold) throws InterruptedException {
+
+        final TypeAdapter<T> adapter = BuddyCodec.getAdapter(clazz);
+        final int size = pageResults.size();
+
+        final Object[] models = new Object[size];
 
-        Type ty =  TypeToken.get(clazz).getType();
+        if (executor == null || size < parallelThreshold) {
+            for (int i = 0; i < size; i++) {
+                models[i] = convertItem(i, adapter);
+            }
+        } else {
+            int tasks = Math.max(1, Math.min(size / MinItemsPerTask, Runtime.getRuntime().availableProcessors() * 4));
+            int chunk = (size + tasks - 1) / tasks;
 
-        for(JsonObject jObj : pageResults){
-            T currentObj = gson.fromJson(jObj,ty);
-            currentObj.setJsonObject(jObj);
-            result.add(currentObj);
+            List<Callable<Void>> work = new ArrayList<Callable<Void>>();
+
+            for (int start = 0; start < size; start += chunk) {
+                final int from = start;
+                final int to = Math.min(size, start + chunk);
+
+                work.add(new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        for (int i = from; i < to; i++) {
+                            models[i] = convertItem(i, adapter);
+                        }
+                        return null;
+                    }
+                });
+            }
+
+            for (Future<Void> f : executor.invokeAll(work)) {
+                try {
+                    f.get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) {
+                        throw (RuntimeException) e.getCause();
+                    }
+                    throw new JsonParseException(e.getCause());
+                }
+            }
+        }
+
+        List<T> result = new ArrayList<T>(size);
+        for (Object model : models) {
+            result.add((T) model);
         }
         return result;
     }
 
-}
\ No newline at end of file
+    private <T extends ModelBase> T convertItem(int index, TypeAdapter<T> adapter) {
+        T model;
+
+        if (pageResults instanceof RawPageResults && jsonRetention != JsonRetentionPolicy.Full) {
+            RawPageResults items = (RawPageResults) pageResults;
+            try {
+                model = adapter.fromJson(items.getReader(index));
+            } catch (IOException e) {
+                throw new JsonParseException(e);
+            }
+            if (jsonRetention == JsonRetentionPolicy.Lazy) {
+                model.setJsonSource(items.getBytes(index));
+            }
+        } else {
+            JsonObject jObj = pageResults.get(index);
+            model = adapter.fromJsonTree(jObj);
+            if (jsonRetention == JsonRetentionPolicy.Full) {
+                model.setJsonObject(jObj);
+            } else if (jsonRetention == JsonRetentionPolicy.Lazy) {
+                model.setJsonSource(CompactJson.toBytes(jObj));
+            }
+        }
+        return model;
+    }
+
+    private static class LazyModelList<T extends ModelBase> extends AbstractList<T> {
+
+        private final PagedResult page;
+        private final TypeAdapter<T> adapter;
+        private final Object[] models;
+
+        LazyModelList(PagedResult page, TypeAdapter<T> adapter) {
+            this.page = page;
+            this.adapter = adapter;
+            this.models = new Object[page.pageResults.size()];
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized T get(int index) {
+            T model = (T) models[index];
+
+            if (model == null) {
+                model = page.convertItem(index, adapter);
+                models[index] = model;
+            }
+            return model;
+        }
+
+        @Override
+        public int size() {
+            return models.length;
+        }
+    }
+
+}
@@ -0,0 +1,83 @@
+package com.buddy.sdk.models;
+
+import com.google.gson.JsonObject;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.util.AbstractList;
+import java.util.Arrays;
+
+// The items of a page kept as compact UTF-8 JSON in a single buffer, with
+// one offset per item.  Items are only parsed into a JsonObject when they
+// are asked for, so a page costs roughly its wire size until it's used.
+class RawPageResults extends AbstractList<JsonObject> {
+
+    private final byte[] buffer;
+    private final int[] offsets;
+    private final int size;
+
+    private RawPageResults(byte[] buffer, int[] offsets, int size) {
+        this.buffer = buffer;
+        this.offsets = offsets;
+        this.size = size;
+    }
+
+    // Copies the array at the reader's position token by token, without
+    // building a tree for any of the items.
+    static RawPageResults read(JsonReader in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JsonWriter out = new JsonWriter(new OutputStreamWriter(bytes, CompactJson.Charset));
+        out.setLenient(true);
+
+        int[] offsets = new int[16];
+        int size = 0;
+
+        in.beginArray();
+        while (in.hasNext()) {
+            if (size + 1 >= offsets.length) {
+                int[] grown = new int[offsets.length * 2];
+                System.arraycopy(offsets, 0, grown, 0, offsets.length);
+                offsets = grown;
+            }
+            CompactJson.copy(in, out);
+            out.flush();
+            offsets[++size] = bytes.size();
+        }
+        in.endArray();
+
+        // trimmed, as the stream's buffer and the offsets can be up to
+        // twice what they hold.
+        return new RawPageResults(bytes.toByteArray(), Arrays.copyOf(offsets, size + 1), size);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+        }
+    }
+
+    Reader getReader(int index) {
+        checkIndex(index);
+        return CompactJson.reader(buffer, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    byte[] getBytes(int index) {
+        checkIndex(index);
+        return Arrays.copyOfRange(buffer, offsets[index], offsets[index + 1]);
+    }
+
+    @Override
+    public JsonObject get(int index) {
+        checkIndex(index);
+        return CompactJson.parse(buffer, offsets[index], offsets[index + 1] - offsets[index]);
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,156 @@
+package com.buddy.sdk.models;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+// Deduplicates the strings read into models, so the thread, user id and
+// user name repeated on every row of a page share one instance.
+//
+// Strings from the named fields, or no longer than maxLength, are pooled.
+// Entries are weak, so the pool never keeps a string alive on its own, and
+// at capacity the least recently used entry is evicted so it stays bounded
+// without dropping the strings still in use.  The pool is split into
+// stripes by hash, each with its own lock and share of the capacity, so
+// threads converting pages in parallel rarely wait on each other.  The pool
+// only covers the models' own fields; use JsonRetentionPolicy.None or Lazy
+// so a duplicate isn't also held in each model's JsonObject.
+public final class StringPool {
+
+    private static final int Stripes = 16;
+
+    private static volatile StringPool shared;
+
+    private final int maxLength;
+    private final Set<String> fields;
+    private final Stripe[] stripes;
+
+    public StringPool(int capacity, int maxLength, String... fields) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.maxLength = maxLength;
+        this.fields = fields == null ? Collections.<String>emptySet() : new HashSet<String>(Arrays.asList(fields));
+
+        // small pools get fewer stripes so each still holds a few entries.
+        int count = Math.max(1, Math.min(Stripes, capacity / 4));
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            stripes[i] = new Stripe((capacity + count - 1 - i) / count);
+        }
+    }
+
+    // The pool used by the model adapters, or null for none.
+    public static StringPool getShared() {
+        return shared;
+    }
+
+    public static void setShared(StringPool pool) {
+        shared = pool;
+    }
+
+    static String pooled(String field, String value) {
+        StringPool pool = shared;
+        return pool == null ? value : pool.intern(field, value);
+    }
+
+    public String intern(String field, String value) {
+        if (value == null || (value.length() > maxLength && !fields.contains(field))) {
+            return value;
+        }
+
+        int hash = value.hashCode();
+        // spread the high bits so stripes don't follow the low bits alone.
+        hash ^= (hash >>> 16);
+        return stripes[(hash & 0x7fffffff) % stripes.length].intern(value);
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            size += stripe.size();
+        }
+        return size;
+    }
+
+    // One lock's worth of the pool: an access-ordered map of weak keys, so
+    // the eldest entry is always the least recently interned or looked up.
+    private static final class Stripe {
+
+        private final int capacity;
+        private final ReferenceQueue<String> cleared = new ReferenceQueue<String>();
+        private final LinkedHashMap<Key, Key> entries;
+
+        Stripe(final int capacity) {
+            this.capacity = Math.max(1, capacity);
+            this.entries = new LinkedHashMap<Key, Key>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, Key> eldest) {
+                    return size() > Stripe.this.capacity;
+                }
+            };
+        }
+
+        synchronized String intern(String value) {
+            purge();
+
+            Key existing = entries.get(new Key(value, null));
+            String string = existing == null ? null : existing.get();
+            if (string != null) {
+                return string;
+            }
+
+            Key key = new Key(value, cleared);
+            entries.put(key, key);
+            return value;
+        }
+
+        synchronized int size() {
+            purge();
+            return entries.size();
+        }
+
+        // drops the entries whose strings have been collected.
+        private void purge() {
+            Reference<? extends String> ref;
+            while ((ref = cleared.poll()) != null) {
+                entries.remove(ref);
+            }
+        }
+    }
+
+    // A weak reference that hashes and compares by its string's contents,
+    // and by identity once the string is gone so it can still be removed.
+    private static final class Key extends WeakReference<String> {
+
+        private final int hash;
+
+        Key(String value, ReferenceQueue<String> queue) {
+            super(value, queue);
+            this.hash = value.hashCode();
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (o == this) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            String value = get();
+            return value != null && value.equals(((Key) o).get());
+        }
+    }
+}
@@ -2,7 +2,12 @@ package com.buddy.sdk.models;
 
 import com.buddy.sdk.BuddyCallback;
 import com.buddy.sdk.BuddyClient;
+import com.buddy.sdk.BuddyClientImpl;
 import com.buddy.sdk.BuddyResult;
+import com.buddy.sdk.RequestPriority;
+
+import java.util.HashMap;
+import java.util.Map;
 
 public class TimedMetric extends ModelBase {
 
@@ -14,9 +19,10 @@ public class TimedMetric extends ModelBase {
     public void finish(final BuddyCallback<Boolean> callback) {
         if (client != null && id != null) {
 
+            Map<String, Object> parameters = new HashMap<String, Object>();
+            parameters.put(BuddyClientImpl.CallPriority, RequestPriority.Background);
 
-
-            client.<Boolean>delete("/metrics/events/" + id, null, new BuddyCallback<Boolean>(Boolean.class) {
+            client.<Boolean>delete("/metrics/events/" + id, parameters, new BuddyCallback<Boolean>(Boolean.class) {
                 @Override
                 public void completed(BuddyResult<Boolean> result) {
                     TimedMetric.this.client = null;
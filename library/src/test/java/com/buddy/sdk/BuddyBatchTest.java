@@ -0,0 +1,375 @@
+package com.buddy.sdk;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuddyBatchTest {
+
+    // Answers /greeting and /missing, echoes anything else as the result,
+    // and takes batches of those on /batch when it has the endpoint.
+    private static class BatchServer extends LocalHttpServer {
+        volatile boolean hasBatchEndpoint = true;
+        volatile int batchStatus = 200;
+        final AtomicInteger batches = new AtomicInteger();
+
+        BatchServer() throws IOException {
+        }
+
+        static JsonObject respond(String method, String path, JsonObject parameters) {
+            JsonObject envelope = new JsonObject();
+            if (path.equals("/missing")) {
+                envelope.addProperty("status", 404);
+                envelope.addProperty("error", "RecordNotFound");
+                envelope.addProperty("errorNumber", 404);
+                return envelope;
+            }
+            envelope.addProperty("status", 200);
+            if (path.equals("/greeting")) {
+                envelope.addProperty("result", "hello");
+            } else {
+                JsonObject echo = new JsonObject();
+                echo.addProperty("method", method);
+                echo.addProperty("path", path);
+                echo.add("parameters", parameters);
+                envelope.add("result", echo);
+            }
+            return envelope;
+        }
+
+        @Override
+        protected void handle(HttpExchange exchange) throws IOException {
+            String path = exchange.getRequestURI().getPath();
+            String body = new String(readFully(exchange.getRequestBody()), "UTF-8");
+
+            JsonObject response;
+            if (path.equals("/batch")) {
+                batches.incrementAndGet();
+                if (!hasBatchEndpoint) {
+                    response = respond("POST", "/missing", null);
+                } else if (batchStatus != 200) {
+                    response = new JsonObject();
+                    response.addProperty("status", batchStatus);
+                    response.addProperty("error", "InternalServiceError");
+                } else {
+                    JsonObject responses = new JsonObject();
+                    JsonArray list = new JsonArray();
+                    for (JsonElement request : new JsonParser().parse(body).getAsJsonObject().getAsJsonArray("requests")) {
+                        JsonObject r = request.getAsJsonObject();
+                        JsonObject item = new JsonObject();
+                        item.add("id", r.get("id"));
+                        item.add("body", respond(r.get("method").getAsString(), r.get("path").getAsString(), r.getAsJsonObject("parameters")));
+                        list.add(item);
+                    }
+                    responses.add("responses", list);
+                    response = new JsonObject();
+                    response.addProperty("status", 200);
+                    response.add("result", responses);
+                }
+            } else {
+                JsonObject parameters = new JsonObject();
+                if (body.length() > 0) {
+                    parameters = new JsonParser().parse(body).getAsJsonObject();
+                } else if (exchange.getRequestURI().getRawQuery() != null) {
+                    for (String pair : exchange.getRequestURI().getRawQuery().split("&")) {
+                        String[] kv = pair.split("=", 2);
+                        parameters.addProperty(URLDecoder.decode(kv[0], "UTF-8"), URLDecoder.decode(kv[1], "UTF-8"));
+                    }
+                }
+                response = respond(exchange.getRequestMethod(), path, parameters);
+            }
+            send(exchange, response.get("status").getAsInt(), "application/json", response.toString().getBytes("UTF-8"));
+        }
+    }
+
+    private BatchServer server;
+    private BuddyClientOptions options;
+    private AtomicBoolean endpointMissing;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new BatchServer();
+        options = new BuddyClientOptions();
+        endpointMissing = new AtomicBoolean();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private BuddyBatch newBatch() {
+        return new BuddyBatch(new LocalServiceClient(server, options), null, options, endpointMissing);
+    }
+
+    private static <T> BuddyResult<T> await(Future<BuddyResult<T>> future) throws InterruptedException, ExecutionException {
+        try {
+            return future.get(10, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError("no result");
+        }
+    }
+
+    private static class Recorder<T> extends BuddyCallback<T> {
+        volatile int calls;
+        volatile BuddyResult<T> result;
+
+        Recorder(Class<T> clazz) {
+            super(clazz);
+        }
+
+        @Override
+        public void completed(BuddyResult<T> result) {
+            calls++;
+            this.result = result;
+        }
+
+        // the callback runs just after the future completes.
+        void awaitCalls(int expected) throws InterruptedException {
+            for (int i = 0; i < 500 && calls < expected; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(expected, calls);
+        }
+    }
+
+    private Map<String, Object> parameters(String name, Object value) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(name, value);
+        return parameters;
+    }
+
+    // queues one of everything: a string GET, an echoed POST and a failing GET.
+    private Future<?>[] queue(BuddyBatch batch, Recorder<JsonObject> posted) {
+        return new Future<?>[]{
+                batch.get("/greeting", null, String.class),
+                batch.post("/messages", parameters("subject", "hi"), posted),
+                batch.get("/missing", null, String.class)
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private void checkResults(Future<?>[] futures, Recorder<JsonObject> posted) throws Exception {
+        BuddyResult<String> greeting = await((Future<BuddyResult<String>>) futures[0]);
+        assertTrue(greeting.getIsSuccess());
+        assertEquals("hello", greeting.getResult());
+
+        BuddyResult<JsonObject> message = await((Future<BuddyResult<JsonObject>>) futures[1]);
+        assertEquals("POST", message.getResult().get("method").getAsString());
+        assertEquals("hi", message.getResult().getAsJsonObject("parameters").get("subject").getAsString());
+        posted.awaitCalls(1);
+
+        BuddyResult<String> missing = await((Future<BuddyResult<String>>) futures[2]);
+        assertEquals("RecordNotFound", missing.getError());
+        assertEquals(404, missing.getErrorCode());
+    }
+
+    @Test
+    public void testCallsGoOutInOneRequest() throws Exception {
+        BuddyBatch batch = newBatch();
+        Recorder<JsonObject> posted = new Recorder<JsonObject>(JsonObject.class);
+        Future<?>[] futures = queue(batch, posted);
+        assertEquals(3, batch.size());
+
+        batch.send();
+        checkResults(futures, posted);
+
+        assertEquals(1, server.getRequestCount());
+        assertEquals(1, server.batches.get());
+    }
+
+    @Test
+    public void testFallsBackToSeparateCallsWithoutABatchEndpoint() throws Exception {
+        server.hasBatchEndpoint = false;
+
+        Recorder<JsonObject> posted = new Recorder<JsonObject>(JsonObject.class);
+        BuddyBatch batch = newBatch();
+        Future<?>[] futures = queue(batch, posted);
+        batch.send();
+        checkResults(futures, posted);
+        assertEquals(1 + 3, server.getRequestCount());
+
+        // the next batch doesn't ask again.
+        posted = new Recorder<JsonObject>(JsonObject.class);
+        batch = newBatch();
+        futures = queue(batch, posted);
+        batch.send();
+        checkResults(futures, posted);
+        assertEquals(1 + 3 + 3, server.getRequestCount());
+        assertEquals(1, server.batches.get());
+    }
+
+    @Test
+    public void testNoBatchPathSendsCallsSeparately() throws Exception {
+        options.batchPath = null;
+
+        Recorder<JsonObject> posted = new Recorder<JsonObject>(JsonObject.class);
+        BuddyBatch batch = newBatch();
+        Future<?>[] futures = queue(batch, posted);
+        batch.send();
+        checkResults(futures, posted);
+        assertEquals(0, server.batches.get());
+    }
+
+    @Test
+    public void testSingleCallIsNotBatched() throws Exception {
+        BuddyBatch batch = newBatch();
+        Future<BuddyResult<String>> greeting = batch.get("/greeting", null, String.class);
+        batch.send();
+
+        assertEquals("hello", await(greeting).getResult());
+        assertEquals(0, server.batches.get());
+    }
+
+    @Test
+    public void testFailedBatchFailsEveryCall() throws Exception {
+        server.batchStatus = 500;
+
+        BuddyBatch batch = newBatch();
+        Future<BuddyResult<String>> first = batch.get("/greeting", null, String.class);
+        Future<BuddyResult<String>> second = batch.get("/greeting", Collections.<String, Object>singletonMap("x", "1"), String.class);
+        batch.send();
+
+        assertEquals("InternalServiceError", await(first).getError());
+        assertEquals("InternalServiceError", await(second).getError());
+        assertNull(await(second).getResult());
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testResultFieldsApplyToBatchedCalls() throws Exception {
+        BuddyBatch batch = newBatch();
+        Map<String, Object> parameters = parameters("subject", "hi");
+        parameters.put(BuddyClientImpl.ResultFields, "method");
+        Future<BuddyResult<JsonObject>> projected = batch.post("/messages", parameters, JsonObject.class);
+        batch.get("/greeting", null, String.class);
+        batch.send();
+
+        JsonObject result = await(projected).getResult();
+        assertEquals("POST", result.get("method").getAsString());
+        assertNull(result.get("parameters"));
+    }
+
+    @Test
+    public void testBatchCanOnlyBeSentOnce() throws Exception {
+        BuddyBatch batch = newBatch();
+        batch.get("/greeting", null, String.class);
+        batch.send();
+
+        try {
+            batch.send();
+            fail();
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+        try {
+            batch.get("/greeting", null, String.class);
+            fail();
+        } catch (IllegalStateException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testCallWithItsOwnOptionsIsSentAlone() throws Exception {
+        BuddyBatch batch = newBatch();
+        Future<BuddyResult<String>> timed = batch.get("/greeting", parameters(BuddyClientImpl.CallTimeout, 5000), String.class);
+        Future<BuddyResult<String>> first = batch.get("/greeting", null, String.class);
+        Future<BuddyResult<String>> second = batch.get("/greeting", parameters("x", "1"), String.class);
+        batch.send();
+
+        assertEquals("hello", await(timed).getResult());
+        assertEquals("hello", await(first).getResult());
+        assertEquals("hello", await(second).getResult());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.batches.get());
+    }
+
+    @Test
+    public void testGetsAreSentAloneWhenTheClientCaches() throws Exception {
+        options.responseCache = new ResponseCache(16);
+
+        BuddyBatch batch = newBatch();
+        Future<BuddyResult<String>> greeting = batch.get("/greeting", null, String.class);
+        Future<BuddyResult<JsonObject>> first = batch.post("/messages", parameters("subject", "a"), JsonObject.class);
+        Future<BuddyResult<JsonObject>> second = batch.post("/messages", parameters("subject", "b"), JsonObject.class);
+        batch.send();
+
+        assertEquals("hello", await(greeting).getResult());
+        assertEquals("a", await(first).getResult().getAsJsonObject("parameters").get("subject").getAsString());
+        assertEquals("b", await(second).getResult().getAsJsonObject("parameters").get("subject").getAsString());
+        assertEquals(2, server.getRequestCount());
+        assertEquals(1, server.batches.get());
+    }
+
+    // gets its call's result from the future while it's called back.
+    private static class GetsOwnResult extends BuddyCallback<String> {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile Future<BuddyResult<String>> future;
+        volatile BuddyResult<String> got;
+
+        GetsOwnResult() {
+            super(String.class);
+        }
+
+        @Override
+        public void completed(BuddyResult<String> result) {
+            try {
+                got = future.get(1, TimeUnit.SECONDS);
+            } catch (Exception e) {
+                // left null.
+            }
+            done.countDown();
+        }
+    }
+
+    @Test
+    public void testCallbackCanGetItsOwnResult() throws Exception {
+        BuddyBatch batch = newBatch();
+        GetsOwnResult callback = new GetsOwnResult();
+        callback.future = batch.get("/greeting", null, callback);
+        Future<BuddyResult<String>> other = batch.get("/greeting", parameters("x", "1"), String.class);
+        batch.send();
+
+        await(other);
+        assertTrue(callback.done.await(10, TimeUnit.SECONDS));
+        assertTrue(await(callback.future) == callback.got);
+    }
+
+    @Test
+    public void testCancelledCallIsNotCalledBack() throws Exception {
+        BuddyBatch batch = newBatch();
+        Recorder<String> cancelled = new Recorder<String>(String.class);
+        Future<BuddyResult<String>> first = batch.get("/greeting", null, cancelled);
+        Future<BuddyResult<String>> second = batch.get("/greeting", parameters("x", "1"), String.class);
+        assertTrue(first.cancel(true));
+        batch.send();
+
+        assertEquals("hello", await(second).getResult());
+        assertEquals(0, cancelled.calls);
+    }
+}
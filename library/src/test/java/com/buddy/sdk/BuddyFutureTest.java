@@ -0,0 +1,152 @@
+package com.buddy.sdk;
+
+import org.junit.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BuddyFutureTest {
+
+    @Test
+    public void testContinuationRunsWhenValueArrivesLater() throws Exception {
+        final BuddyFuture<String> future = new BuddyFuture<String>();
+        final AtomicInteger calls = new AtomicInteger();
+
+        BuddyFuture<String> next = future.continueWith(new BuddyFutureCallback<String>() {
+            @Override
+            public void completed(BuddyFuture<String> f) {
+                calls.incrementAndGet();
+            }
+        });
+        assertFalse(next.isDone());
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                future.setValue("done");
+            }
+        }).start();
+
+        assertEquals("done", next.get(10, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+        assertTrue(future.isDone());
+    }
+
+    @Test
+    public void testContinuationRunsImmediatelyWhenDone() throws Exception {
+        BuddyFuture<String> future = new BuddyFuture<String>();
+        future.setValue("done");
+
+        final AtomicInteger calls = new AtomicInteger();
+        future.continueWith(new BuddyFutureCallback<String>() {
+            @Override
+            public void completed(BuddyFuture<String> f) {
+                calls.incrementAndGet();
+            }
+        });
+        assertEquals(1, calls.get());
+        assertEquals("done", future.get());
+    }
+
+    @Test
+    public void testCancelStopsTheFuture() throws Exception {
+        BuddyFuture<String> future = new BuddyFuture<String>();
+        final AtomicInteger calls = new AtomicInteger();
+        BuddyFuture<String> next = future.continueWith(new BuddyFutureCallback<String>() {
+            @Override
+            public void completed(BuddyFuture<String> f) {
+                calls.incrementAndGet();
+            }
+        });
+
+        assertTrue(future.cancel(true));
+        assertTrue(future.isCancelled());
+        assertTrue(future.isDone());
+        assertFalse(future.cancel(true));
+
+        // a late value is dropped and continuations don't run.
+        assertFalse(future.setValue("late"));
+        assertEquals(0, calls.get());
+        assertTrue(next.isCancelled());
+        try {
+            future.get();
+            fail();
+        } catch (CancellationException e) {
+            // expected.
+        }
+    }
+
+    @Test
+    public void testCancelReachesTheWorkBehindIt() {
+        BuddyFuture<String> future = new BuddyFuture<String>();
+        BuddyFuture<String> inner = new BuddyFuture<String>();
+        final AtomicInteger actions = new AtomicInteger();
+
+        future.propagateCancel(inner);
+        future.onCancel(new Runnable() {
+            @Override
+            public void run() {
+                actions.incrementAndGet();
+            }
+        });
+        future.cancel(false);
+
+        assertTrue(inner.isCancelled());
+        assertEquals(1, actions.get());
+
+        // registered after the cancel, it runs straight away.
+        BuddyFuture<String> late = new BuddyFuture<String>();
+        future.propagateCancel(late);
+        assertTrue(late.isCancelled());
+    }
+
+    @Test
+    public void testCancellingAContinuationCancelsTheSource() {
+        BuddyFuture<String> future = new BuddyFuture<String>();
+        BuddyFuture<String> inner = new BuddyFuture<String>();
+        future.propagateCancel(inner);
+
+        BuddyFuture<String> next = future.continueWith(new BuddyFutureCallback<String>() {
+            @Override
+            public void completed(BuddyFuture<String> f) {
+            }
+        });
+        assertTrue(next.cancel(true));
+
+        assertTrue(future.isCancelled());
+        assertTrue(inner.isCancelled());
+    }
+
+    @Test
+    public void testCompletedFutureCantBeCancelled() throws Exception {
+        BuddyFuture<String> future = new BuddyFuture<String>();
+        BuddyFuture<String> inner = new BuddyFuture<String>();
+        future.propagateCancel(inner);
+
+        assertTrue(future.setValue("first"));
+        assertFalse(future.setValue("second"));
+
+        assertFalse(future.cancel(true));
+        assertFalse(future.isCancelled());
+        assertFalse(inner.isCancelled());
+        assertEquals("first", future.get());
+    }
+
+    @Test
+    public void testGetTimesOut() throws Exception {
+        BuddyFuture<String> future = new BuddyFuture<String>();
+        try {
+            future.get(10, TimeUnit.MILLISECONDS);
+            fail();
+        } catch (TimeoutException e) {
+            // expected.
+        }
+    }
+}
@@ -0,0 +1,207 @@
+package com.buddy.sdk;
+
+import com.buddy.sdk.models.User;
+import com.sun.net.httpserver.HttpExchange;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class BuddyLoaderTest {
+
+    // Serves users u0..u99 from /users/<id> and /users?ids=a,b,c, slowly
+    // enough for concurrent requests to overlap.
+    private static class UserServer extends LocalHttpServer {
+        final List<String> queries = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicInteger concurrent = new AtomicInteger();
+        final AtomicInteger maxConcurrent = new AtomicInteger();
+
+        UserServer() throws IOException {
+        }
+
+        private static boolean exists(String id) {
+            return id.matches("u\\d{1,2}");
+        }
+
+        private static String user(String id) {
+            return "{\"id\":\"" + id + "\",\"userName\":\"name-" + id + "\"}";
+        }
+
+        @Override
+        protected void handle(HttpExchange exchange) throws IOException {
+            int now = concurrent.incrementAndGet();
+            while (true) {
+                int max = maxConcurrent.get();
+                if (now <= max || maxConcurrent.compareAndSet(max, now)) {
+                    break;
+                }
+            }
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                return;
+            } finally {
+                // before the response goes out, so the client can't start
+                // the next request first.
+                concurrent.decrementAndGet();
+            }
+
+            String path = exchange.getRequestURI().getPath();
+            String query = exchange.getRequestURI().getRawQuery();
+
+            if (path.startsWith("/users/")) {
+                String id = URLDecoder.decode(path.substring("/users/".length()), "UTF-8");
+                queries.add(id);
+                if (exists(id)) {
+                    send(exchange, 200, "application/json", ("{\"status\":200,\"result\":" + user(id) + "}").getBytes("UTF-8"));
+                } else {
+                    send(exchange, 404, "application/json", "{\"status\":404,\"error\":\"RecordNotFound\",\"errorNumber\":404}".getBytes("UTF-8"));
+                }
+            } else if (path.equals("/users") && query != null && query.startsWith("ids=")) {
+                String ids = URLDecoder.decode(query.substring("ids=".length()), "UTF-8");
+                queries.add(ids);
+                StringBuilder page = new StringBuilder();
+                for (String id : ids.split(",")) {
+                    if (exists(id)) {
+                        page.append(page.length() == 0 ? "" : ",").append(user(id));
+                    }
+                }
+                send(exchange, 200, "application/json", ("{\"status\":200,\"result\":{\"pageResults\":[" + page + "]}}").getBytes("UTF-8"));
+            } else {
+                send(exchange, 404, "text/plain", new byte[0]);
+            }
+        }
+    }
+
+    private UserServer server;
+    private LoaderOptions options;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new UserServer();
+        options = new LoaderOptions();
+        options.windowMillis = 50;
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private BuddyLoader<User> newLoader() {
+        return new BuddyLoader<User>(new LocalServiceClient(server, new BuddyClientOptions()), "/users", User.class, options, null);
+    }
+
+    private static BuddyResult<User> await(Future<BuddyResult<User>> future) throws Exception {
+        try {
+            return future.get(10, TimeUnit.SECONDS);
+        } catch (TimeoutException e) {
+            throw new AssertionError("no result");
+        }
+    }
+
+    @Test
+    public void testDuplicateLookupsShareOneRequest() throws Exception {
+        BuddyLoader<User> loader = newLoader();
+        Future<BuddyResult<User>> first = loader.load("u1");
+        Future<BuddyResult<User>> second = loader.load("u1");
+        Future<BuddyResult<User>> other = loader.load("u2");
+
+        assertSame(first, second);
+        assertEquals("name-u1", await(first).getResult().userName);
+        assertEquals("name-u2", await(other).getResult().userName);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testResolvedIdsAreKept() throws Exception {
+        BuddyLoader<User> loader = newLoader();
+        await(loader.load("u1"));
+
+        // answered without the service.
+        final CountDownLatch called = new CountDownLatch(1);
+        final User[] user = new User[1];
+        loader.load("u1", new BuddyCallback<User>(User.class) {
+            @Override
+            public void completed(BuddyResult<User> result) {
+                user[0] = result.getResult();
+                called.countDown();
+            }
+        });
+        assertTrue(called.await(1, TimeUnit.SECONDS));
+        assertEquals("u1", user[0].id);
+        assertEquals(1, server.getRequestCount());
+
+        loader.clear("u1");
+        await(loader.load("u1"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testFailuresAreNotKept() throws Exception {
+        BuddyLoader<User> loader = newLoader();
+        BuddyResult<User> missing = await(loader.load("gone"));
+        assertEquals("RecordNotFound", missing.getError());
+
+        await(loader.load("gone"));
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testParallelRequestsAreBounded() throws Exception {
+        options.maxParallel = 3;
+        BuddyLoader<User> loader = newLoader();
+
+        List<Future<BuddyResult<User>>> futures = new ArrayList<Future<BuddyResult<User>>>();
+        for (int i = 0; i < 12; i++) {
+            futures.add(loader.load("u" + i));
+        }
+        for (int i = 0; i < 12; i++) {
+            assertEquals("u" + i, await(futures.get(i)).getResult().id);
+        }
+
+        assertEquals(12, server.getRequestCount());
+        assertTrue("max " + server.maxConcurrent.get(), server.maxConcurrent.get() <= 3);
+    }
+
+    @Test
+    public void testIdsResolvedWithListQueries() throws Exception {
+        options.idsParameter = "ids";
+        options.maxIdsPerQuery = 5;
+        BuddyLoader<User> loader = newLoader();
+
+        List<Future<BuddyResult<User>>> futures = new ArrayList<Future<BuddyResult<User>>>();
+        for (int i = 0; i < 12; i++) {
+            futures.add(loader.load("u" + i));
+            loader.load("u" + i);
+        }
+        Future<BuddyResult<User>> missing = loader.load("gone");
+
+        for (int i = 0; i < 12; i++) {
+            assertEquals("name-u" + i, await(futures.get(i)).getResult().userName);
+        }
+        BuddyResult<User> notFound = await(missing);
+        assertEquals("RecordNotFound", notFound.getError());
+        assertNull(notFound.getResult());
+
+        // 13 distinct ids, 5 to a query.
+        assertEquals(3, server.getRequestCount());
+        assertTrue(server.queries.contains("u0,u1,u2,u3,u4"));
+    }
+}
@@ -0,0 +1,491 @@
+package com.buddy.sdk;
+
+import com.buddy.sdk.models.User;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// The service client over a stand-in transport.  Off the main thread
+// calls are synchronous, unless the options have an executor.
+public class BuddyServiceClientImplTest {
+
+    private static final String Root = "http://buddy.test";
+
+    private static class Reply {
+        final int statusCode;
+        final String body;
+        final List<Header> headers = new ArrayList<Header>();
+        long delayMillis;
+
+        Reply(int statusCode, String body) {
+            this.statusCode = statusCode;
+            this.body = body;
+        }
+
+        Reply header(String name, String value) {
+            headers.add(new BasicHeader(name, value));
+            return this;
+        }
+
+        Reply after(long millis) {
+            delayMillis = millis;
+            return this;
+        }
+    }
+
+    private static Reply ok(String result) {
+        return new Reply(200, "{\"status\":200,\"result\":" + result + "}").header("Content-Type", "application/json");
+    }
+
+    // Answers each request on the thread it runs on, with the reply set
+    // for its path; a request with no reply waits until it's cancelled.
+    private static class StubTransport implements BuddyTransport {
+        final List<Request> requests = Collections.synchronizedList(new ArrayList<Request>());
+        final Map<String, Reply> replies = new ConcurrentHashMap<String, Reply>();
+        final AtomicInteger cancels = new AtomicInteger();
+        final AtomicInteger interrupts = new AtomicInteger();
+
+        StubTransport() {
+            replies.put("/devices", new Reply(201, "{\"status\":201,\"result\":{\"accessToken\":\"device-token\",\"accessTokenExpires\":\"/Date(4102444800000)/\"}}"));
+        }
+
+        class Exchange implements Call {
+            private final CountDownLatch cancelled = new CountDownLatch(1);
+            private boolean done;
+
+            synchronized boolean start() {
+                if (cancelled.getCount() == 0) {
+                    return false;
+                }
+                done = true;
+                return true;
+            }
+
+            @Override
+            public synchronized boolean cancel(boolean mayInterruptIfRunning) {
+                if (done || cancelled.getCount() == 0) {
+                    return false;
+                }
+                cancelled.countDown();
+                cancels.incrementAndGet();
+                return true;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return cancelled.getCount() == 0;
+            }
+
+            @Override
+            public synchronized boolean isDone() {
+                return done || isCancelled();
+            }
+        }
+
+        @Override
+        public Call execute(final Request request, final Callback callback) {
+            requests.add(request);
+            final Exchange exchange = new Exchange();
+            if (!request.synchronous) {
+                new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        answer(request, callback, exchange);
+                    }
+                }).start();
+                return exchange;
+            }
+            if (callback instanceof CallListener) {
+                ((CallListener) callback).onCall(exchange);
+            }
+            answer(request, callback, exchange);
+            return exchange;
+        }
+
+        private void answer(Request request, Callback callback, Exchange exchange) {
+            Reply reply = replies.get(path(request));
+            try {
+                long wait = reply == null ? 10000 : reply.delayMillis;
+                if (wait > 0 && exchange.cancelled.await(wait, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            } catch (InterruptedException e) {
+                interrupts.incrementAndGet();
+                return;
+            }
+            if (!exchange.start()) {
+                return;
+            }
+            try {
+                if (reply == null) {
+                    throw new IOException("no reply");
+                }
+                callback.onResponse(new Response(reply.statusCode, "", reply.headers.toArray(new Header[0]),
+                        new ByteArrayInputStream(reply.body.getBytes("UTF-8"))));
+            } catch (IOException e) {
+                callback.onFailure(e);
+            }
+        }
+
+        List<Request> requestsTo(String path) {
+            List<Request> matching = new ArrayList<Request>();
+            synchronized (requests) {
+                for (Request request : requests) {
+                    if (path(request).equals(path)) {
+                        matching.add(request);
+                    }
+                }
+            }
+            return matching;
+        }
+
+        void awaitRequestTo(String path) throws InterruptedException {
+            for (int i = 0; i < 500 && requestsTo(path).isEmpty(); i++) {
+                Thread.sleep(10);
+            }
+            assertFalse("no request to " + path, requestsTo(path).isEmpty());
+        }
+
+        private static String path(Request request) {
+            String url = request.url.substring(Root.length());
+            int query = url.indexOf('?');
+            return query < 0 ? url : url.substring(0, query);
+        }
+    }
+
+    private static class Recorder<T> extends BuddyCallback<T> {
+        final List<BuddyResult<T>> results = Collections.synchronizedList(new ArrayList<BuddyResult<T>>());
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<Thread>());
+
+        Recorder(Class<T> clazz) {
+            super(clazz);
+        }
+
+        @Override
+        public void completed(BuddyResult<T> result) {
+            threads.add(Thread.currentThread());
+            results.add(result);
+        }
+
+        void awaitCalls(int calls) throws InterruptedException {
+            for (int i = 0; i < 500 && results.size() < calls; i++) {
+                Thread.sleep(10);
+            }
+            assertEquals(calls, results.size());
+        }
+    }
+
+    private StubTransport transport;
+    private BuddyClientOptions options;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() {
+        transport = new StubTransport();
+        options = new BuddyClientOptions();
+        options.transport = transport;
+        options.serviceRoot = Root;
+    }
+
+    @After
+    public void tearDown() {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+    }
+
+    private BuddyServiceClientImpl newServiceClient() {
+        return (BuddyServiceClientImpl) new BuddyClientImpl(null, "app", "key", options).getServiceClient();
+    }
+
+    private void useExecutor() {
+        executor = Executors.newCachedThreadPool();
+        options.executor = executor;
+    }
+
+    private static Map<String, Object> timeout(long millis) {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(BuddyClientImpl.CallTimeout, millis);
+        return parameters;
+    }
+
+    private static <T> BuddyResult<T> get(BuddyServiceClientImpl service, String path, Map<String, Object> parameters, Class<T> clazz) throws Exception {
+        return service.makeRequest(BuddyServiceClient.GET, path, parameters, null, clazz).get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testResultCompletesTheFutureAndCallsBackOnce() throws Exception {
+        transport.replies.put("/users/me", ok("\"hi\""));
+        Recorder<String> callback = new Recorder<String>(String.class);
+
+        Future<BuddyResult<String>> future = newServiceClient().makeRequest(BuddyServiceClient.GET, "/users/me", new HashMap<String, Object>(), callback, null);
+
+        assertTrue(future.isDone());
+        assertEquals("hi", future.get().getResult());
+        assertEquals(1, callback.results.size());
+        assertSame(future.get(), callback.results.get(0));
+        assertEquals("Buddy device-token", transport.requestsTo("/users/me").get(0).getHeader("Authorization"));
+    }
+
+    @Test
+    public void testMagicParametersAreTakenOutOfTheRequest() throws Exception {
+        transport.replies.put("/users/me", ok("{\"id\":\"u1\",\"userName\":\"al\",\"firstName\":\"Al\"}"));
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put("q", "x");
+        parameters.put(BuddyClientImpl.CallPriority, RequestPriority.Interactive);
+        parameters.put(BuddyClientImpl.CallTimeout, 5000);
+        parameters.put(BuddyClientImpl.ResultFields, "userName");
+        parameters.put(BuddyClientImpl.ResultCachePolicy, CachePolicy.NetworkOnly);
+        parameters.put(BuddyClientImpl.NoRegisterDevice, true);
+
+        BuddyResult<User> result = get(newServiceClient(), "/users/me", parameters, User.class);
+
+        BuddyTransport.Request request = transport.requestsTo("/users/me").get(0);
+        assertFalse(request.url, request.url.contains("__"));
+        assertTrue(request.url, request.url.contains("q=x"));
+        assertEquals(RequestPriority.Interactive, request.priority);
+        assertNull(request.getHeader("Authorization"));
+        assertTrue(transport.requestsTo("/devices").isEmpty());
+        assertEquals("al", result.getResult().userName);
+        assertNull(result.getResult().firstName);
+    }
+
+    @Test
+    public void testSynchronousTimeoutIsReturnedOnTheCallersThread() throws Exception {
+        Recorder<String> callback = new Recorder<String>(String.class);
+        long start = System.nanoTime();
+
+        Future<BuddyResult<String>> future = newServiceClient().makeRequest(BuddyServiceClient.GET, "/slow", timeout(200), callback, null);
+
+        assertTrue(future.isDone());
+        assertEquals("RequestTimeout", future.get().getError());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 5000);
+        assertEquals(1, callback.results.size());
+        assertSame(Thread.currentThread(), callback.threads.get(0));
+        // the blocked request was cancelled, without interrupting the caller.
+        assertEquals(1, transport.cancels.get());
+        assertEquals(0, transport.interrupts.get());
+        assertFalse(Thread.interrupted());
+    }
+
+    @Test
+    public void testTimeoutRacingTheResultCallsBackOnce() throws Exception {
+        useExecutor();
+        BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/race", ok("\"late\"").after(50));
+
+        for (int i = 0; i < 20; i++) {
+            Recorder<String> callback = new Recorder<String>(String.class);
+            BuddyResult<String> result = service.makeRequest(BuddyServiceClient.GET, "/race", timeout(50), callback, null).get(5, TimeUnit.SECONDS);
+
+            Thread.sleep(60);
+            assertEquals(1, callback.results.size());
+            assertSame(result, callback.results.get(0));
+            assertFalse(callback.threads.get(0).getName().equals("BuddyDeadlines"));
+        }
+    }
+
+    @Test
+    public void testCancelReachesTheTransport() throws Exception {
+        useExecutor();
+        Recorder<String> callback = new Recorder<String>(String.class);
+        Future<BuddyResult<String>> future = newServiceClient().makeRequest(BuddyServiceClient.GET, "/slow", new HashMap<String, Object>(), callback, null);
+        transport.awaitRequestTo("/slow");
+
+        assertTrue(future.cancel(true));
+
+        for (int i = 0; i < 500 && transport.cancels.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, transport.cancels.get());
+        assertTrue(callback.results.isEmpty());
+    }
+
+    @Test
+    public void testIdenticalGetsShareOneRequestWhenCoalescing() throws Exception {
+        options.coalesceRequests = true;
+        useExecutor();
+        BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/users/me", ok("\"hi\"").after(200));
+        // registers the device first, so both calls carry the same token.
+        transport.replies.put("/ping", ok("\"pong\""));
+        get(service, "/ping", null, String.class);
+
+        Future<BuddyResult<String>> first = service.makeRequest(BuddyServiceClient.GET, "/users/me", null, null, String.class);
+        Future<BuddyResult<String>> second = service.makeRequest(BuddyServiceClient.GET, "/users/me", null, null, String.class);
+
+        assertEquals("hi", first.get(5, TimeUnit.SECONDS).getResult());
+        assertEquals("hi", second.get(5, TimeUnit.SECONDS).getResult());
+        assertEquals(1, transport.requestsTo("/users/me").size());
+        assertEquals(1, service.getCoalescingStats().coalesced);
+    }
+
+    @Test
+    public void testIdenticalGetsAreSentSeparatelyByDefault() throws Exception {
+        useExecutor();
+        BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/users/me", ok("\"hi\"").after(200));
+        transport.replies.put("/ping", ok("\"pong\""));
+        get(service, "/ping", null, String.class);
+
+        Future<BuddyResult<String>> first = service.makeRequest(BuddyServiceClient.GET, "/users/me", null, null, String.class);
+        Future<BuddyResult<String>> second = service.makeRequest(BuddyServiceClient.GET, "/users/me", null, null, String.class);
+
+        first.get(5, TimeUnit.SECONDS);
+        second.get(5, TimeUnit.SECONDS);
+        assertEquals(2, transport.requestsTo("/users/me").size());
+    }
+
+    @Test
+    public void testSynchronousFollowerTimesOutWithoutTheLeader() throws Exception {
+        options.coalesceRequests = true;
+        final BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/ping", ok("\"pong\""));
+        get(service, "/ping", null, String.class);
+
+        Thread leader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                service.makeRequest(BuddyServiceClient.GET, "/slow", timeout(1000), null, String.class);
+            }
+        });
+        leader.start();
+        transport.awaitRequestTo("/slow");
+
+        long start = System.nanoTime();
+        BuddyResult<String> result = get(service, "/slow", timeout(200), String.class);
+
+        assertEquals("RequestTimeout", result.getError());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 900);
+        assertEquals(1, service.getCoalescingStats().coalesced);
+        leader.join(5000);
+        assertEquals(1, transport.requestsTo("/slow").size());
+    }
+
+    @Test
+    public void testFreshResultIsAnsweredFromTheCache() throws Exception {
+        options.responseCache = new ResponseCache(16);
+        BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/users/me", ok("\"hi\"").header("Cache-Control", "max-age=60"));
+
+        assertEquals("hi", get(service, "/users/me", null, String.class).getResult());
+        assertEquals("hi", get(service, "/users/me", null, String.class).getResult());
+
+        assertEquals(1, transport.requestsTo("/users/me").size());
+        assertEquals(1, options.responseCache.getStats().hits);
+    }
+
+    @Test
+    public void testStaleWhileRevalidateCallsBackAgainWithAChange() throws Exception {
+        options.responseCache = new ResponseCache(16);
+        BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/feed", ok("\"v1\"").header("ETag", "\"a\""));
+        get(service, "/feed", null, String.class);
+
+        transport.replies.put("/feed", ok("\"v2\"").header("ETag", "\"b\""));
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(BuddyClientImpl.ResultCachePolicy, CachePolicy.staleWhileRevalidate(60000));
+        Recorder<String> callback = new Recorder<String>(String.class);
+        Future<BuddyResult<String>> future = service.makeRequest(BuddyServiceClient.GET, "/feed", parameters, callback, null);
+
+        // answered from the cache, then refreshed in the background.
+        assertEquals("v1", future.get(5, TimeUnit.SECONDS).getResult());
+        callback.awaitCalls(2);
+        assertEquals("v1", callback.results.get(0).getResult());
+        assertEquals("v2", callback.results.get(1).getResult());
+        assertEquals("\"a\"", transport.requestsTo("/feed").get(1).getHeader("If-None-Match"));
+        assertEquals(RequestPriority.Background, transport.requestsTo("/feed").get(1).priority);
+    }
+
+    @Test
+    public void testFailureIsRememberedWithNegativeCaching() throws Exception {
+        options.responseCache = new ResponseCache(16);
+        options.responseCache.setNegativeCaching(60000, 404);
+        BuddyServiceClientImpl service = newServiceClient();
+        transport.replies.put("/users/gone", new Reply(404, "{\"status\":404,\"error\":\"RecordNotFound\",\"errorNumber\":404}")
+                .header("Content-Type", "application/json"));
+
+        assertEquals("RecordNotFound", get(service, "/users/gone", null, String.class).getError());
+        assertEquals("RecordNotFound", get(service, "/users/gone", null, String.class).getError());
+
+        assertEquals(1, transport.requestsTo("/users/gone").size());
+        assertEquals(1, options.responseCache.getStats().negativeHits);
+    }
+
+    // no device to register first, so the call starts on the caller's thread.
+    private static Map<String, Object> noDevice() {
+        Map<String, Object> parameters = new HashMap<String, Object>();
+        parameters.put(BuddyClientImpl.NoRegisterDevice, true);
+        return parameters;
+    }
+
+    // Records the threads that look entries up.
+    private static class RecordingCache extends ResponseCache {
+        final List<Thread> readers = Collections.synchronizedList(new ArrayList<Thread>());
+
+        RecordingCache(File directory) {
+            super(16, directory, 1 << 20);
+        }
+
+        @Override
+        Entry get(String key, String path) {
+            readers.add(Thread.currentThread());
+            return super.get(key, path);
+        }
+    }
+
+    @Test
+    public void testDiskEntryIsReadOffTheCallersThread() throws Exception {
+        File directory = File.createTempFile("buddy-cache", "");
+        directory.delete();
+        try {
+            options.responseCache = new ResponseCache(16, directory, 1 << 20);
+            transport.replies.put("/users/me", ok("\"hi\"").header("Cache-Control", "max-age=60"));
+            get(newServiceClient(), "/users/me", noDevice(), String.class);
+
+            // a new cache over the same directory only has it on disk.
+            RecordingCache cache = new RecordingCache(directory);
+            options.responseCache = cache;
+            useExecutor();
+            assertEquals("hi", get(newServiceClient(), "/users/me", noDevice(), String.class).getResult());
+
+            assertEquals(1, transport.requestsTo("/users/me").size());
+            assertEquals(1, cache.getStats().hits);
+            assertEquals(1, cache.readers.size());
+            assertFalse(cache.readers.get(0) == Thread.currentThread());
+        } finally {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    file.delete();
+                }
+            }
+            directory.delete();
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package com.buddy.sdk;
+
+import com.buddy.sdk.models.Message;
+import com.buddy.sdk.models.PagedResult;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class CborWireFormatTest {
+
+    private final CborWireFormat cbor = new CborWireFormat();
+
+    private static String messagesPage(int rows) {
+        StringBuilder json = new StringBuilder("{\"status\":200,\"request_id\":\"req.1\",\"result\":{\"nextToken\":\"n.1\",\"pageResults\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"m.").append(i).append("\",\"created\":\"/Date(14200704").append(10000 + i).append(")/\",")
+                .append("\"subject\":\"hello\",\"body\":\"message body number ").append(i).append("\",")
+                .append("\"thread\":\"thread.1\",\"fromUserId\":\"u.1\",\"fromUserName\":\"alice\",")
+                .append("\"toUserId\":\"u.2\",\"toUserName\":\"bob\",\"isNew\":").append(i % 2 == 0)
+                .append(",\"type\":\"Received\"}");
+        }
+        return json.append("]}}").toString();
+    }
+
+    private static String checkinsPage(int rows) {
+        StringBuilder json = new StringBuilder("{\"status\":200,\"result\":{\"pageResults\":[");
+        for (int i = 0; i < rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"c.").append(i).append("\",\"comment\":\"checked in\",\"description\":null,")
+                .append("\"location\":{\"lat\":47.61").append(i).append(",\"lng\":-122.33").append(i).append("}}");
+        }
+        return json.append("]}}").toString();
+    }
+
+    private byte[] encode(JsonElement value) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        cbor.write(value, out);
+        return out.toByteArray();
+    }
+
+    private JsonElement decode(byte[] bytes) throws IOException {
+        return cbor.read(new ByteArrayInputStream(bytes));
+    }
+
+    @Test
+    public void testReadsRfcExamples() throws IOException {
+        // {"a": 1, "b": [2, 3]}
+        assertEquals(new JsonParser().parse("{\"a\":1,\"b\":[2,3]}"),
+                decode(new byte[]{(byte) 0xa2, 0x61, 0x61, 0x01, 0x61, 0x62, (byte) 0x82, 0x02, 0x03}));
+        // indefinite ["a", {"b": "c"}] with a half float 1.0
+        assertEquals(new JsonParser().parse("[\"a\",{\"b\":\"c\"},1.0]"),
+                decode(new byte[]{(byte) 0x9f, 0x61, 0x61, (byte) 0xbf, 0x61, 0x62, 0x61, 0x63, (byte) 0xff, (byte) 0xf9, 0x3c, 0x00, (byte) 0xff}));
+        assertEquals(-1000, decode(new byte[]{0x39, 0x03, (byte) 0xe7}).getAsInt());
+        assertEquals("18446744073709551615",
+                decode(new byte[]{0x1b, -1, -1, -1, -1, -1, -1, -1, -1}).getAsBigInteger().toString());
+    }
+
+    @Test
+    public void testWritesRfcExamples() throws IOException {
+        assertArrayEquals(new byte[]{0x18, 0x64}, encode(new JsonParser().parse("100")));
+        assertArrayEquals(new byte[]{0x39, 0x03, (byte) 0xe7}, encode(new JsonParser().parse("-1000")));
+        assertArrayEquals(new byte[]{(byte) 0xfb, 0x3f, (byte) 0xf1, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x99, (byte) 0x9a},
+                encode(new JsonParser().parse("1.1")));
+    }
+
+    @Test
+    public void testRoundTripIsSmallerThanJson() throws IOException {
+        for (String json : new String[]{messagesPage(50), checkinsPage(50)}) {
+            JsonElement tree = new JsonParser().parse(json);
+            byte[] bytes = encode(tree);
+
+            assertEquals(tree, decode(bytes));
+            assertTrue(bytes.length + " >= " + json.length(), bytes.length < json.getBytes("UTF-8").length);
+        }
+    }
+
+    @Test
+    public void testJsonReaderMatchesTheTree() throws IOException {
+        byte[][] items = {
+                encode(new JsonParser().parse(messagesPage(5))),
+                encode(new JsonParser().parse("{\"a\":[],\"b\":{},\"c\":[[1,2],{\"d\":null}],\"e\":-2.5,\"f\":\"\\\"q\\\"\"}")),
+                // indefinite ["a", {"b": "c"}] with a half float 1.0
+                {(byte) 0x9f, 0x61, 0x61, (byte) 0xbf, 0x61, 0x62, 0x61, 0x63, (byte) 0xff, (byte) 0xf9, 0x3c, 0x00, (byte) 0xff},
+                // tag 1 (epoch time) around 1363896240
+                {(byte) 0xc1, 0x1a, 0x51, 0x4b, 0x67, (byte) 0xb0},
+                // float32 0.1 and 2^64 - 1
+                {(byte) 0x82, (byte) 0xfa, 0x3d, (byte) 0xcc, (byte) 0xcc, (byte) 0xcd, 0x1b, -1, -1, -1, -1, -1, -1, -1, -1},
+        };
+        for (byte[] bytes : items) {
+            JsonElement streamed = new JsonParser().parse(cbor.newJsonReader(new ByteArrayInputStream(bytes)));
+            assertEquals(decode(bytes).toString(), streamed.toString());
+        }
+    }
+
+    @Test(expected = EOFException.class)
+    public void testJsonReaderFailsOnTruncatedInput() throws IOException {
+        byte[] bytes = encode(new JsonParser().parse(messagesPage(2)));
+        byte[] truncated = new byte[bytes.length / 2];
+        System.arraycopy(bytes, 0, truncated, 0, truncated.length);
+
+        JsonReader reader = cbor.newJsonReader(new ByteArrayInputStream(truncated));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            reader.nextName();
+            reader.skipValue();
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEnvelopeFromCbor() throws IOException {
+        byte[] bytes = encode(new JsonParser().parse(messagesPage(3)));
+
+        JsonEnvelope<Object> env = new JsonEnvelopeDeserializer(PagedResult.class, null, null)
+                .deserialize(cbor.newJsonReader(new ByteArrayInputStream(bytes)));
+
+        assertEquals(200, env.status);
+        assertEquals("req.1", env.request_id);
+
+        List<Message> messages = ((PagedResult) env.result).convertPageResults(Message.class);
+        assertEquals(3, messages.size());
+        assertEquals("thread.1", messages.get(2).thread);
+        assertEquals(1420070410002L, messages.get(2).created.getTime());
+    }
+}
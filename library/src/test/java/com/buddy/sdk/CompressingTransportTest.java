@@ -0,0 +1,172 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class CompressingTransportTest extends TransportConformance {
+
+    @Override
+    protected BuddyTransport createTransport() {
+        return new CompressingTransport(new LoopjTransport(), CompressingTransport.DefaultThresholdBytes);
+    }
+
+    // compressible, and over the threshold.
+    private static byte[] json(int items) throws IOException {
+        StringBuilder body = new StringBuilder("{\"recipients\":[");
+        for (int i = 0; i < items; i++) {
+            body.append(i == 0 ? "" : ",").append("\"user-").append(i).append('"');
+        }
+        return body.append("]}").toString().getBytes("UTF-8");
+    }
+
+    private static Recorder post(BuddyTransport transport, String url, byte[] body) throws InterruptedException {
+        Header[] headers = new Header[]{new BasicHeader("Content-Type", "application/json")};
+        Recorder recorder = new Recorder();
+        transport.execute(new BuddyTransport.Request("POST", url, headers, new ByteArrayEntity(body), false), recorder);
+        return recorder.await();
+    }
+
+    // the conformance test, as seen from above: the body arrives inflated.
+    @Override
+    @Test
+    public void testGzipBodyIsPassedThroughAsSent() throws Exception {
+        Recorder r = execute("GET", "/gzip/1000", null, null, false);
+
+        assertNull(r.response.getHeader("Content-Encoding"));
+        assertEquals(1000, r.body.length);
+        assertEquals((byte) 999, r.body[999]);
+    }
+
+    private void checkEveryTransport(Check check) throws Exception {
+        NioTransport nio = new NioTransport();
+        try {
+            for (BuddyTransport inner : new BuddyTransport[]{new LoopjTransport(), new UrlConnectionTransport(), nio}) {
+                check.run(new CompressingTransport(inner, 256), inner.getClass().getSimpleName());
+            }
+        } finally {
+            nio.shutdown();
+        }
+    }
+
+    private interface Check {
+        void run(CompressingTransport transport, String name) throws Exception;
+    }
+
+    @Test
+    public void testResponsesAreInflatedAndCounted() throws Exception {
+        checkEveryTransport(new Check() {
+            @Override
+            public void run(CompressingTransport transport, String name) throws Exception {
+                Recorder r = new Recorder();
+                transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/gzip/100000", null, null, true), r);
+                r.await();
+
+                assertEquals(name, 100000, r.body.length);
+                for (int i = 0; i < r.body.length; i++) {
+                    assertEquals(name, (byte) i, r.body[i]);
+                }
+
+                CompressionStats stats = transport.getStats();
+                assertEquals(name, 1, stats.compressedResponses);
+                assertEquals(name, 100000, stats.responseBytes);
+                assertTrue(name + " " + stats, stats.responseWireBytes > 0 && stats.responseWireBytes < 100000);
+            }
+        });
+    }
+
+    @Test
+    public void testEmptyGzipResponseIsEmpty() throws Exception {
+        checkEveryTransport(new Check() {
+            @Override
+            public void run(CompressingTransport transport, String name) throws Exception {
+                Recorder r = new Recorder();
+                transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/gzip-empty", null, null, true), r);
+                r.await();
+
+                assertNull(name + " " + r.error, r.error);
+                assertEquals(name, 200, r.response.statusCode);
+                assertEquals(name, 0, r.body.length);
+            }
+        });
+    }
+
+    @Test
+    public void testLargeRequestBodiesAreCompressed() throws Exception {
+        final byte[] body = json(200);
+
+        checkEveryTransport(new Check() {
+            @Override
+            public void run(CompressingTransport transport, String name) throws Exception {
+                Recorder r = post(transport, server.getRoot() + "/inflate", body);
+
+                assertEquals(name, "gzip", r.response.getHeader("X-Echo-Content-Encoding"));
+                assertArrayEquals(name, body, r.body);
+
+                CompressionStats stats = transport.getStats();
+                assertEquals(name, 1, stats.compressedRequests);
+                assertEquals(name, body.length, stats.requestBytes);
+                assertTrue(name + " " + stats, stats.requestWireBytes < body.length / 2);
+            }
+        });
+    }
+
+    @Test
+    public void testSmallRequestBodiesAreSentAsIs() throws Exception {
+        byte[] body = "{\"title\":\"hi\"}".getBytes("UTF-8");
+        CompressingTransport compressing = new CompressingTransport(new LoopjTransport(), 256);
+
+        Recorder r = post(compressing, server.getRoot() + "/inflate", body);
+
+        assertEquals("null", r.response.getHeader("X-Echo-Content-Encoding"));
+        assertArrayEquals(body, r.body);
+        assertEquals(0, compressing.getStats().compressedRequests);
+        assertEquals(body.length, compressing.getStats().requestWireBytes);
+    }
+
+    @Test
+    public void testRejectedCompressionIsRetriedAndTurnedOff() throws Exception {
+        byte[] body = json(200);
+        CompressingTransport compressing = new CompressingTransport(new LoopjTransport(), 256);
+
+        Recorder r = post(compressing, server.getRoot() + "/identity", body);
+        assertEquals(200, r.response.statusCode);
+        assertEquals(1, r.calls);
+        assertArrayEquals(body, r.body);
+
+        r = post(compressing, server.getRoot() + "/identity", body);
+        assertEquals(200, r.response.statusCode);
+        assertEquals(1, compressing.getStats().compressedRequests);
+        assertEquals(3, server.getRequestCount());
+    }
+
+    @Test
+    public void testBodiesAlreadyEncodedAreLeftAlone() throws Exception {
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(gzipped);
+        out.write(json(200));
+        out.close();
+
+        CompressingTransport compressing = new CompressingTransport(new LoopjTransport(), 0);
+        ByteArrayEntity entity = new ByteArrayEntity(gzipped.toByteArray());
+        entity.setContentEncoding("gzip");
+        Header[] headers = new Header[]{new BasicHeader("Content-Encoding", "gzip")};
+
+        Recorder r = new Recorder();
+        compressing.execute(new BuddyTransport.Request("POST", server.getRoot() + "/inflate", headers, entity, false), r);
+        r.await();
+
+        assertArrayEquals(json(200), r.body);
+        assertEquals(0, compressing.getStats().compressedRequests);
+    }
+}
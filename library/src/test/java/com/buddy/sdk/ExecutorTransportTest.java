@@ -0,0 +1,139 @@
+package com.buddy.sdk;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ExecutorTransportTest extends TransportConformance {
+
+    private ExecutorService executor;
+
+    // virtual threads where the JDK has them (21+), otherwise a thread per task.
+    private static ExecutorService newPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (Exception e) {
+            return Executors.newCachedThreadPool();
+        }
+    }
+
+    @Override
+    protected BuddyTransport createTransport() {
+        executor = newPerTaskExecutor();
+
+        ConnectionPoolOptions pool = new ConnectionPoolOptions();
+        pool.maxPerRoute = 1000;
+        pool.maxTotal = 1000;
+        return new ExecutorTransport(new LoopjTransport(pool), executor);
+    }
+
+    @After
+    public void shutdownExecutor() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testCancelClosesTheConnection() throws Exception {
+        NioTransport nio = new NioTransport();
+        try {
+            for (BuddyTransport inner : new BuddyTransport[]{new UrlConnectionTransport(), nio}) {
+                checkCancelClosesTheConnection(new ExecutorTransport(inner, executor), inner.getClass().getSimpleName());
+            }
+        } finally {
+            nio.shutdown();
+        }
+    }
+
+    private void checkCancelClosesTheConnection(BuddyTransport transport, String name) throws Exception {
+        final ServerSocket listener = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        final CountDownLatch closed = new CountDownLatch(1);
+        // takes the request and never answers, until the client hangs up.
+        Thread silent = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Socket socket = listener.accept();
+                    try {
+                        while (socket.getInputStream().read() != -1) {
+                            // the request, then nothing.
+                        }
+                    } catch (IOException e) {
+                        // reset by the client.
+                    }
+                    closed.countDown();
+                    socket.close();
+                } catch (IOException e) {
+                    // the listener was closed.
+                }
+            }
+        });
+        silent.start();
+
+        try {
+            Recorder r = new Recorder();
+            BuddyTransport.Call call = transport.execute(new BuddyTransport.Request("GET", "http://127.0.0.1:" + listener.getLocalPort() + "/", null, null, false), r);
+            Thread.sleep(200);
+
+            assertTrue(name, call.cancel(true));
+            assertTrue(name + " left the connection open", closed.await(2, TimeUnit.SECONDS));
+            Thread.sleep(100);
+            assertEquals(name, 0, r.calls);
+        } finally {
+            listener.close();
+        }
+    }
+
+    // Issues the calls at once and returns how long they all took.
+    private long runConcurrently(int concurrency) throws Exception {
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final AtomicInteger ok = new AtomicInteger();
+        long start = System.nanoTime();
+
+        for (int i = 0; i < concurrency; i++) {
+            transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/50", null, null, false), new BuddyTransport.Callback() {
+                @Override
+                public void onResponse(BuddyTransport.Response response) throws IOException {
+                    LocalHttpServer.readFully(response.body);
+                    if (response.statusCode == 200) {
+                        ok.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    done.countDown();
+                }
+            });
+        }
+
+        assertTrue("timed out at " + concurrency, done.await(60, TimeUnit.SECONDS));
+        assertEquals(concurrency, ok.get());
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+    }
+
+    @Test
+    public void testThroughputScalesWithConcurrency() throws Exception {
+        for (int concurrency : new int[]{10, 100, 1000}) {
+            long millis = runConcurrently(concurrency);
+
+            // each call waits 50ms on the server, so one at a time would
+            // take concurrency * 50ms.
+            assertTrue(concurrency + " calls took " + millis + "ms", millis < concurrency * 50 / 5 + 1000);
+        }
+    }
+}
@@ -0,0 +1,220 @@
+package com.buddy.sdk;
+
+import com.buddy.sdk.models.Message;
+import com.buddy.sdk.models.PagedResult;
+import com.buddy.sdk.models.User;
+import com.google.gson.stream.JsonReader;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class JsonEnvelopeDeserializerTest {
+
+    private static final String USER_ENVELOPE =
+            "{\"status\":200,\"request_id\":\"req.1\",\"extra\":{\"a\":[1,2]}," +
+            "\"result\":{\"id\":\"u.1\",\"userName\":\"buddy\",\"created\":\"/Date(1420070400000)/\"}}";
+
+    private static final String USER_PAGE =
+            "{\"status\":200,\"result\":{\"nextToken\":\"n\",\"pageResults\":[" +
+            "{\"id\":\"u.1\",\"userName\":\"one\",\"tags\":[1,2.5,true,null]}," +
+            "{\"id\":\"u.2\",\"userName\":\"tw\\\"o\\u00e9\"}," +
+            "{\"id\":\"u.3\",\"userName\":\"three\"}]}}";
+
+    private static JsonEnvelope<Object> read(Class<?> clazz, String json) throws IOException {
+        return read(clazz, json, null);
+    }
+
+    private static JsonEnvelope<Object> read(Class<?> clazz, String json, BuddyClientOptions options) throws IOException {
+        return read(clazz, json, options, null);
+    }
+
+    private static JsonEnvelope<Object> read(Class<?> clazz, String json, BuddyClientOptions options, Set<String> fields) throws IOException {
+        return new JsonEnvelopeDeserializer(clazz, options, fields).deserialize(new JsonReader(new StringReader(json)));
+    }
+
+    @Test
+    public void testStreamingModelResult() throws IOException {
+        JsonEnvelope<Object> env = read(User.class, USER_ENVELOPE);
+
+        assertEquals(200, env.status);
+        assertEquals("req.1", env.request_id);
+        assertNull(env.error);
+
+        User user = (User) env.result;
+        assertEquals("u.1", user.id);
+        assertEquals("buddy", user.userName);
+        assertEquals(1420070400000L, user.created.getTime());
+        assertNotNull(user.getJsonObject());
+    }
+
+    @Test
+    public void testResultFieldProjection() throws IOException {
+        Set<String> fields = new HashSet<String>(Arrays.asList("id", "userName"));
+
+        User user = (User) read(User.class, USER_ENVELOPE, null, fields).result;
+        assertEquals("u.1", user.id);
+        assertEquals("buddy", user.userName);
+        assertNull(user.created);
+        assertEquals(2, user.getJsonObject().entrySet().size());
+
+        BuddyClientOptions options = new BuddyClientOptions();
+        options.lazyPageResults = true;
+
+        PagedResult page = (PagedResult) read(PagedResult.class, USER_PAGE, options, new HashSet<String>(Arrays.asList("userName"))).result;
+        assertEquals("n", page.nextToken);
+        assertEquals(3, page.pageResults.size());
+        assertEquals("{\"userName\":\"one\"}", page.pageResults.get(0).toString());
+        assertNull(page.convertPageResults(User.class).get(2).id);
+    }
+
+    @Test
+    public void testStreamingPrimitiveResult() throws IOException {
+        JsonEnvelope<Object> env = read(String.class, "{\"status\":200,\"result\":\"Pong\"}");
+        assertEquals("Pong", env.result);
+    }
+
+    @Test
+    public void testStreamingError() throws IOException {
+        JsonEnvelope<Object> env = read(User.class,
+                "{\"status\":404,\"error\":\"RecordNotFound\",\"errorNumber\":404,\"message\":null}");
+
+        assertEquals("RecordNotFound", env.error);
+        assertEquals(404, env.errorCode);
+        assertNull(env.message);
+        assertNull(env.result);
+    }
+
+    @Test
+    public void testLazyPageMatchesEager() throws IOException {
+        BuddyClientOptions options = new BuddyClientOptions();
+        options.lazyPageResults = true;
+
+        PagedResult lazy = (PagedResult) read(PagedResult.class, USER_PAGE, options).result;
+        PagedResult eager = (PagedResult) read(PagedResult.class, USER_PAGE).result;
+
+        assertEquals("n", lazy.nextToken);
+        assertEquals(eager.pageResults, lazy.pageResults);
+
+        List<User> users = lazy.convertPageResults(User.class);
+        assertEquals(3, users.size());
+        assertEquals("tw\"o\u00e9", users.get(1).userName);
+        assertSame(users.get(1), users.get(1));
+        assertEquals(eager.pageResults.get(0), users.get(0).getJsonObject());
+    }
+
+    @Test
+    public void testJsonRetention() throws IOException {
+        BuddyClientOptions options = new BuddyClientOptions();
+
+        options.jsonRetention = JsonRetentionPolicy.None;
+        User none = (User) read(User.class, USER_ENVELOPE, options).result;
+        assertEquals("buddy", none.userName);
+        assertNull(none.getJsonObject());
+
+        options.jsonRetention = JsonRetentionPolicy.Lazy;
+        User lazy = (User) read(User.class, USER_ENVELOPE, options).result;
+        User full = (User) read(User.class, USER_ENVELOPE).result;
+        assertEquals(full.created, lazy.created);
+        assertEquals(full.getJsonObject(), lazy.getJsonObject());
+
+        options.lazyPageResults = true;
+        PagedResult page = (PagedResult) read(PagedResult.class, USER_PAGE, options).result;
+        assertEquals(page.pageResults.get(2), page.convertPageResults(User.class).get(2).getJsonObject());
+    }
+
+    @Test
+    public void testParallelConversionKeepsOrder() throws Exception {
+        StringBuilder json = new StringBuilder("{\"status\":200,\"result\":{\"pageResults\":[");
+        for (int i = 0; i < 1000; i++) {
+            json.append(i == 0 ? "" : ",").append("{\"id\":\"u.").append(i).append("\"}");
+        }
+        json.append("]}}");
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            for (boolean lazy : new boolean[] { false, true }) {
+                BuddyClientOptions options = new BuddyClientOptions();
+                options.lazyPageResults = lazy;
+
+                PagedResult page = (PagedResult) read(PagedResult.class, json.toString(), options).result;
+                List<User> users = page.convertPageResults(User.class, executor, 100);
+
+                assertEquals(1000, users.size());
+                for (int i = 0; i < users.size(); i++) {
+                    assertEquals("u." + i, users.get(i).id);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        long used = Long.MAX_VALUE;
+        // keep collecting until the heap stops shrinking.
+        for (int i = 0; i < 10; i++) {
+            System.gc();
+            Thread.sleep(20);
+            long now = runtime.totalMemory() - runtime.freeMemory();
+            if (now >= used) {
+                break;
+            }
+            used = now;
+        }
+        return Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+    }
+
+    // Bytes each of 10k parsed messages keeps alive under the policy.
+    private static long retainedPerMessage(String[] messages, JsonRetentionPolicy policy) throws Exception {
+        BuddyClientOptions options = new BuddyClientOptions();
+        options.jsonRetention = policy;
+
+        Message[] parsed = new Message[messages.length];
+        long before = usedHeap();
+        for (int i = 0; i < messages.length; i++) {
+            parsed[i] = (Message) read(Message.class, messages[i], options).result;
+        }
+        long retained = (usedHeap() - before) / messages.length;
+
+        assertEquals("m." + (messages.length - 1), parsed[messages.length - 1].id);
+        return retained;
+    }
+
+    @Test
+    public void testRetainedSizePerPolicy() throws Exception {
+        String[] messages = new String[10000];
+        for (int i = 0; i < messages.length; i++) {
+            messages[i] = "{\"status\":200,\"result\":{\"id\":\"m." + i + "\",\"created\":\"/Date(1420070400000)/\"," +
+                    "\"subject\":\"subject " + i + "\",\"body\":\"the body of message number " + i + "\",\"thread\":\"t.1\"," +
+                    "\"fromUserId\":\"u.1\",\"fromUserName\":\"buddy\",\"recipients\":[\"u.2\",\"u.3\"],\"type\":\"Received\",\"isNew\":true}}";
+        }
+
+        // warm the adapters up so their classes aren't counted.
+        retainedPerMessage(messages, JsonRetentionPolicy.Full);
+
+        long full = retainedPerMessage(messages, JsonRetentionPolicy.Full);
+        long lazy = retainedPerMessage(messages, JsonRetentionPolicy.Lazy);
+        long none = retainedPerMessage(messages, JsonRetentionPolicy.None);
+
+        String report = String.format("retained per message: Full %dB, Lazy %dB, None %dB", full, lazy, none);
+        System.out.println(report);
+
+        assertTrue(report, full > lazy);
+        assertTrue(report, lazy > none);
+    }
+}
@@ -0,0 +1,111 @@
+package com.buddy.sdk;
+
+import com.buddy.sdk.models.PagedResult;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.apache.http.Header;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class JsonEnvelopeResponseHandlerTest {
+
+    private static final int Rows = 500;
+    private static final int Runs = 40;
+
+    private static byte[] userPage() throws Exception {
+        StringBuilder json = new StringBuilder("{\"status\":200,\"request_id\":\"req.1\",\"result\":{\"nextToken\":\"n\",\"pageResults\":[");
+        for (int i = 0; i < Rows; i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append("{\"id\":\"u.").append(i).append("\",\"userName\":\"user ").append(i)
+                    .append("\",\"firstName\":\"First\",\"lastName\":\"Last\",\"email\":\"user").append(i)
+                    .append("@example.com\",\"created\":\"/Date(1420070400000)/\",\"lastModified\":\"/Date(1420070400000)/\"")
+                    .append(",\"gender\":\"Female\",\"celebMode\":false,\"tag\":\"a tag\",\"readPermissions\":\"User\"}");
+        }
+        return json.append("]}}").toString().getBytes("UTF-8");
+    }
+
+    private static BuddyTransport.Response response(byte[] body) {
+        return new BuddyTransport.Response(200, "OK", new Header[0], new ByteArrayInputStream(body));
+    }
+
+    private static JsonEnvelopeResponseHandler<PagedResult> streaming() {
+        return new JsonEnvelopeResponseHandler<PagedResult>(PagedResult.class, null, null, null) {
+            @Override
+            public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<PagedResult> envelope) {
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<PagedResult> errorEnvelope) {
+            }
+        };
+    }
+
+    // How responses were read before the streaming handler: loopj decoded
+    // the body to a String and an org.json tree, which was written back
+    // out as a String for Gson to parse again.
+    @SuppressWarnings("unchecked")
+    private static JsonEnvelope<PagedResult> viaJsonObject(byte[] body) throws Exception {
+        JSONObject tree = (JSONObject) new JSONTokener(new String(body, "UTF-8")).nextValue();
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new BuddyDateDeserializer())
+                .registerTypeAdapter(JsonEnvelope.class, new JsonEnvelopeDeserializer<PagedResult>(PagedResult.class))
+                .create();
+        return gson.fromJson(tree.toString(), JsonEnvelope.class);
+    }
+
+    // Best time in nanoseconds [0] and bytes allocated per parse [1].
+    private static long[] measure(ThreadMXBean threads, byte[] body, boolean stream) throws Exception {
+        long best = Long.MAX_VALUE;
+        long bytes = 0;
+        for (int i = 0; i < Runs; i++) {
+            long allocated = allocatedBytes(threads);
+            long start = System.nanoTime();
+            JsonEnvelope<PagedResult> env = stream ? streaming().parse(response(body)) : viaJsonObject(body);
+            best = Math.min(best, System.nanoTime() - start);
+            bytes += allocatedBytes(threads) - allocated;
+            assertEquals(Rows, env.result.pageResults.size());
+        }
+        return new long[]{best, bytes / Runs};
+    }
+
+    private static long allocatedBytes(ThreadMXBean threads) {
+        return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    @Test
+    public void testStreamingParseIsFasterAndAllocatesLess() throws Exception {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(threads instanceof com.sun.management.ThreadMXBean);
+
+        byte[] body = userPage();
+
+        // warm both paths up before timing either.
+        measure(threads, body, false);
+        measure(threads, body, true);
+
+        long[] old = measure(threads, body, false);
+        long[] streamed = measure(threads, body, true);
+
+        String report = String.format("%d rows: JSONObject path %dus, %dKB; streaming %dus, %dKB", Rows,
+                TimeUnit.NANOSECONDS.toMicros(old[0]), old[1] / 1024,
+                TimeUnit.NANOSECONDS.toMicros(streamed[0]), streamed[1] / 1024);
+        System.out.println(report);
+
+        assertTrue(report, streamed[1] < old[1]);
+        assertTrue(report, streamed[0] < old[0]);
+    }
+}
@@ -0,0 +1,439 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ByteArrayEntity;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LimitingTransportTest extends TransportConformance {
+
+    @Override
+    protected BuddyTransport createTransport() {
+        return new LimitingTransport(new UrlConnectionTransport(), new ConcurrencyLimitOptions());
+    }
+
+    private static ConcurrencyLimitOptions fixed(int limit, int maxQueued) {
+        ConcurrencyLimitOptions options = new ConcurrencyLimitOptions();
+        options.initialLimit = limit;
+        options.minLimit = limit;
+        options.maxLimit = limit;
+        options.maxQueued = maxQueued;
+        options.interactiveReserve = 0;
+        return options;
+    }
+
+    private BuddyTransport.Call start(LimitingTransport limiter, String path, Recorder recorder) {
+        return start(limiter, path, RequestPriority.Normal, recorder);
+    }
+
+    private BuddyTransport.Call start(LimitingTransport limiter, String path, RequestPriority priority, BuddyTransport.Callback callback) {
+        return limiter.execute(new BuddyTransport.Request("GET", server.getRoot() + path, null, null, false, priority), callback);
+    }
+
+    // a request's slot is freed just after its callback returns.
+    private static void awaitIdle(LimitingTransport limiter) throws InterruptedException {
+        for (int i = 0; i < 100 && limiter.getStats().inFlight > 0; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(0, limiter.getStats().inFlight);
+    }
+
+    @Test
+    public void testRequestsOverTheLimitWait() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), fixed(2, 10));
+        Recorder[] recorders = new Recorder[6];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+            start(limiter, "/slow/200", recorders[i]);
+        }
+
+        ConcurrencyLimitStats stats = limiter.getStats();
+        assertEquals(2, stats.limit);
+        assertEquals(2, stats.inFlight);
+        assertEquals(4, stats.queued);
+
+        for (Recorder r : recorders) {
+            assertEquals(200, r.await().response.statusCode);
+        }
+        awaitIdle(limiter);
+        stats = limiter.getStats();
+        assertEquals(0, stats.queued);
+        assertTrue(stats.minRttMillis >= 200);
+    }
+
+    @Test
+    public void testFullQueueRejectsNewRequests() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), fixed(1, 1));
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Recorder third = new Recorder();
+        start(limiter, "/slow/200", first);
+        start(limiter, "/echo", second);
+        start(limiter, "/echo", third);
+
+        assertTrue(third.await().error instanceof RequestQueueFullException);
+        assertEquals(200, first.await().response.statusCode);
+        assertEquals(200, second.await().response.statusCode);
+        assertEquals(1, limiter.getStats().rejected);
+        assertEquals(2, server.getRequestCount());
+    }
+
+    @Test
+    public void testFullQueueCanDropTheOldestRequest() throws Exception {
+        ConcurrencyLimitOptions options = fixed(1, 1);
+        options.queueFullPolicy = ConcurrencyLimitOptions.QueueFullPolicy.DropOldest;
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), options);
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        Recorder third = new Recorder();
+        start(limiter, "/slow/200", first);
+        start(limiter, "/echo", second);
+        start(limiter, "/echo", third);
+
+        assertTrue(second.await().error instanceof RequestQueueFullException);
+        assertEquals(200, first.await().response.statusCode);
+        assertEquals(200, third.await().response.statusCode);
+        assertEquals(1, limiter.getStats().dropped);
+    }
+
+    @Test
+    public void testCancelledRequestLeavesTheQueue() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), fixed(1, 10));
+        Recorder first = new Recorder();
+        Recorder queued = new Recorder();
+        start(limiter, "/slow/200", first);
+        BuddyTransport.Call call = start(limiter, "/echo", queued);
+
+        assertTrue(call.cancel(false));
+        assertTrue(call.isCancelled());
+        assertEquals(0, limiter.getStats().queued);
+
+        first.await();
+        Thread.sleep(100);
+        assertEquals(0, queued.calls);
+        assertEquals(1, server.getRequestCount());
+    }
+
+    @Test
+    public void testSynchronousRequestWaitsItsTurn() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), fixed(1, 10));
+        Recorder first = new Recorder();
+        start(limiter, "/slow/200", first);
+
+        Recorder second = new Recorder();
+        limiter.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, true), second);
+
+        // the first request has finished by the time the second returns.
+        assertEquals(0, first.done.getCount());
+        assertEquals(Thread.currentThread(), second.thread);
+        assertEquals(200, second.response.statusCode);
+    }
+
+    @Test
+    public void testLimitBacksOffWhenTheServiceIsStrained() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), new ConcurrencyLimitOptions());
+        for (int i = 0; i < 3; i++) {
+            Recorder r = new Recorder();
+            start(limiter, "/status/503", r);
+            r.await();
+            awaitIdle(limiter);
+        }
+
+        // 8 * 0.9^3
+        assertEquals(5, limiter.getStats().limit);
+    }
+
+    @Test
+    public void testSlowerRoutesDontCountAsStrain() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), new ConcurrencyLimitOptions());
+        for (String path : new String[]{"/echo", "/echo", "/slow/200", "/slow/200"}) {
+            Recorder r = new Recorder();
+            start(limiter, path, r);
+            assertEquals(200, r.await().response.statusCode);
+            awaitIdle(limiter);
+        }
+
+        assertEquals(8, limiter.getStats().limit);
+        assertTrue(limiter.getStats().minRttMillis < 200);
+    }
+
+    @Test
+    public void testSlowerResponseOnTheSameRouteIsStrain() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), new ConcurrencyLimitOptions());
+        for (String path : new String[]{"/wait?ms=20", "/wait?ms=20", "/wait?ms=300"}) {
+            Recorder r = new Recorder();
+            start(limiter, path, r);
+            assertEquals(200, r.await().response.statusCode);
+            awaitIdle(limiter);
+        }
+
+        // 8 * 0.9
+        assertEquals(7, limiter.getStats().limit);
+    }
+
+    // Answers each request when the test says so.
+    private static class StubTransport implements BuddyTransport {
+        final LinkedBlockingQueue<Exchange> requests = new LinkedBlockingQueue<Exchange>();
+
+        class Exchange implements Call {
+            final Request request;
+            final Callback callback;
+            volatile boolean answered;
+
+            Exchange(Request request, Callback callback) {
+                this.request = request;
+                this.callback = callback;
+            }
+
+            void answer(int statusCode) throws IOException {
+                answered = true;
+                callback.onResponse(new Response(statusCode, "", new Header[0], new ByteArrayInputStream(new byte[0])));
+            }
+
+            @Override
+            public boolean cancel(boolean mayInterruptIfRunning) {
+                return !answered;
+            }
+
+            @Override
+            public boolean isCancelled() {
+                return false;
+            }
+
+            @Override
+            public boolean isDone() {
+                return answered;
+            }
+        }
+
+        @Override
+        public Call execute(Request request, Callback callback) {
+            Exchange exchange = new Exchange(request, callback);
+            requests.add(exchange);
+            return exchange;
+        }
+
+        Exchange next() throws InterruptedException {
+            Exchange exchange = requests.poll(5, TimeUnit.SECONDS);
+            assertNotNull("no request", exchange);
+            return exchange;
+        }
+    }
+
+    private static BuddyTransport.Call post(LimitingTransport limiter, Recorder recorder) {
+        return limiter.execute(new BuddyTransport.Request("POST", "http://stub/pictures", null, new ByteArrayEntity(new byte[512]), false), recorder);
+    }
+
+    @Test
+    public void testRejectedCompressionRetryKeepsItsSlot() throws Exception {
+        StubTransport stub = new StubTransport();
+        LimitingTransport limiter = new LimitingTransport(new CompressingTransport(stub, 0), fixed(1, 10));
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        post(limiter, first);
+        post(limiter, second);
+
+        StubTransport.Exchange compressed = stub.next();
+        assertNotNull(compressed.request.getHeader("Content-Encoding"));
+        compressed.answer(415);
+
+        // sent again as is, in the same slot.
+        StubTransport.Exchange retry = stub.next();
+        assertNull(retry.request.getHeader("Content-Encoding"));
+        assertEquals(1, limiter.getStats().inFlight);
+        assertEquals(1, limiter.getStats().queued);
+        assertTrue(stub.requests.isEmpty());
+
+        retry.answer(200);
+        assertEquals(200, first.await().response.statusCode);
+        stub.next().answer(200);
+        assertEquals(200, second.await().response.statusCode);
+        assertEquals(0, limiter.getStats().inFlight);
+    }
+
+    @Test
+    public void testCancelBeforeRejectedCompressionIsRetriedFreesTheSlot() throws Exception {
+        StubTransport stub = new StubTransport();
+        LimitingTransport limiter = new LimitingTransport(new CompressingTransport(stub, 0), fixed(1, 10));
+        Recorder recorder = new Recorder();
+        BuddyTransport.Call call = post(limiter, recorder);
+
+        StubTransport.Exchange compressed = stub.next();
+        compressed.answered = true;
+        assertTrue(call.cancel(true));
+        compressed.answer(415);
+
+        assertTrue(stub.requests.isEmpty());
+        assertEquals(0, recorder.calls);
+        assertEquals(0, limiter.getStats().inFlight);
+    }
+
+    @Test
+    public void testLimitGrowsWhileInUse() throws Exception {
+        ConcurrencyLimitOptions options = new ConcurrencyLimitOptions();
+        options.initialLimit = 2;
+        options.rttTolerance = 1000;
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), options);
+
+        Recorder[] recorders = new Recorder[40];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+            start(limiter, "/slow/20", recorders[i]);
+        }
+        for (Recorder r : recorders) {
+            assertNull(r.await().error);
+        }
+        awaitIdle(limiter);
+        assertTrue("limit " + limiter.getStats().limit, limiter.getStats().limit > 2);
+    }
+
+    @Test
+    public void testLimitStaysWithinBounds() throws Exception {
+        ConcurrencyLimitOptions options = new ConcurrencyLimitOptions();
+        options.initialLimit = 100;
+        options.maxLimit = 4;
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), options);
+        assertEquals(4, limiter.getStats().limit);
+
+        options = new ConcurrencyLimitOptions();
+        options.initialLimit = 1;
+        options.minLimit = 1;
+        options.interactiveReserve = 0;
+        limiter = new LimitingTransport(new UrlConnectionTransport(), options);
+        Recorder r = new Recorder();
+        start(limiter, "/status/503", r);
+        r.await();
+        awaitIdle(limiter);
+        assertEquals(1, limiter.getStats().limit);
+    }
+
+    @Test
+    public void testInteractiveRequestsDontWaitBehindBackgroundOnes() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), fixed(4, 10));
+        Recorder[] background = new Recorder[6];
+        for (int i = 0; i < background.length; i++) {
+            background[i] = new Recorder();
+            start(limiter, "/slow/300", RequestPriority.Background, background[i]);
+        }
+        // half the limit.
+        assertEquals(2, limiter.getStats().lanes.get(RequestPriority.Background).inFlight);
+
+        Recorder interactive = new Recorder();
+        start(limiter, "/echo", RequestPriority.Interactive, interactive);
+        assertEquals(200, interactive.await().response.statusCode);
+        assertEquals(1, background[0].done.getCount());
+
+        for (Recorder r : background) {
+            r.await();
+        }
+        awaitIdle(limiter);
+        LaneStats lane = limiter.getStats().lanes.get(RequestPriority.Background);
+        assertEquals(6, lane.started);
+        assertTrue(lane.waitPercentileMillis(100) >= 500);
+        assertEquals(1, limiter.getStats().lanes.get(RequestPriority.Interactive).waitPercentileMillis(100));
+    }
+
+    @Test
+    public void testNormalRequestsLeaveRoomForInteractiveOnes() throws Exception {
+        ConcurrencyLimitOptions options = fixed(3, 10);
+        options.interactiveReserve = 1;
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), options);
+        Recorder[] normal = new Recorder[4];
+        for (int i = 0; i < normal.length; i++) {
+            normal[i] = new Recorder();
+            start(limiter, "/slow/300", normal[i]);
+        }
+        ConcurrencyLimitStats stats = limiter.getStats();
+        assertEquals(2, stats.inFlight);
+        assertEquals(2, stats.lanes.get(RequestPriority.Normal).queued);
+
+        Recorder interactive = new Recorder();
+        start(limiter, "/echo", RequestPriority.Interactive, interactive);
+        assertEquals(3, limiter.getStats().inFlight);
+        interactive.await();
+        assertEquals(1, normal[0].done.getCount());
+    }
+
+    @Test
+    public void testReserveHoldsAtLimitOne() throws Exception {
+        ConcurrencyLimitOptions options = fixed(1, 10);
+        options.interactiveReserve = 1;
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), options);
+        assertEquals(2, limiter.getStats().limit);
+
+        Recorder[] normal = new Recorder[2];
+        for (int i = 0; i < normal.length; i++) {
+            normal[i] = new Recorder();
+            start(limiter, "/slow/300", normal[i]);
+        }
+        assertEquals(1, limiter.getStats().inFlight);
+        assertEquals(1, limiter.getStats().lanes.get(RequestPriority.Normal).queued);
+
+        Recorder interactive = new Recorder();
+        start(limiter, "/echo", RequestPriority.Interactive, interactive);
+        assertEquals(200, interactive.await().response.statusCode);
+        assertEquals(1, normal[0].done.getCount());
+
+        for (Recorder r : normal) {
+            r.await();
+        }
+    }
+
+    @Test
+    public void testWaitingLanesStartInPriorityOrder() throws Exception {
+        LimitingTransport limiter = new LimitingTransport(new UrlConnectionTransport(), fixed(1, 10));
+        final List<RequestPriority> order = Collections.synchronizedList(new ArrayList<RequestPriority>());
+
+        Recorder first = new Recorder();
+        start(limiter, "/slow/200", first);
+        Recorder[] waiting = new Recorder[3];
+        RequestPriority[] priorities = {RequestPriority.Background, RequestPriority.Normal, RequestPriority.Interactive};
+        for (int i = 0; i < waiting.length; i++) {
+            final RequestPriority priority = priorities[i];
+            waiting[i] = new Recorder() {
+                @Override
+                public void onResponse(BuddyTransport.Response response) throws IOException {
+                    order.add(priority);
+                    super.onResponse(response);
+                }
+            };
+            start(limiter, "/echo", priority, waiting[i]);
+        }
+
+        for (Recorder r : waiting) {
+            r.await();
+        }
+        assertEquals(RequestPriority.Interactive, order.get(0));
+        assertEquals(RequestPriority.Normal, order.get(1));
+        assertEquals(RequestPriority.Background, order.get(2));
+    }
+
+    @Test
+    public void testWaitPercentiles() {
+        long[] counts = new long[LaneStats.WaitBoundsMillis.length + 1];
+        LaneStats empty = new LaneStats(RequestPriority.Normal, 0, 0, 0, counts.clone());
+        assertEquals(-1, empty.waitPercentileMillis(50));
+
+        // 90 under 1ms, 9 under 100ms, 1 past the last bound.
+        counts[0] = 90;
+        counts[5] = 9;
+        counts[counts.length - 1] = 1;
+        LaneStats lane = new LaneStats(RequestPriority.Normal, 0, 0, 100, counts);
+        assertEquals(1, lane.waitPercentileMillis(50));
+        assertEquals(1, lane.waitPercentileMillis(90));
+        assertEquals(100, lane.waitPercentileMillis(99));
+        assertEquals(Long.MAX_VALUE, lane.waitPercentileMillis(100));
+    }
+}
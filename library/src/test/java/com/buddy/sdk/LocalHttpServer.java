@@ -0,0 +1,155 @@
+package com.buddy.sdk;
+
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+// A stand-in for the Buddy service on a loopback port.
+//
+//   /echo         replies 200 with the request body, and the method, path,
+//                 query and Content-Type in X-Echo-* headers.
+//   /status/<n>   replies with status n and a Buddy error envelope.
+//   /bytes/<n>    replies 200 with n bytes.
+//   /empty        replies 204 with no body.
+//   /slow/<ms>    replies 200 after waiting.
+//   /wait?ms=<n>  as /slow/<n>, so waits of any length are one route.
+//   /gzip/<n>     as /bytes/<n>, gzipped when the request accepts gzip.
+//   /gzip-empty   replies 200 marked gzip, with no body.
+//   /inflate      replies 200 with the request body, inflated if it was
+//                 gzipped, and its Content-Encoding in X-Echo-Content-Encoding.
+//   /identity     as /inflate, but replies 415 to a gzipped body.
+public class LocalHttpServer {
+
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private final AtomicInteger requests = new AtomicInteger();
+
+    public LocalHttpServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.setExecutor(executor);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                try {
+                    LocalHttpServer.this.handle(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        server.start();
+    }
+
+    public String getRoot() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    public int getRequestCount() {
+        return requests.get();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    protected void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        byte[] body = readFully(exchange.getRequestBody());
+        Headers response = exchange.getResponseHeaders();
+
+        if (path.equals("/echo")) {
+            String method = exchange.getRequestHeaders().getFirst("X-HTTP-Method-Override");
+            response.add("X-Echo-Method", method != null ? method : exchange.getRequestMethod());
+            response.add("X-Echo-Path", path);
+            response.add("X-Echo-Query", String.valueOf(exchange.getRequestURI().getRawQuery()));
+            response.add("X-Echo-Content-Type", String.valueOf(exchange.getRequestHeaders().getFirst("Content-Type")));
+            response.add("X-Echo-Authorization", String.valueOf(exchange.getRequestHeaders().getFirst("Authorization")));
+            send(exchange, 200, "application/octet-stream", body);
+        } else if (path.startsWith("/status/")) {
+            int status = Integer.parseInt(path.substring("/status/".length()));
+            send(exchange, status, "application/json; charset=utf-8",
+                    ("{\"status\":" + status + ",\"error\":\"RecordNotFound\",\"errorNumber\":" + status + "}").getBytes("UTF-8"));
+        } else if (path.startsWith("/bytes/")) {
+            byte[] bytes = new byte[Integer.parseInt(path.substring("/bytes/".length()))];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            send(exchange, 200, "application/octet-stream", bytes);
+        } else if (path.startsWith("/gzip/")) {
+            byte[] bytes = new byte[Integer.parseInt(path.substring("/gzip/".length()))];
+            for (int i = 0; i < bytes.length; i++) {
+                bytes[i] = (byte) i;
+            }
+            String accept = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+            if (accept != null && accept.contains("gzip")) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                GZIPOutputStream gzip = new GZIPOutputStream(compressed);
+                gzip.write(bytes);
+                gzip.close();
+                response.add("Content-Encoding", "gzip");
+                bytes = compressed.toByteArray();
+            }
+            send(exchange, 200, "application/octet-stream", bytes);
+        } else if (path.equals("/gzip-empty")) {
+            response.add("Content-Encoding", "gzip");
+            send(exchange, 200, "application/json", new byte[0]);
+        } else if (path.equals("/inflate") || path.equals("/identity")) {
+            String encoding = exchange.getRequestHeaders().getFirst("Content-Encoding");
+            boolean gzipped = "gzip".equals(encoding);
+            if (gzipped && path.equals("/identity")) {
+                send(exchange, 415, "text/plain", new byte[0]);
+                return;
+            }
+            response.add("X-Echo-Content-Encoding", String.valueOf(encoding));
+            send(exchange, 200, "application/octet-stream", gzipped ? readFully(new GZIPInputStream(new ByteArrayInputStream(body))) : body);
+        } else if (path.equals("/empty")) {
+            exchange.sendResponseHeaders(204, -1);
+        } else if (path.startsWith("/slow/") || path.equals("/wait")) {
+            String ms = path.equals("/wait")
+                    ? exchange.getRequestURI().getQuery().substring("ms=".length())
+                    : path.substring("/slow/".length());
+            try {
+                Thread.sleep(Long.parseLong(ms));
+            } catch (InterruptedException e) {
+                return;
+            }
+            send(exchange, 200, "application/json", "{\"status\":200,\"result\":\"slow\"}".getBytes("UTF-8"));
+        } else {
+            send(exchange, 404, "text/plain", new byte[0]);
+        }
+    }
+
+    protected static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+        if (body.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(body);
+            out.close();
+        }
+    }
+
+    static byte[] readFully(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        for (int n = in.read(buffer); n != -1; n = in.read(buffer)) {
+            bytes.write(buffer, 0, n);
+        }
+        return bytes.toByteArray();
+    }
+}
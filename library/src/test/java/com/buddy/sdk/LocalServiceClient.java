@@ -0,0 +1,105 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHeader;
+
+import java.io.IOException;
+import java.net.URLEncoder;
+import java.util.Map;
+import java.util.concurrent.Future;
+
+// makeRequest straight to a stand-in server, without the access token and
+// Looper handling of the real service client.  Results complete on the
+// transport's threads.
+public class LocalServiceClient implements BuddyServiceClient {
+
+    private final LocalHttpServer server;
+    private final BuddyClientOptions options;
+    private final BuddyTransport transport = new UrlConnectionTransport();
+
+    public LocalServiceClient(LocalHttpServer server, BuddyClientOptions options) {
+        this.server = server;
+        this.options = options;
+    }
+
+    @Override
+    public <T> Future<BuddyResult<T>> makeRequest(String verb, String path, Map<? extends String, ? extends Object> parameters, final BuddyCallback<T> callback, Class<T> clazz) {
+        final BuddyFuture<BuddyResult<T>> promise = new BuddyFuture<BuddyResult<T>>();
+        String url = server.getRoot() + path;
+        StringEntity body = null;
+        Header[] headers = new Header[]{new BasicHeader("Accept", "application/json")};
+
+        try {
+            if (verb.equals(GET)) {
+                StringBuilder query = new StringBuilder();
+                if (parameters != null) {
+                    for (Map.Entry<? extends String, ? extends Object> p : parameters.entrySet()) {
+                        query.append(query.length() == 0 ? "?" : "&").append(URLEncoder.encode(p.getKey(), "UTF-8"))
+                                .append('=').append(URLEncoder.encode(String.valueOf(p.getValue()), "UTF-8"));
+                    }
+                }
+                url += query;
+            } else {
+                body = new StringEntity(BuddyCodec.getRequestSerializer().toJson(parameters), "UTF-8");
+                headers = new Header[]{headers[0], new BasicHeader("Content-Type", "application/json")};
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+
+        Class<T> resultClass = clazz != null ? clazz : callback.getResultClass();
+        transport.execute(new BuddyTransport.Request(verb, url, headers, body, false), new JsonEnvelopeResponseHandler<T>(resultClass, options, null, null) {
+            @Override
+            public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<T> envelope) {
+                envelope.status = statusCode;
+                complete(new BuddyResult<T>(envelope));
+            }
+
+            @Override
+            public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<T> errorEnvelope) {
+                complete(new BuddyResult<T>(errorEnvelope != null ? errorEnvelope : new JsonEnvelope<T>()));
+            }
+
+            private void complete(BuddyResult<T> result) {
+                if (callback != null) callback.completed(result);
+                promise.setValue(result);
+            }
+        });
+        return promise;
+    }
+
+    @Override
+    public void setSynchronousMode(boolean value) {
+    }
+
+    @Override
+    public boolean getSynchronousMode() {
+        return false;
+    }
+
+    @Override
+    public CoalescingStats getCoalescingStats() {
+        return null;
+    }
+
+    @Override
+    public CompressionStats getCompressionStats() {
+        return null;
+    }
+
+    @Override
+    public ConcurrencyLimitStats getConcurrencyLimitStats() {
+        return null;
+    }
+
+    @Override
+    public ConnectionPoolStats getConnectionPoolStats() {
+        return null;
+    }
+
+    @Override
+    public String signString(String stringToSign, String secret) {
+        return null;
+    }
+}
@@ -0,0 +1,86 @@
+package com.buddy.sdk;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.params.BasicHttpParams;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoopjConnectionPoolTest {
+
+    private LocalHttpServer server;
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    private static LoopjConnectionPool newPool(ConnectionPoolOptions options) {
+        SchemeRegistry registry = new SchemeRegistry();
+        registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+        return new LoopjConnectionPool(new BasicHttpParams(), registry, options);
+    }
+
+    private void get(DefaultHttpClient client, String path) throws IOException {
+        HttpResponse response = client.execute(new HttpGet(server.getRoot() + path));
+        assertEquals(200, response.getStatusLine().getStatusCode());
+        response.getEntity().consumeContent();
+    }
+
+    @Test
+    public void testConnectionIsReusedAndCounted() throws Exception {
+        LoopjConnectionPool pool = newPool(new ConnectionPoolOptions());
+        DefaultHttpClient client = new DefaultHttpClient(pool, new BasicHttpParams());
+        pool.configure(client);
+
+        for (int i = 0; i < 5; i++) {
+            get(client, "/echo");
+        }
+
+        ConnectionPoolStats stats = pool.getStats();
+        assertEquals(0, stats.leased);
+        assertEquals(1, stats.idle);
+        assertEquals(1, stats.created);
+        assertEquals(0, stats.closed);
+
+        pool.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+        stats = pool.getStats();
+        assertEquals(0, stats.idle);
+        assertEquals(1, stats.closed);
+        pool.shutdown();
+    }
+
+    @Test
+    public void testKeepAliveDisabledClosesEachConnection() throws Exception {
+        ConnectionPoolOptions options = new ConnectionPoolOptions();
+        options.keepAliveMillis = 0;
+        LoopjConnectionPool pool = newPool(options);
+        DefaultHttpClient client = new DefaultHttpClient(pool, new BasicHttpParams());
+        pool.configure(client);
+
+        for (int i = 0; i < 3; i++) {
+            get(client, "/echo");
+        }
+
+        ConnectionPoolStats stats = pool.getStats();
+        assertEquals(3, stats.created);
+        assertEquals(3, stats.closed);
+        assertEquals(0, stats.idle);
+        pool.shutdown();
+    }
+}
@@ -0,0 +1,58 @@
+package com.buddy.sdk;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class LoopjTransportTest extends TransportConformance {
+
+    @Override
+    protected BuddyTransport createTransport() {
+        return new LoopjTransport();
+    }
+
+    @Test
+    public void testClientHeadersAreStillSent() throws Exception {
+        LoopjTransport loopj = new LoopjTransport();
+        loopj.getClient().addHeader("Authorization", "Basic dXNlcjpwYXNz");
+
+        Recorder r = new Recorder();
+        loopj.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, false), r);
+        assertEquals("Basic dXNlcjpwYXNz", r.await().response.getHeader("X-Echo-Authorization"));
+
+        // but not loopj's Accept-Encoding.
+        r = new Recorder();
+        loopj.execute(new BuddyTransport.Request("GET", server.getRoot() + "/gzip/100", null, null, false), r);
+        assertNull(r.await().response.getHeader("Content-Encoding"));
+    }
+
+    private long runMixed(int calls, boolean rebuildOnFlip) throws Exception {
+        LoopjTransport loopj = new LoopjTransport();
+        long opened = 0;
+
+        for (int i = 0; i < calls; i++) {
+            boolean synchronous = i % 2 == 0;
+            if (rebuildOnFlip && i > 0) {
+                // what the SDK did before: a new client whenever the mode changed.
+                opened += loopj.getPoolStats().created;
+                loopj = new LoopjTransport();
+            }
+
+            Recorder r = new Recorder();
+            loopj.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo?i=" + i, null, null, synchronous), r);
+            assertEquals(200, r.await().response.statusCode);
+            if (synchronous) {
+                assertTrue(r.thread == Thread.currentThread());
+            }
+        }
+        return opened + loopj.getPoolStats().created;
+    }
+
+    @Test
+    public void testMixedModesShareOneConnectionPool() throws Exception {
+        assertEquals(1, runMixed(40, false));
+        assertEquals(40, runMixed(40, true));
+    }
+}
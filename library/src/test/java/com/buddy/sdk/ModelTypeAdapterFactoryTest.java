@@ -0,0 +1,254 @@
+package com.buddy.sdk;
+
+import android.location.Location;
+
+import com.buddy.sdk.models.Album;
+import com.buddy.sdk.models.AlbumItem;
+import com.buddy.sdk.models.BinaryModelBase;
+import com.buddy.sdk.models.Blob;
+import com.buddy.sdk.models.Checkin;
+import com.buddy.sdk.models.Identity;
+import com.buddy.sdk.models.Message;
+import com.buddy.sdk.models.ModelBase;
+import com.buddy.sdk.models.ModelTypeAdapterFactory;
+import com.buddy.sdk.models.Picture;
+import com.buddy.sdk.models.SocialNetworkUser;
+import com.buddy.sdk.models.StringPool;
+import com.buddy.sdk.models.TimedMetric;
+import com.buddy.sdk.models.User;
+import com.buddy.sdk.models.UserList;
+import com.buddy.sdk.models.Video;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ModelTypeAdapterFactoryTest {
+
+    private static final String MESSAGE =
+            "{\"id\":\"m.1\",\"created\":\"/Date(1420070400000)/\",\"subject\":\"hi\",\"thread\":\"t.1\"," +
+            "\"fromUserId\":\"u.1\",\"recipients\":[\"u.2\",\"u.3\"],\"type\":\"Received\",\"isNew\":true," +
+            "\"warnings\":{\"a\":1},\"unknown\":{\"nested\":[1,{\"x\":null}]},\"body\":null}";
+
+    @Test
+    public void testFactoryIsRegistered() {
+        TypeAdapter<Message> adapter = BuddyCodec.getAdapter(Message.class);
+        assertTrue(adapter.getClass().getName().startsWith(ModelTypeAdapterFactory.class.getName()));
+    }
+
+    // fields that aren't set from the response's JSON.
+    private static final List<String> NotOnTheWire = Arrays.asList("ModelBase.jsonObject", "TimedMetric.client");
+
+    // every ModelBase class the SDK ships; a new model goes here and in
+    // ModelTypeAdapterFactory.
+    private static final List<Class<? extends ModelBase>> Models = Arrays.<Class<? extends ModelBase>>asList(
+            ModelBase.class, User.class, SocialNetworkUser.class, Message.class, Checkin.class,
+            BinaryModelBase.class, Picture.class, Video.class, Blob.class, Album.class, AlbumItem.class,
+            UserList.class, Identity.class, TimedMetric.class);
+
+    // a value for a field of this type that isn't the field's default.
+    private static String sample(Class<?> type) {
+        if (type == String.class) {
+            return "\"x\"";
+        } else if (type == boolean.class) {
+            return "true";
+        } else if (type.isPrimitive()) {
+            return "7";
+        } else if (type == Date.class) {
+            return "\"/Date(1420070400000)/\"";
+        } else if (type.isEnum()) {
+            return "\"" + ((Enum<?>) type.getEnumConstants()[0]).name() + "\"";
+        } else if (Collection.class.isAssignableFrom(type)) {
+            return "[]";
+        } else if (type == Location.class || Map.class.isAssignableFrom(type)) {
+            return "{\"lat\":1,\"lng\":2}";
+        }
+        return "{}";
+    }
+
+    private static boolean isSet(Object model, Field field) throws IllegalAccessException {
+        Object value = field.get(model);
+        if (field.getType() == boolean.class) {
+            return (Boolean) value;
+        } else if (field.getType().isPrimitive()) {
+            return ((Number) value).intValue() == 7;
+        }
+        return value != null;
+    }
+
+    @Test
+    public void testEveryModelFieldIsRead() throws Exception {
+        // android.location.Location can't be made off a device, so
+        // locations are only counted.
+        final int[] locations = new int[1];
+        Gson gson = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new BuddyDateDeserializer())
+                .registerTypeAdapter(Location.class, new TypeAdapter<Location>() {
+                    @Override
+                    public void write(JsonWriter out, Location value) throws IOException {
+                        out.nullValue();
+                    }
+
+                    @Override
+                    public Location read(JsonReader in) throws IOException {
+                        in.skipValue();
+                        locations[0]++;
+                        return null;
+                    }
+                })
+                .registerTypeAdapterFactory(new ModelTypeAdapterFactory())
+                .create();
+
+        for (Class<? extends ModelBase> model : Models) {
+            TypeAdapter<?> adapter = gson.getAdapter(model);
+            assertTrue(model.getSimpleName() + " has no reader", adapter.getClass().getName().startsWith(ModelTypeAdapterFactory.class.getName()));
+
+            for (Class<?> c = model; c != Object.class; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    String name = c.getSimpleName() + "." + field.getName();
+                    if ((field.getModifiers() & (Modifier.STATIC | Modifier.TRANSIENT)) != 0 || field.isSynthetic() || NotOnTheWire.contains(name)) {
+                        continue;
+                    }
+                    field.setAccessible(true);
+
+                    int before = locations[0];
+                    Object parsed = adapter.fromJson("{\"" + field.getName() + "\":" + sample(field.getType()) + "}");
+                    boolean read = field.getType() == Location.class ? locations[0] > before : isSet(parsed, field);
+                    if (!read) {
+                        fail(name + " isn't read by " + model.getSimpleName() + "'s adapter");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testMessageMatchesReflection() {
+        Message generated = BuddyCodec.getResponseDeserializer().fromJson(MESSAGE, Message.class);
+        Message reflected = new GsonBuilder()
+                .registerTypeAdapter(Date.class, new BuddyDateDeserializer())
+                .create()
+                .fromJson(MESSAGE, Message.class);
+
+        assertEquals(reflected.id, generated.id);
+        assertEquals(reflected.created, generated.created);
+        assertEquals(reflected.subject, generated.subject);
+        assertEquals(reflected.thread, generated.thread);
+        assertEquals(reflected.fromUserId, generated.fromUserId);
+        assertEquals(reflected.recipients, generated.recipients);
+        assertEquals(reflected.type, generated.type);
+        assertEquals(reflected.isNew, generated.isNew);
+        assertEquals(reflected.warnings, generated.warnings);
+        assertEquals(reflected.body, generated.body);
+    }
+
+    @Test
+    public void testPictureSize() {
+        Gson gson = BuddyCodec.getResponseDeserializer();
+        Picture picture = gson.fromJson("{\"id\":\"p.1\",\"contentLength\":42,\"size\":{\"w\":640,\"h\":480}}", Picture.class);
+
+        assertEquals(42, picture.contentLength);
+        assertEquals(640, picture.size.w);
+        assertEquals(480, picture.size.h);
+
+        Picture roundTrip = gson.fromJson(gson.toJson(picture), Picture.class);
+        assertEquals("p.1", roundTrip.id);
+        assertEquals(480, roundTrip.size.h);
+    }
+
+    @Test
+    public void testStringPoolSharesRepeatedValues() {
+        StringPool.setShared(new StringPool(64, 0, "thread", "fromUserId"));
+        try {
+            Message first = BuddyCodec.getResponseDeserializer().fromJson(MESSAGE, Message.class);
+            Message second = BuddyCodec.getResponseDeserializer().fromJson(MESSAGE, Message.class);
+
+            assertSame(first.thread, second.thread);
+            assertSame(first.fromUserId, second.fromUserId);
+            assertNotSame(first.subject, second.subject);
+            assertEquals(2, StringPool.getShared().size());
+        } finally {
+            StringPool.setShared(null);
+        }
+    }
+
+    @Test
+    public void testStringPoolEvictsTheLeastRecentlyUsed() {
+        // four entries fit in a single stripe, so eviction order is exact.
+        StringPool pool = new StringPool(4, 10);
+        String a = pool.intern("f", new String("a"));
+        String b = pool.intern("f", new String("b"));
+        pool.intern("f", new String("c"));
+        pool.intern("f", new String("d"));
+
+        assertSame(a, pool.intern("f", new String("a")));
+        pool.intern("f", new String("e"));
+
+        assertEquals(4, pool.size());
+        assertSame(a, pool.intern("f", new String("a")));
+        assertNotSame(b, pool.intern("f", new String("b")));
+    }
+
+    @Test
+    public void testStringPoolStaysBoundedAcrossThreads() throws Exception {
+        final StringPool pool = new StringPool(256, 10);
+        final String[] values = new String[1000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = "v" + i;
+        }
+        final String hot = pool.intern("f", new String("hot"));
+
+        Thread[] threads = new Thread[4];
+        for (int t = 0; t < threads.length; t++) {
+            threads[t] = new Thread() {
+                @Override
+                public void run() {
+                    for (int i = 0; i < values.length; i++) {
+                        pool.intern("f", values[i]);
+                        if (pool.intern("f", new String("hot")) != hot) {
+                            throw new AssertionError("hot string was evicted");
+                        }
+                    }
+                }
+            };
+        }
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        for (Thread thread : threads) {
+            thread.setUncaughtExceptionHandler(new Thread.UncaughtExceptionHandler() {
+                @Override
+                public void uncaughtException(Thread t, Throwable e) {
+                    synchronized (failures) {
+                        failures.add(e);
+                    }
+                }
+            });
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertTrue(failures.toString(), failures.isEmpty());
+        assertTrue(pool.size() <= 256);
+        assertSame(hot, pool.intern("f", new String("hot")));
+    }
+}
@@ -0,0 +1,347 @@
+package com.buddy.sdk;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.channels.Selector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class NioTransportTest extends TransportConformance {
+
+    @Override
+    protected BuddyTransport createTransport() {
+        return new NioTransport();
+    }
+
+    @After
+    public void shutdownTransport() {
+        ((NioTransport) transport).shutdown();
+    }
+
+    private static ConnectionPoolOptions singleConnection() {
+        ConnectionPoolOptions options = new ConnectionPoolOptions();
+        options.maxPerRoute = 1;
+        return options;
+    }
+
+    // stats are published once the selector thread has finished its pass.
+    private static ConnectionPoolStats awaitStats(PooledTransport transport, int leased, int idle) throws InterruptedException {
+        ConnectionPoolStats stats = transport.getPoolStats();
+        for (int i = 0; i < 100 && (stats.leased != leased || stats.idle != idle); i++) {
+            Thread.sleep(20);
+            stats = transport.getPoolStats();
+        }
+        return stats;
+    }
+
+    private static int countThreads(String prefix) {
+        Thread[] threads = new Thread[Thread.activeCount() * 2 + 16];
+        int n = Thread.enumerate(threads);
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            if (threads[i].getName().startsWith(prefix)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    // Runs the given number of requests at once; returns how many transport
+    // threads were alive when they'd all been issued.
+    private int runConcurrently(BuddyTransport transport, String threadPrefix, int concurrency) throws Exception {
+        final CountDownLatch done = new CountDownLatch(concurrency);
+        final AtomicInteger ok = new AtomicInteger();
+
+        for (int i = 0; i < concurrency; i++) {
+            transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/20", null, null, false), new BuddyTransport.Callback() {
+                @Override
+                public void onResponse(BuddyTransport.Response response) throws IOException {
+                    LocalHttpServer.readFully(response.body);
+                    if (response.statusCode == 200) {
+                        ok.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    done.countDown();
+                }
+            });
+        }
+        int threads = countThreads(threadPrefix);
+
+        assertTrue("timed out at " + concurrency, done.await(60, TimeUnit.SECONDS));
+        assertEquals(concurrency, ok.get());
+        return threads;
+    }
+
+    @Test
+    public void testThreadCountIsIndependentOfConcurrency() throws Exception {
+        int expected = 1 + Math.max(2, Runtime.getRuntime().availableProcessors());
+
+        for (int concurrency : new int[]{10, 100, 1000}) {
+            int threads = runConcurrently(transport, "BuddyNio", concurrency);
+            assertTrue(concurrency + " requests used " + threads + " threads", threads <= expected);
+        }
+    }
+
+    @Test
+    public void testSequentialRequestsOnKeptAliveConnection() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            Recorder r = execute("GET", "/echo?i=" + i, null, null, true);
+            assertEquals("i=" + i, r.response.getHeader("X-Echo-Query"));
+        }
+    }
+
+    @Test
+    public void testPoolStatsAndIdleEviction() throws Exception {
+        ConnectionPoolOptions options = new ConnectionPoolOptions();
+        options.idleTimeoutMillis = 500;
+        NioTransport pooled = new NioTransport(options, NioTransport.DefaultTimeoutMillis, Executors.newSingleThreadExecutor());
+        try {
+            for (int i = 0; i < 5; i++) {
+                Recorder r = new Recorder();
+                pooled.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, true), r);
+                assertEquals(200, r.await().response.statusCode);
+            }
+
+            ConnectionPoolStats stats = awaitStats(pooled, 0, 1);
+            assertEquals(0, stats.leased);
+            assertEquals(1, stats.idle);
+            assertEquals(0, stats.pending);
+            assertEquals(1, stats.created);
+            assertEquals(0, stats.closed);
+
+            stats = awaitStats(pooled, 0, 0);
+            assertEquals(0, stats.idle);
+            assertEquals(1, stats.closed);
+        } finally {
+            pooled.shutdown();
+        }
+    }
+
+    @Test
+    public void testRequestsBeyondMaxPerRouteWait() throws Exception {
+        NioTransport single = new NioTransport(singleConnection(), NioTransport.DefaultTimeoutMillis, Executors.newSingleThreadExecutor());
+        try {
+            Recorder[] recorders = new Recorder[3];
+            for (int i = 0; i < recorders.length; i++) {
+                recorders[i] = new Recorder();
+                single.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/200", null, null, false), recorders[i]);
+            }
+
+            ConnectionPoolStats stats = awaitStats(single, 1, 0);
+            assertEquals(1, stats.leased);
+            assertEquals(2, stats.pending);
+
+            for (Recorder r : recorders) {
+                assertEquals(200, r.await().response.statusCode);
+            }
+            assertEquals(1, single.getPoolStats().created);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testCancelPendingRequest() throws Exception {
+        NioTransport single = new NioTransport(singleConnection(), NioTransport.DefaultTimeoutMillis, Executors.newSingleThreadExecutor());
+        try {
+            Recorder slow = new Recorder();
+            single.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/200", null, null, false), slow);
+
+            Recorder queued = new Recorder();
+            BuddyTransport.Call call = single.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, false), queued);
+
+            assertTrue(call.cancel(true));
+            assertTrue(call.isCancelled());
+            assertEquals(200, slow.await().response.statusCode);
+            assertEquals(0, queued.calls);
+        } finally {
+            single.shutdown();
+        }
+    }
+
+    @Test
+    public void testShutdownFailsASynchronousCallInFlight() throws Exception {
+        final NioTransport nio = new NioTransport();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    awaitStats(nio, 1, 0);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                nio.shutdown();
+            }
+        }).start();
+
+        Recorder r = new Recorder();
+        nio.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/5000", null, null, true), r);
+
+        assertEquals(1, r.calls);
+        assertTrue(String.valueOf(r.error), r.error instanceof IOException);
+    }
+
+    @Test
+    public void testShutdownFailsRequestsNotYetDispatched() throws Exception {
+        for (int i = 0; i < 20; i++) {
+            NioTransport nio = new NioTransport();
+            Recorder r = new Recorder();
+            nio.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/5000", null, null, false), r);
+            nio.shutdown();
+
+            assertTrue(String.valueOf(r.await().error), r.error instanceof IOException);
+        }
+    }
+
+    @Test
+    public void testDeadSelectorFailsRequestsAndRefusesNewOnes() throws Exception {
+        NioTransport nio = new NioTransport();
+        Recorder slow = new Recorder();
+        nio.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/5000", null, null, false), slow);
+        awaitStats(nio, 1, 0);
+
+        Field selector = NioTransport.class.getDeclaredField("selector");
+        selector.setAccessible(true);
+        ((Selector) selector.get(nio)).close();
+
+        assertTrue(String.valueOf(slow.await().error), slow.error instanceof IOException);
+        try {
+            nio.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, true), new Recorder());
+            fail("the dead transport took a request");
+        } catch (IllegalStateException e) {
+            // refused rather than queued to a loop that's gone.
+        }
+    }
+
+    @Test
+    public void testShutdownStopsTheDefaultWorkers() throws Exception {
+        int before = countThreads("BuddyNio");
+        NioTransport nio = new NioTransport();
+        Recorder r = new Recorder();
+        nio.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, false), r);
+        assertEquals(200, r.await().response.statusCode);
+        assertTrue(countThreads("BuddyNio") > before);
+
+        nio.shutdown();
+        int after = countThreads("BuddyNio");
+        for (int i = 0; i < 100 && after > before; i++) {
+            Thread.sleep(20);
+            after = countThreads("BuddyNio");
+        }
+        assertTrue(after + " threads left, " + before + " before", after <= before);
+    }
+
+    // Answers the first request on each connection, then reads the next
+    // one in full and hangs up without answering it.
+    private static class HangUpServer implements Runnable {
+        final ServerSocket socket;
+        final AtomicInteger requests = new AtomicInteger();
+
+        HangUpServer() throws IOException {
+            socket = new ServerSocket(0);
+            Thread t = new Thread(this);
+            t.setDaemon(true);
+            t.start();
+        }
+
+        String root() {
+            return "http://127.0.0.1:" + socket.getLocalPort();
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                try {
+                    Socket connection = socket.accept();
+                    InputStream in = connection.getInputStream();
+                    OutputStream out = connection.getOutputStream();
+                    readRequest(in);
+                    out.write("HTTP/1.1 200 OK\r\nContent-Length: 2\r\n\r\nok".getBytes("ISO-8859-1"));
+                    out.flush();
+                    readRequest(in);
+                    connection.close();
+                } catch (IOException e) {
+                    return;
+                }
+            }
+        }
+
+        private void readRequest(InputStream in) throws IOException {
+            StringBuilder head = new StringBuilder();
+            while (!head.toString().endsWith("\r\n\r\n")) {
+                int b = in.read();
+                if (b < 0) {
+                    throw new IOException("Connection closed");
+                }
+                head.append((char) b);
+            }
+            int length = 0;
+            for (String line : head.toString().split("\r\n")) {
+                if (line.toLowerCase().startsWith("content-length:")) {
+                    length = Integer.parseInt(line.substring("content-length:".length()).trim());
+                }
+            }
+            for (int i = 0; i < length; i++) {
+                in.read();
+            }
+            requests.incrementAndGet();
+        }
+    }
+
+    private static Recorder send(BuddyTransport transport, String method, String url) throws InterruptedException {
+        Header[] headers = new Header[]{new BasicHeader("Content-Type", "application/json")};
+        ByteArrayEntity body = method.equals("GET") ? null : new ByteArrayEntity("{\"n\":1}".getBytes());
+        Recorder r = new Recorder();
+        transport.execute(new BuddyTransport.Request(method, url, headers, body, true), r);
+        return r.await();
+    }
+
+    @Test
+    public void testGetIsResentWhenAReusedConnectionHangsUp() throws Exception {
+        HangUpServer hangUp = new HangUpServer();
+        try {
+            assertEquals(200, send(transport, "GET", hangUp.root() + "/a").response.statusCode);
+            assertEquals(200, send(transport, "GET", hangUp.root() + "/b").response.statusCode);
+            assertEquals(3, hangUp.requests.get());
+        } finally {
+            hangUp.socket.close();
+        }
+    }
+
+    @Test
+    public void testPostIsNotResentWhenAReusedConnectionHangsUp() throws Exception {
+        HangUpServer hangUp = new HangUpServer();
+        try {
+            assertEquals(200, send(transport, "GET", hangUp.root() + "/a").response.statusCode);
+            Recorder r = send(transport, "POST", hangUp.root() + "/b");
+            assertNotNull(r.error);
+            // the server may have acted on it, so it isn't sent again.
+            Thread.sleep(200);
+            assertEquals(2, hangUp.requests.get());
+        } finally {
+            hangUp.socket.close();
+        }
+    }
+}
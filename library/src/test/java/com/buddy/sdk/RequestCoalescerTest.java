@@ -0,0 +1,149 @@
+package com.buddy.sdk;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RequestCoalescerTest {
+
+    @Test
+    public void testKeyIgnoresParameterOrder() {
+        Map<String, Object> a = new LinkedHashMap<String, Object>();
+        a.put("userName", "alice");
+        a.put("pagingToken", "p1");
+        Map<String, Object> b = new LinkedHashMap<String, Object>();
+        b.put("pagingToken", "p1");
+        b.put("userName", "alice");
+
+        assertEquals(RequestCoalescer.key("/users", a, "t", null, String.class),
+                RequestCoalescer.key("/users", b, "t", null, String.class));
+    }
+
+    @Test
+    public void testKeyDistinguishesTokenParametersFieldsAndType() {
+        Map<String, Object> params = new LinkedHashMap<String, Object>();
+        params.put("userName", "alice");
+        String key = RequestCoalescer.key("/users", params, "t", null, String.class);
+
+        assertFalse(key.equals(RequestCoalescer.key("/users", params, "other", null, String.class)));
+        assertFalse(key.equals(RequestCoalescer.key("/users", null, "t", null, String.class)));
+        assertFalse(key.equals(RequestCoalescer.key("/users", params, "t", new HashSet<String>(Arrays.asList("id")), String.class)));
+        assertFalse(key.equals(RequestCoalescer.key("/users", params, "t", null, Integer.class)));
+    }
+
+    @Test
+    public void testJoinersShareTheFirstResult() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        BuddyFuture<String> first = new BuddyFuture<String>();
+
+        assertNull(coalescer.join("k", first));
+        BuddyFuture<String> joined = coalescer.join("k", new BuddyFuture<String>());
+        assertSame(first, joined);
+        assertEquals(1, coalescer.getStats().inFlight);
+
+        coalescer.complete("k", first, "result");
+        assertTrue(joined.isDone());
+
+        // once complete, the next request goes to the network again.
+        assertNull(coalescer.join("k", new BuddyFuture<String>()));
+
+        CoalescingStats stats = coalescer.getStats();
+        assertEquals(3, stats.requests);
+        assertEquals(1, stats.coalesced);
+    }
+
+    @Test
+    public void testConcurrentCallersElectOneLeader() throws Exception {
+        final RequestCoalescer coalescer = new RequestCoalescer();
+        final AtomicInteger leaders = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(32);
+
+        for (int i = 0; i < 32; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (coalescer.join("/users/me", new BuddyFuture<String>()) == null) {
+                        leaders.incrementAndGet();
+                    }
+                    done.countDown();
+                }
+            }).start();
+        }
+        start.countDown();
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(1, leaders.get());
+        assertEquals(31, coalescer.getStats().coalesced);
+    }
+
+    @Test
+    public void testFlightNoOneJoinedIsCancelledWhenLeft() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        BuddyFuture<String> first = new BuddyFuture<String>();
+        BuddyFuture<Void> work = new BuddyFuture<Void>();
+        assertNull(coalescer.join("k", first));
+        coalescer.started("k", first, work);
+
+        coalescer.leave("k", first);
+        assertTrue(work.isCancelled());
+        assertEquals(0, coalescer.getStats().inFlight);
+
+        // the next request doesn't wait on the abandoned one.
+        BuddyFuture<String> second = new BuddyFuture<String>();
+        assertNull(coalescer.join("k", second));
+        coalescer.complete("k", first, "late");
+        assertEquals(1, coalescer.getStats().inFlight);
+    }
+
+    @Test
+    public void testJoinedFlightCarriesOnForTheOthers() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        BuddyFuture<String> first = new BuddyFuture<String>();
+        BuddyFuture<Void> work = new BuddyFuture<Void>();
+        assertNull(coalescer.join("k", first));
+        coalescer.started("k", first, work);
+        BuddyFuture<String> joined = coalescer.join("k", new BuddyFuture<String>());
+
+        coalescer.leave("k", first);
+        assertFalse(work.isCancelled());
+        coalescer.complete("k", first, "result");
+        assertTrue(joined.isDone());
+    }
+
+    @Test
+    public void testFlightIsCancelledOnceEveryoneHasLeft() {
+        RequestCoalescer coalescer = new RequestCoalescer();
+        BuddyFuture<String> first = new BuddyFuture<String>();
+        BuddyFuture<Void> work = new BuddyFuture<Void>();
+        assertNull(coalescer.join("k", first));
+        coalescer.started("k", first, work);
+        assertSame(first, coalescer.join("k", new BuddyFuture<String>()));
+        assertSame(first, coalescer.join("k", new BuddyFuture<String>()));
+
+        // followers first, then the caller that made the request.
+        coalescer.leave("k", first);
+        coalescer.leave("k", first);
+        assertFalse(work.isCancelled());
+        coalescer.leave("k", first);
+        assertTrue(work.isCancelled());
+        assertEquals(0, coalescer.getStats().inFlight);
+    }
+}
@@ -0,0 +1,338 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class ResponseCacheTest {
+
+    private static final String Body = "{\"status\":200,\"result\":\"hello\"}";
+
+    private File directory;
+
+    @Before
+    public void createDirectory() throws IOException {
+        directory = File.createTempFile("buddy-cache", "");
+        directory.delete();
+        directory.mkdirs();
+    }
+
+    @After
+    public void deleteDirectory() {
+        File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    private static class Handler extends JsonEnvelopeResponseHandler<String> {
+        int statusCode;
+        JsonEnvelope<String> envelope;
+        int failures;
+
+        Handler() {
+            super(String.class, null, null, null);
+        }
+
+        @Override
+        public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<String> envelope) {
+            this.statusCode = statusCode;
+            this.envelope = envelope;
+        }
+
+        @Override
+        public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<String> errorEnvelope) {
+            this.statusCode = statusCode;
+            failures++;
+        }
+    }
+
+    private static BuddyTransport.Response response(int status, String body, Header... headers) throws IOException {
+        Header[] all = new Header[headers.length + 1];
+        all[0] = new BasicHeader("Content-Type", "application/json; charset=utf-8");
+        System.arraycopy(headers, 0, all, 1, headers.length);
+        return new BuddyTransport.Response(status, "", all, body == null ? null : new ByteArrayInputStream(body.getBytes("UTF-8")));
+    }
+
+    // runs a GET for key through the cache, answering with the given response.
+    private static Handler get(ResponseCache cache, String key, String path, BuddyTransport.Response response) throws IOException {
+        Handler handler = new Handler();
+        new CachingCallback<String>(cache, key, path, cache.get(key, path), handler).onResponse(response);
+        return handler;
+    }
+
+    @Test
+    public void testMaxAge() {
+        assertEquals(-1, ResponseCache.maxAgeMillis(null));
+        assertEquals(-1, ResponseCache.maxAgeMillis("private"));
+        assertEquals(60000, ResponseCache.maxAgeMillis("private, max-age=60"));
+        assertEquals(60000, ResponseCache.maxAgeMillis("max-age=60, must-revalidate"));
+        assertEquals(0, ResponseCache.maxAgeMillis("no-cache"));
+        assertEquals(0, ResponseCache.maxAgeMillis("max-age=soon"));
+    }
+
+    @Test
+    public void testOnlyResponsesWithValidatorsOrMaxAgeAreStored() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+
+        get(cache, "a", "/users/a", response(200, Body));
+        get(cache, "b", "/users/b", response(200, Body, new BasicHeader("ETag", "\"1\""), new BasicHeader("Cache-Control", "no-store")));
+        get(cache, "c", "/users/c", response(404, Body, new BasicHeader("ETag", "\"1\"")));
+        assertEquals(0, cache.getStats().memoryEntries);
+
+        get(cache, "d", "/users/d", response(200, Body, new BasicHeader("ETag", "\"1\"")));
+        assertEquals(1, cache.getStats().memoryEntries);
+        assertEquals(4, cache.getStats().misses);
+    }
+
+    @Test
+    public void testNotModifiedIsAnsweredFromMemory() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+
+        Handler first = get(cache, "k", "/users/me", response(200, Body, new BasicHeader("ETag", "\"1\"")));
+        assertEquals("hello", first.envelope.result);
+
+        ResponseCache.Entry entry = cache.get("k", "/users/me");
+        assertEquals("\"1\"", entry.etag);
+        assertFalse(entry.isFresh(System.currentTimeMillis()));
+
+        Handler second = get(cache, "k", "/users/me", response(304, null, new BasicHeader("Cache-Control", "max-age=60")));
+        assertEquals(200, second.statusCode);
+        assertSame(first.envelope, second.envelope);
+        assertTrue(cache.get("k", "/users/me").isFresh(System.currentTimeMillis()));
+
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.misses);
+        assertEquals(1, stats.revalidations);
+    }
+
+    @Test
+    public void testMemoryTierEvictsLeastRecentlyUsed() throws IOException {
+        ResponseCache cache = new ResponseCache(2);
+        Header etag = new BasicHeader("ETag", "\"1\"");
+
+        get(cache, "a", "/a", response(200, Body, etag));
+        get(cache, "b", "/b", response(200, Body, etag));
+        cache.get("a", "/a");
+        get(cache, "c", "/c", response(200, Body, etag));
+
+        assertNotNull(cache.get("a", "/a"));
+        assertNull(cache.get("b", "/b"));
+        assertNotNull(cache.get("c", "/c"));
+    }
+
+    @Test
+    public void testDiskTierSurvivesANewCache() throws IOException {
+        ResponseCache cache = new ResponseCache(10, directory, 1024 * 1024);
+        get(cache, "k", "/pictures/p1", response(200, Body, new BasicHeader("ETag", "\"7\"")));
+        assertTrue(cache.getStats().diskBytes > Body.length());
+
+        ResponseCache reopened = new ResponseCache(10, directory, 1024 * 1024);
+        ResponseCache.Entry entry = reopened.get("k", "/pictures/p1");
+        assertEquals("\"7\"", entry.etag);
+        assertNull(entry.envelope);
+
+        Handler handler = get(reopened, "k", "/pictures/p1", response(304, null));
+        assertEquals("hello", handler.envelope.result);
+        assertEquals(1, reopened.getStats().memoryEntries);
+    }
+
+    @Test
+    public void testDiskTierIsTrimmedToSize() throws IOException {
+        ResponseCache cache = new ResponseCache(10, directory, 200);
+        for (int i = 0; i < 10; i++) {
+            get(cache, "k" + i, "/items/" + i, response(200, Body, new BasicHeader("ETag", "\"1\"")));
+        }
+        assertTrue(cache.getStats().diskBytes <= 200);
+        assertNotNull(new ResponseCache(10, directory, 200).get("k9", "/items/9"));
+    }
+
+    @Test
+    public void testInvalidateRemovesPathAndCollectionsAboveIt() throws IOException {
+        ResponseCache cache = new ResponseCache(10, directory, 1024 * 1024);
+        Header etag = new BasicHeader("ETag", "\"1\"");
+        get(cache, "list", "/albums", response(200, Body, etag));
+        get(cache, "album", "/albums/a1", response(200, Body, etag));
+        get(cache, "item", "/albums/a1/items/i1", response(200, Body, etag));
+        get(cache, "other", "/albums/a2", response(200, Body, etag));
+
+        cache.invalidate("/albums/a1?x=1");
+
+        assertNull(cache.get("list", "/albums"));
+        assertNull(cache.get("album", "/albums/a1"));
+        assertNotNull(cache.get("item", "/albums/a1/items/i1"));
+        assertNotNull(cache.get("other", "/albums/a2"));
+    }
+
+    @Test
+    public void testChangedResourceReplacesEntry() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        get(cache, "k", "/users/me", response(200, Body, new BasicHeader("ETag", "\"1\"")));
+
+        Handler handler = get(cache, "k", "/users/me", response(200, "{\"status\":200,\"result\":\"changed\"}", new BasicHeader("ETag", "\"2\"")));
+        assertEquals("changed", handler.envelope.result);
+        assertEquals("\"2\"", cache.get("k", "/users/me").etag);
+        assertEquals(0, cache.getStats().revalidations);
+    }
+
+    @Test
+    public void testPolicyDecidesWhetherAnEntryAnswers() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        get(cache, "k", "/users", response(200, Body, new BasicHeader("Cache-Control", "max-age=10")));
+        ResponseCache.Entry entry = cache.get("k", "/users");
+        long now = entry.storedAt;
+
+        assertTrue(CachePolicy.Default.canAnswer(entry, now));
+        assertFalse(CachePolicy.Default.canAnswer(entry, now + 11000));
+        assertFalse(CachePolicy.NetworkOnly.canAnswer(entry, now));
+        assertTrue(CachePolicy.CacheFirst.canAnswer(entry, now + 3600000));
+        assertTrue(CachePolicy.staleWhileRevalidate(5000).canAnswer(entry, now + 14000));
+        assertFalse(CachePolicy.staleWhileRevalidate(5000).canAnswer(entry, now + 16000));
+    }
+
+    @Test
+    public void testMustRevalidateIsFreshUntilMaxAgeThenNeverStale() throws IOException {
+        ResponseCache cache = new ResponseCache(10, directory, 1024 * 1024);
+        get(cache, "k", "/users", response(200, Body, new BasicHeader("Cache-Control", "max-age=60, must-revalidate")));
+        ResponseCache.Entry entry = cache.get("k", "/users");
+        long now = entry.storedAt;
+
+        assertTrue(CachePolicy.Default.canAnswer(entry, now + 59000));
+        assertTrue(CachePolicy.staleWhileRevalidate(5000).canAnswer(entry, now + 59000));
+        assertFalse(CachePolicy.Default.canAnswer(entry, now + 61000));
+        assertFalse(CachePolicy.staleWhileRevalidate(5000).canAnswer(entry, now + 61000));
+        assertFalse(CachePolicy.CacheFirst.canAnswer(entry, now + 61000));
+
+        // and from disk.
+        entry = new ResponseCache(10, directory, 1024 * 1024).get("k", "/users");
+        assertTrue(entry.mustRevalidate);
+        assertEquals(60000, entry.maxAgeMillis);
+    }
+
+    // a background refresh of a delivered entry, answered with the given response.
+    private static Handler refresh(ResponseCache cache, String key, String path, BuddyTransport.Response response) throws IOException {
+        Handler handler = new Handler();
+        new CachingCallback<String>(cache, key, path, cache.get(key, path), handler, true).onResponse(response);
+        return handler;
+    }
+
+    @Test
+    public void testRefreshOnlyDeliversChangedResults() throws IOException {
+        ResponseCache cache = new ResponseCache(10, directory, 1024 * 1024);
+        get(cache, "k", "/users", response(200, Body, new BasicHeader("ETag", "\"1\"")));
+
+        assertNull(refresh(cache, "k", "/users", response(304, null)).envelope);
+        assertEquals(1, cache.getStats().revalidations);
+
+        // same body under a new validator.
+        assertNull(refresh(cache, "k", "/users", response(200, Body, new BasicHeader("ETag", "\"2\""))).envelope);
+        assertEquals("\"2\"", cache.get("k", "/users").etag);
+
+        Handler changed = refresh(cache, "k", "/users", response(200, "{\"status\":200,\"result\":\"changed\"}", new BasicHeader("ETag", "\"3\"")));
+        assertEquals("changed", changed.envelope.result);
+
+        // the digest is kept on disk too.
+        ResponseCache reopened = new ResponseCache(10, directory, 1024 * 1024);
+        assertNull(refresh(reopened, "k", "/users", response(200, "{\"status\":200,\"result\":\"changed\"}", new BasicHeader("ETag", "\"4\""))).envelope);
+    }
+
+    @Test
+    public void testRefreshReportsErrors() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        get(cache, "k", "/users", response(200, Body, new BasicHeader("ETag", "\"1\"")));
+
+        Handler handler = refresh(cache, "k", "/users", response(500, "{\"status\":500,\"error\":\"InternalError\"}"));
+        assertEquals(1, handler.failures);
+        assertEquals(500, handler.statusCode);
+    }
+
+    private static final String NotFound = "{\"status\":404,\"error\":\"RecordNotFound\",\"errorNumber\":404}";
+
+    @Test
+    public void testConfiguredFailuresAreRemembered() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        cache.setNegativeCaching(60000, 404);
+
+        Handler handler = get(cache, "k", "/users/gone", response(404, NotFound));
+        assertEquals(1, handler.failures);
+        assertEquals(404, handler.statusCode);
+
+        ResponseCache.Entry failed = cache.getNegative("k");
+        assertEquals(404, failed.statusCode);
+        assertEquals("RecordNotFound", failed.envelope.error);
+
+        // other statuses aren't.
+        get(cache, "k2", "/users/broken", response(500, NotFound));
+        assertNull(cache.getNegative("k2"));
+
+        CacheStats stats = cache.getStats();
+        assertEquals(1, stats.negativeEntries);
+        assertEquals(0, stats.memoryEntries);
+    }
+
+    @Test
+    public void testRememberedFailuresExpire() throws Exception {
+        ResponseCache cache = new ResponseCache(10);
+        cache.setNegativeCaching(50, 404);
+
+        get(cache, "k", "/users/gone", response(404, NotFound));
+        assertNotNull(cache.getNegative("k"));
+        Thread.sleep(100);
+        assertNull(cache.getNegative("k"));
+    }
+
+    @Test
+    public void testNegativeCachingIsOffByDefault() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        get(cache, "k", "/users/gone", response(404, NotFound));
+        assertNull(cache.getNegative("k"));
+    }
+
+    @Test
+    public void testWritesForgetRememberedFailures() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        cache.setNegativeCaching(60000, 404);
+
+        get(cache, "item", "/metadata/app/key", response(404, NotFound));
+        get(cache, "child", "/albums/a1/items/i1", response(404, NotFound));
+        get(cache, "other", "/albums/a2", response(404, NotFound));
+
+        cache.invalidate("/metadata/app/key");
+        cache.invalidate("/albums/a1");
+
+        assertNull(cache.getNegative("item"));
+        assertNull(cache.getNegative("child"));
+        assertNotNull(cache.getNegative("other"));
+    }
+
+    @Test
+    public void testSuccessReplacesRememberedFailure() throws IOException {
+        ResponseCache cache = new ResponseCache(10);
+        cache.setNegativeCaching(60000, 404);
+        get(cache, "k", "/users/u1", response(200, Body, new BasicHeader("ETag", "\"1\"")));
+
+        // the resource went away.
+        get(cache, "k", "/users/u1", response(404, NotFound));
+        assertNull(cache.get("k", "/users/u1"));
+        assertNotNull(cache.getNegative("k"));
+
+        get(cache, "k", "/users/u1", response(200, Body, new BasicHeader("ETag", "\"2\"")));
+        assertNull(cache.getNegative("k"));
+    }
+}
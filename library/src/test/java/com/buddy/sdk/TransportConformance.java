@@ -0,0 +1,286 @@
+package com.buddy.sdk;
+
+import org.apache.http.Header;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHeader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+// The behavior every BuddyTransport has to provide, run against a local
+// stand-in server.  Subclass it with the transport to check.
+public abstract class TransportConformance {
+
+    protected LocalHttpServer server;
+    protected BuddyTransport transport;
+
+    protected abstract BuddyTransport createTransport();
+
+    @Before
+    public void setUp() throws IOException {
+        server = new LocalHttpServer();
+        transport = createTransport();
+    }
+
+    @After
+    public void tearDown() {
+        server.stop();
+    }
+
+    protected static class Recorder implements BuddyTransport.Callback {
+        final CountDownLatch done = new CountDownLatch(1);
+        volatile int calls;
+        volatile BuddyTransport.Response response;
+        volatile byte[] body;
+        volatile Throwable error;
+        volatile Thread thread;
+
+        @Override
+        public void onResponse(BuddyTransport.Response response) throws IOException {
+            calls++;
+            thread = Thread.currentThread();
+            this.response = response;
+            body = response.body == null ? new byte[0] : LocalHttpServer.readFully(response.body);
+            done.countDown();
+        }
+
+        @Override
+        public void onFailure(Throwable error) {
+            calls++;
+            thread = Thread.currentThread();
+            this.error = error;
+            done.countDown();
+        }
+
+        Recorder await() throws InterruptedException {
+            assertTrue("no callback", done.await(10, TimeUnit.SECONDS));
+            return this;
+        }
+    }
+
+    protected Recorder execute(String method, String path, byte[] body, String contentType, boolean synchronous) throws InterruptedException {
+        ByteArrayEntity entity = null;
+        Header[] headers = new Header[]{new BasicHeader("Authorization", "Buddy token")};
+
+        if (body != null) {
+            entity = new ByteArrayEntity(body);
+            headers = new Header[]{headers[0], new BasicHeader("Content-Type", contentType)};
+        }
+
+        Recorder recorder = new Recorder();
+        transport.execute(new BuddyTransport.Request(method, server.getRoot() + path, headers, entity, synchronous), recorder);
+        return recorder.await();
+    }
+
+    @Test
+    public void testGetSendsQueryAndHeaders() throws Exception {
+        Recorder r = execute("GET", "/echo?a=1&b=two%20words", null, null, false);
+
+        assertNull(r.error);
+        assertEquals(200, r.response.statusCode);
+        assertEquals("GET", r.response.getHeader("X-Echo-Method"));
+        assertEquals("a=1&b=two%20words", r.response.getHeader("X-Echo-Query"));
+        assertEquals("Buddy token", r.response.getHeader("x-echo-authorization"));
+        assertEquals(1, r.calls);
+    }
+
+    @Test
+    public void testEveryVerbSendsItsBody() throws Exception {
+        for (String verb : new String[]{"POST", "PUT", "PATCH", "DELETE"}) {
+            byte[] body = ("{\"verb\":\"" + verb + "\"}").getBytes("UTF-8");
+            Recorder r = execute(verb, "/echo", body, "application/json", false);
+
+            assertNull(verb, r.error);
+            assertEquals(verb, r.response.getHeader("X-Echo-Method"));
+            assertEquals("application/json", r.response.getHeader("X-Echo-Content-Type"));
+            assertArrayEquals(verb, body, r.body);
+        }
+    }
+
+    @Test
+    public void testErrorStatusIsAResponse() throws Exception {
+        Recorder r = execute("GET", "/status/404", null, null, false);
+
+        assertNull(r.error);
+        assertEquals(404, r.response.statusCode);
+        assertTrue(new String(r.body, "UTF-8").contains("RecordNotFound"));
+        assertTrue(r.response.getHeader("Content-Type").startsWith("application/json"));
+    }
+
+    @Test
+    public void testLargeBodyIsStreamedIntact() throws Exception {
+        Recorder r = execute("GET", "/bytes/1048576", null, null, false);
+
+        assertEquals(1048576, r.body.length);
+        for (int i = 0; i < r.body.length; i++) {
+            if (r.body[i] != (byte) i) {
+                throw new AssertionError("byte " + i + " differs");
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyResponse() throws Exception {
+        Recorder r = execute("DELETE", "/empty", null, null, false);
+
+        assertNull(r.error);
+        assertEquals(204, r.response.statusCode);
+        assertEquals(0, r.body.length);
+    }
+
+    @Test
+    public void testConnectionFailureReportsError() throws Exception {
+        int port;
+        ServerSocket socket = new ServerSocket(0);
+        port = socket.getLocalPort();
+        socket.close();
+
+        Recorder recorder = new Recorder();
+        transport.execute(new BuddyTransport.Request("GET", "http://127.0.0.1:" + port + "/echo", null, null, false), recorder);
+        recorder.await();
+
+        assertNotNull(recorder.error);
+        assertNull(recorder.response);
+        assertEquals(1, recorder.calls);
+    }
+
+    @Test
+    public void testSynchronousRunsOnCallingThread() throws Exception {
+        Recorder r = execute("GET", "/echo", null, null, true);
+
+        assertSame(Thread.currentThread(), r.thread);
+        assertEquals(200, r.response.statusCode);
+    }
+
+    @Test
+    public void testAsynchronousRunsOnTransportThread() throws Exception {
+        Recorder r = execute("GET", "/echo", null, null, false);
+
+        assertNotSame(Thread.currentThread(), r.thread);
+    }
+
+    @Test
+    public void testConcurrentRequests() throws Exception {
+        Recorder[] recorders = new Recorder[16];
+        for (int i = 0; i < recorders.length; i++) {
+            recorders[i] = new Recorder();
+            transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo?i=" + i, null, null, false), recorders[i]);
+        }
+        for (int i = 0; i < recorders.length; i++) {
+            assertEquals("i=" + i, recorders[i].await().response.getHeader("X-Echo-Query"));
+        }
+    }
+
+    @Test
+    public void testEnvelopeHandlerOverTransport() throws Exception {
+        final CountDownLatch done = new CountDownLatch(1);
+        final JsonEnvelope[] failed = new JsonEnvelope[1];
+
+        transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/status/404", null, null, true),
+                new JsonEnvelopeResponseHandler<String>(String.class, null, null, null) {
+                    @Override
+                    public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<String> envelope) {
+                        done.countDown();
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<String> errorEnvelope) {
+                        failed[0] = errorEnvelope;
+                        done.countDown();
+                    }
+                });
+
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertNotNull(failed[0]);
+        assertEquals("RecordNotFound", failed[0].error);
+        assertEquals(404, failed[0].errorCode);
+    }
+
+    @Test
+    public void testSynchronousCallIsHandedOverBeforeItRuns() throws Exception {
+        final AtomicInteger handedOver = new AtomicInteger();
+        final AtomicBoolean beforeResponse = new AtomicBoolean();
+        class Listening extends Recorder implements BuddyTransport.CallListener {
+            @Override
+            public void onCall(BuddyTransport.Call call) {
+                assertNotNull(call);
+                beforeResponse.set(calls == 0);
+                handedOver.incrementAndGet();
+            }
+        }
+
+        Listening r = new Listening();
+        BuddyTransport.Call call = transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/echo", null, null, true), r);
+
+        assertEquals(200, r.response.statusCode);
+        assertEquals(1, handedOver.get());
+        assertTrue(beforeResponse.get());
+        assertTrue(call.isDone());
+    }
+
+    @Test
+    public void testCancelledCallIsNotDelivered() throws Exception {
+        checkCancelledCallIsNotDelivered(transport);
+    }
+
+    protected void checkCancelledCallIsNotDelivered(BuddyTransport transport) throws Exception {
+        final AtomicBoolean cancelled = new AtomicBoolean();
+        final AtomicInteger delivered = new AtomicInteger();
+
+        BuddyTransport.Call call = transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/slow/300", null, null, false),
+                new JsonEnvelopeResponseHandler<String>(String.class, null, null, null) {
+                    @Override
+                    protected boolean isCancelled() {
+                        return cancelled.get();
+                    }
+
+                    @Override
+                    public void onSuccess(int statusCode, Header[] headers, JsonEnvelope<String> envelope) {
+                        delivered.incrementAndGet();
+                    }
+
+                    @Override
+                    public void onFailure(int statusCode, Header[] headers, Throwable throwable, JsonEnvelope<String> errorEnvelope) {
+                        delivered.incrementAndGet();
+                    }
+                });
+
+        Thread.sleep(50);
+        cancelled.set(true);
+        call.cancel(true);
+
+        Thread.sleep(600);
+        assertTrue(call.isCancelled());
+        assertEquals(0, delivered.get());
+    }
+
+    // compression is handled by CompressingTransport, above the transport.
+    @Test
+    public void testGzipBodyIsPassedThroughAsSent() throws Exception {
+        Recorder recorder = new Recorder();
+        Header[] headers = new Header[]{new BasicHeader("Accept-Encoding", "gzip")};
+        transport.execute(new BuddyTransport.Request("GET", server.getRoot() + "/gzip/1000", headers, null, false), recorder);
+        recorder.await();
+
+        assertEquals("gzip", recorder.response.getHeader("Content-Encoding"));
+        byte[] inflated = LocalHttpServer.readFully(new GZIPInputStream(new ByteArrayInputStream(recorder.body)));
+        assertEquals(1000, inflated.length);
+    }
+}
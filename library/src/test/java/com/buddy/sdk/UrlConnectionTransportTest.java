@@ -0,0 +1,9 @@
+package com.buddy.sdk;
+
+public class UrlConnectionTransportTest extends TransportConformance {
+
+    @Override
+    protected BuddyTransport createTransport() {
+        return new UrlConnectionTransport();
+    }
+}
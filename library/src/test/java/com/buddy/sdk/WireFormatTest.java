@@ -0,0 +1,69 @@
+package com.buddy.sdk;
+
+import org.junit.Test;
+
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class WireFormatTest {
+
+    private static String fixed(double value) {
+        StringBuilder sb = new StringBuilder();
+        BuddyLocationSerializer.appendFixed(sb, value);
+        return sb.toString();
+    }
+
+    @Test
+    public void testFixedMatchesFormat() {
+        double[] values = {0, -0.0, 1, -1, 0.5, 47.6062095, -122.3320708, 9.9999995, 179.9999999,
+                5.0E-7, 4.9E-7, 1.0E-8, 1.2345678E7, 0.0000015, Double.NaN, Double.POSITIVE_INFINITY,
+                Double.NEGATIVE_INFINITY, Double.MIN_VALUE};
+
+        for (double value : values) {
+            assertEquals(String.format(Locale.US, "%f", value), fixed(value));
+        }
+
+        Random random = new Random(42);
+        for (int i = 0; i < 100000; i++) {
+            double value = (random.nextDouble() - 0.5) * 360;
+            assertEquals(String.format(Locale.US, "%f", value), fixed(value));
+
+            value = Math.round(value * 1e7) / 1e7;
+            assertEquals(String.format(Locale.US, "%f", value), fixed(value));
+        }
+    }
+
+    @Test
+    public void testDateRange() {
+        DateRange range = new DateRange(new Date(-5), new Date(1420070400000L));
+        assertEquals("-5-1420070400000", DateRangeSerializer.serializeCore(range));
+    }
+
+    @Test
+    public void testHexString() {
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) i;
+        }
+
+        StringBuilder expected = new StringBuilder();
+        for (byte b : bytes) {
+            expected.append(String.format("%02x", b));
+        }
+        assertEquals(expected.toString(), BuddyServiceClientImpl.toHexString(bytes));
+    }
+
+    @Test
+    public void testDates() {
+        assertEquals(1420070400000L, BuddyDateDeserializer.deserialize("/Date(1420070400000)/").getTime());
+        assertEquals(-86400000L, BuddyDateDeserializer.deserialize("/Date(-86400000)/").getTime());
+        assertEquals(0L, BuddyDateDeserializer.deserialize("x/Date(-)/ /Date(0)/").getTime());
+        assertEquals(Long.decode("017"), Long.valueOf(BuddyDateDeserializer.deserialize("/Date(017)/").getTime()));
+        assertNull(BuddyDateDeserializer.deserialize("/Date(12)"));
+        assertNull(BuddyDateDeserializer.deserialize("2015-01-01"));
+    }
+}